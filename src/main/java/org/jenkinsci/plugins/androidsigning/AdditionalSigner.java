@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.ItemGroup;
+import hudson.util.ListBoxModel;
+
+
+/**
+ * A key store credential and alias that signs APKs in addition to the primary
+ * {@link SignApksBuilder#getKeyStoreId() key store} of a signing step.  All
+ * signers of a step go into the same {@link com.android.apksig.ApkSigner}
+ * invocation, so the APK content is only digested once.
+ */
+public final class AdditionalSigner extends AbstractDescribableImpl<AdditionalSigner> {
+
+    private final String keyStoreId;
+    private String keyAlias;
+
+    /**
+     * @param keyStoreId an ID of a {@link com.cloudbees.plugins.credentials.common.StandardCertificateCredentials}
+     */
+    @DataBoundConstructor
+    public AdditionalSigner(String keyStoreId) {
+        this.keyStoreId = keyStoreId;
+    }
+
+    @DataBoundSetter
+    public void setKeyAlias(String x) {
+        keyAlias = x;
+    }
+
+    public String getKeyStoreId() {
+        return keyStoreId;
+    }
+
+    public String getKeyAlias() {
+        return keyAlias;
+    }
+
+    @Extension
+    @Symbol("signer")
+    public static class DescriptorImpl extends Descriptor<AdditionalSigner> {
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.additionalSigner_displayName();
+        }
+
+        @SuppressWarnings("unused")
+        public ListBoxModel doFillKeyStoreIdItems(@AncestorInPath ItemGroup<?> parent) {
+            return SignApksBuilder.keyStoreIdItems(parent);
+        }
+    }
+}
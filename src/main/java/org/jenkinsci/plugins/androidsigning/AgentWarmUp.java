@@ -0,0 +1,212 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import com.android.apksig.ApkSigner;
+import com.android.apksig.util.DataSinks;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.ReadableDataSink;
+
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.androidsigning.core.DigestingDataSink;
+import org.jenkinsci.plugins.androidsigning.core.InterruptibleDataSource;
+import org.jenkinsci.plugins.androidsigning.core.SigningComponents;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+
+
+/**
+ * Warms up APK signing on each agent as it connects, when {@link SignApksBuilder.SignApksDescriptor#getWarmUpAgents()}
+ * is on.  Without this, the first signing on an agent also loads the plugin and apksig classes through remoting one
+ * class at a time, and runs the digest and ZIP code in the interpreter.  The warm-up preloads the plugin and apksig
+ * jars in one transfer each, then signs a small generated APK in memory a few times with a throwaway key.  It also
+ * has {@link SigningSlots} forget the signing queues of nodes that were deleted, renamed, or reconfigured.
+ */
+@Extension
+public class AgentWarmUp extends ComputerListener {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentWarmUp.class.getName());
+
+    private static final String KEY_STORE_RESOURCE = "AgentWarmUp/warm-up.p12";
+    private static final String KEY_ALIAS = "warm-up";
+    private static final char[] KEY_STORE_PASSWORD = "warm-up".toCharArray();
+    private static final String MANIFEST_RESOURCE = "AgentWarmUp/warm-up-manifest.bin";
+
+    static final int SIGNINGS = 3;
+
+    /**
+     * Signs a generated APK in memory {@link #SIGNINGS} times and returns the time of the first signing.
+     */
+    static final class WarmUpCallable extends MasterToSlaveCallable<Long, IOException> {
+
+        private static final long serialVersionUID = 1;
+
+        final SigningComponents signer;
+        private final byte[] manifest;
+
+        WarmUpCallable(SigningComponents signer, byte[] manifest) {
+            this.signer = signer;
+            this.manifest = manifest;
+        }
+
+        @Override
+        public Long call() throws IOException {
+            byte[] unsignedApk = generateApk();
+            List<X509Certificate> certs = new ArrayList<>(signer.certChain.length);
+            for (Certificate cert : signer.certChain) {
+                certs.add((X509Certificate) cert);
+            }
+            ApkSigner.SignerConfig signerConfig = new ApkSigner.SignerConfig.Builder(signer.v1SigName, signer.key, certs).build();
+
+            long firstSigning = 0;
+            for (int i = 0; i < SIGNINGS; i++) {
+                long start = System.nanoTime();
+                ReadableDataSink signedApk = DataSinks.newInMemoryDataSink();
+                DigestingDataSink signedApkOut = new DigestingDataSink(signedApk);
+                try {
+                    new ApkSigner.Builder(Collections.singletonList(signerConfig))
+                        .setInputApk(new InterruptibleDataSource(DataSources.asDataSource(ByteBuffer.wrap(unsignedApk))))
+                        .setOutputApk(signedApkOut, signedApk)
+                        .setOtherSignersSignaturesPreserved(false)
+                        .setV1SigningEnabled(true)
+                        .setV2SigningEnabled(true)
+                        .setV3SigningEnabled(true)
+                        .build()
+                        .sign();
+                }
+                catch (Exception e) {
+                    throw new IOException("warm-up signing failed", e);
+                }
+                signedApkOut.sha256();
+                if (i == 0) {
+                    firstSigning = System.nanoTime() - start;
+                }
+            }
+            return firstSigning;
+        }
+
+        private byte[] generateApk() throws IOException {
+            ByteArrayOutputStream apk = new ByteArrayOutputStream();
+            Random random = new Random(0);
+            try (ZipOutputStream zip = new ZipOutputStream(apk)) {
+                zip.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+                zip.write(manifest);
+                zip.closeEntry();
+
+                // compressible, like dex code
+                byte[] dex = new byte[256 * 1024];
+                for (int i = 0; i < dex.length; i++) {
+                    dex[i] = (byte) (random.nextInt(16) + 'a');
+                }
+                zip.putNextEntry(new ZipEntry("classes.dex"));
+                zip.write(dex);
+                zip.closeEntry();
+
+                // stored, like resources.arsc and media
+                byte[] raw = new byte[64 * 1024];
+                random.nextBytes(raw);
+                ZipEntry rawEntry = new ZipEntry("res/raw/warm_up.bin");
+                rawEntry.setMethod(ZipEntry.STORED);
+                rawEntry.setSize(raw.length);
+                rawEntry.setCompressedSize(raw.length);
+                CRC32 crc = new CRC32();
+                crc.update(raw);
+                rawEntry.setCrc(crc.getValue());
+                zip.putNextEntry(rawEntry);
+                zip.write(raw);
+                zip.closeEntry();
+            }
+            return apk.toByteArray();
+        }
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        try (InputStream in = AgentWarmUp.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("missing warm-up resource " + name);
+            }
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    static WarmUpCallable newWarmUpCallable() throws IOException {
+        SigningComponents signer;
+        try (InputStream in = AgentWarmUp.class.getResourceAsStream(KEY_STORE_RESOURCE)) {
+            if (in == null) {
+                throw new IOException("missing warm-up resource " + KEY_STORE_RESOURCE);
+            }
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(in, KEY_STORE_PASSWORD);
+            signer = SigningComponents.fromKeyStore(keyStore, KEY_ALIAS, new String(KEY_STORE_PASSWORD), "the warm-up key store");
+        }
+        catch (GeneralSecurityException e) {
+            throw new IOException("failed to read the warm-up key", e);
+        }
+        return new WarmUpCallable(signer, resource(MANIFEST_RESOURCE));
+    }
+
+    /**
+     * Preload the plugin and apksig jars on the other side of the given channel and sign there until warm, and
+     * return the time of the first warm-up signing.
+     */
+    static long warmUp(VirtualChannel channel) throws IOException, InterruptedException {
+        WarmUpCallable warmUp = newWarmUpCallable();
+        channel.preloadJar(warmUp, ApkSigner.class, AgentWarmUp.class);
+        return channel.call(warmUp);
+    }
+
+    @Override
+    public void onConfigurationChange() {
+        // a node was added, deleted, renamed, or reconfigured
+        SigningSlots.pruneStaleQueues();
+    }
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        SignApksBuilder.SignApksDescriptor descriptor = Jenkins.getInstance().getDescriptorByType(SignApksBuilder.SignApksDescriptor.class);
+        if (c instanceof Jenkins.MasterComputer || descriptor == null || !descriptor.getWarmUpAgents()) {
+            return;
+        }
+        VirtualChannel channel = c.getChannel();
+        if (channel == null) {
+            return;
+        }
+        // do not hold up the agent's connection; a build that signs right away only shares the class loading
+        Computer.threadPoolForRemoting.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                long firstSigning = warmUp(channel);
+                listener.getLogger().printf("[SignApksBuilder] warmed up APK signing in %d ms (first warm-up signing %d ms)%n",
+                    (System.nanoTime() - start) / 1000000, firstSigning / 1000000);
+            }
+            catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "failed to warm up APK signing on " + c.getDisplayName(), e);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+}
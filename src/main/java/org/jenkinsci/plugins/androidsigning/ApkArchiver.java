@@ -0,0 +1,125 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.BuildListenerAdapter;
+
+
+/**
+ * Archives the APKs of a signing run in batches, with a bounded number of batches transferring to the
+ * build's artifact manager at once.  Files can be added while signing is still in progress, so archiving
+ * overlaps with signing the remaining APKs.
+ */
+class ApkArchiver implements AutoCloseable {
+
+    static final int DEFAULT_BATCH_SIZE = 10;
+    static final int DEFAULT_MAX_TRANSFERS = 2;
+
+    private final Run<?, ?> run;
+    private final FilePath workspace;
+    private final Launcher launcher;
+    private final TaskListener listener;
+    private final int batchSize;
+    private final int maxTransfers;
+    private final ExecutorService transfers;
+    private final List<Future<?>> pending = new ArrayList<>();
+    private final AtomicInteger archivedFiles = new AtomicInteger();
+    private final AtomicLong archivedBytes = new AtomicLong();
+    private Map<String, String> batch = new LinkedHashMap<>();
+    private long batchBytes = 0;
+    private long startTime = 0;
+
+    ApkArchiver(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener, int batchSize, int maxTransfers) {
+        this.run = run;
+        this.workspace = workspace;
+        this.launcher = launcher;
+        this.listener = listener;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxTransfers = Math.max(1, maxTransfers);
+        transfers = Executors.newFixedThreadPool(this.maxTransfers,
+            new NamingThreadFactory(new DaemonThreadFactory(), getClass().getSimpleName()));
+    }
+
+    /**
+     * Add the given artifacts, mapping archive paths to workspace-relative paths, and start archiving the
+     * current batch if it is full.  Fail if a batch already failed to archive.
+     */
+    synchronized void add(Map<String, String> artifacts) throws IOException, InterruptedException {
+        checkFailedTransfers();
+        for (Map.Entry<String, String> artifact : artifacts.entrySet()) {
+            batch.put(artifact.getKey(), artifact.getValue());
+            batchBytes += workspace.child(artifact.getValue()).length();
+            if (batch.size() >= batchSize) {
+                submitBatch();
+            }
+        }
+    }
+
+    /**
+     * Archive the last partial batch, wait for all the batches, and report the throughput.
+     */
+    void finish() throws IOException, InterruptedException {
+        List<Future<?>> transfersToWait;
+        synchronized (this) {
+            if (!batch.isEmpty()) {
+                submitBatch();
+            }
+            transfersToWait = new ArrayList<>(pending);
+        }
+        if (transfersToWait.isEmpty()) {
+            return;
+        }
+        for (Future<?> transfer : transfersToWait) {
+            SignApksBuilder.getInterruptibly(transfer);
+        }
+        double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+        listener.getLogger().printf("[SignApksBuilder] archived %d files (%s) in %d batches in %.1f s at %.1f MiB/s with up to %d concurrent transfers%n",
+            archivedFiles.get(), SigningMetrics.formatBytes(archivedBytes.get()), transfersToWait.size(), seconds,
+            archivedBytes.get() / (1024.0 * 1024) / seconds, maxTransfers);
+    }
+
+    @Override
+    public void close() {
+        transfers.shutdownNow();
+    }
+
+    private void submitBatch() {
+        if (startTime == 0) {
+            startTime = System.currentTimeMillis();
+        }
+        Map<String, String> artifacts = batch;
+        long bytes = batchBytes;
+        batch = new LinkedHashMap<>();
+        batchBytes = 0;
+        pending.add(transfers.submit(() -> {
+            run.pickArtifactManager().archive(workspace, launcher, BuildListenerAdapter.wrap(listener), artifacts);
+            archivedFiles.addAndGet(artifacts.size());
+            archivedBytes.addAndGet(bytes);
+            return null;
+        }));
+    }
+
+    private void checkFailedTransfers() throws IOException, InterruptedException {
+        for (Future<?> transfer : pending) {
+            if (transfer.isDone()) {
+                // throws the failure, if any
+                SignApksBuilder.getInterruptibly(transfer);
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.plugins.androidsigning.core.ZipCentralDirectory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A binary delta between two APKs that differ only in their signatures, like an unsigned APK and the same
+ * APK after zipalign and signing.  Both APKs contain the same compressed entry data at different offsets,
+ * so the delta copies the data of each entry of the target APK that has identical data in the source APK,
+ * and stores everything else, i.e., local headers, alignment padding, signature files, the APK signing
+ * block, and the central directory, literally.  The delta ends with the SHA-256 digest of the target APK,
+ * which {@link #apply(InputStream, Source, OutputStream)} verifies.
+ */
+final class ApkDelta {
+
+    static final String EXTENSION = ".apkdelta";
+
+    private static final byte[] MAGIC = "APKDELTA".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int OP_END = 0;
+    private static final int OP_COPY = 1;
+    private static final int OP_LITERAL = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Opens the source APK of a delta from the start, as many times as the delta needs to seek backwards.
+     */
+    interface Source {
+        InputStream open() throws IOException;
+    }
+
+    private static final class CopyRegion {
+        final long targetOffset;
+        final long sourceOffset;
+        final long length;
+
+        CopyRegion(long targetOffset, long sourceOffset, long length) {
+            this.targetOffset = targetOffset;
+            this.sourceOffset = sourceOffset;
+            this.length = length;
+        }
+    }
+
+    private ApkDelta() {
+    }
+
+    private static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Write the delta that rebuilds the target APK from the source APK to the given file, and return the
+     * size of the delta.  If either file is not a ZIP file, the delta stores the whole target literally.
+     */
+    static long compute(File targetApk, File sourceApk, File delta) throws IOException {
+        try (RandomAccessFile target = new RandomAccessFile(targetApk, "r");
+            RandomAccessFile source = new RandomAccessFile(sourceApk, "r");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(delta)))) {
+
+            MessageDigest targetDigest = sha256();
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(target.length());
+            out.writeLong(source.length());
+
+            byte[] targetBuf = new byte[BUFFER_SIZE];
+            byte[] sourceBuf = new byte[BUFFER_SIZE];
+            long pos = 0;
+            for (CopyRegion region : candidateRegions(target, source)) {
+                if (region.targetOffset < pos) {
+                    continue;
+                }
+                if (region.targetOffset > pos) {
+                    writeLiteral(target, pos, region.targetOffset - pos, targetBuf, targetDigest, out);
+                    pos = region.targetOffset;
+                }
+                if (regionsMatch(target, source, region, targetBuf, sourceBuf)) {
+                    out.writeByte(OP_COPY);
+                    out.writeLong(region.sourceOffset);
+                    out.writeLong(region.length);
+                    digestRegion(target, region.targetOffset, region.length, targetBuf, targetDigest);
+                }
+                else {
+                    writeLiteral(target, region.targetOffset, region.length, targetBuf, targetDigest, out);
+                }
+                pos = region.targetOffset + region.length;
+            }
+            if (pos < target.length()) {
+                writeLiteral(target, pos, target.length() - pos, targetBuf, targetDigest, out);
+            }
+
+            out.writeByte(OP_END);
+            out.write(targetDigest.digest());
+        }
+        return delta.length();
+    }
+
+    /**
+     * Rebuild the target APK of the given delta from its source APK into the given file, and delete the file and
+     * fail if the result does not match the target's digest, so a file this returns is always the original APK.
+     */
+    static void apply(InputStream delta, Source source, File target) throws IOException {
+        boolean verified = false;
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+                apply(delta, source, out);
+            }
+            verified = true;
+        }
+        finally {
+            if (!verified) {
+                target.delete();
+            }
+        }
+    }
+
+    /**
+     * Rebuild the target APK of the given delta from its source APK, and fail after writing it if the
+     * result does not match the target's digest.  The output is only trustworthy once this returns, so
+     * anything that hands it on, like a download, should {@link #apply(InputStream, Source, File) rebuild to a file}
+     * first.
+     */
+    static void apply(InputStream delta, Source source, OutputStream target) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(delta));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not an APK delta");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported APK delta version " + version);
+        }
+        long targetSize = in.readLong();
+        in.readLong();
+
+        MessageDigest targetDigest = sha256();
+        DigestOutputStream out = new DigestOutputStream(target, targetDigest);
+        byte[] buf = new byte[BUFFER_SIZE];
+        InputStream sourceIn = null;
+        long sourcePos = 0;
+        long written = 0;
+        try {
+            for (int op = in.readUnsignedByte(); op != OP_END; op = in.readUnsignedByte()) {
+                if (op == OP_COPY) {
+                    long sourceOffset = in.readLong();
+                    long length = in.readLong();
+                    if (sourceIn == null || sourceOffset < sourcePos) {
+                        if (sourceIn != null) {
+                            sourceIn.close();
+                        }
+                        sourceIn = new BufferedInputStream(source.open());
+                        sourcePos = 0;
+                    }
+                    skipFully(sourceIn, sourceOffset - sourcePos);
+                    copy(sourceIn, out, length, buf);
+                    sourcePos = sourceOffset + length;
+                    written += length;
+                }
+                else if (op == OP_LITERAL) {
+                    long length = in.readLong();
+                    copy(in, out, length, buf);
+                    written += length;
+                }
+                else {
+                    throw new IOException("corrupt APK delta: unknown operation " + op);
+                }
+            }
+        }
+        finally {
+            if (sourceIn != null) {
+                sourceIn.close();
+            }
+        }
+        out.flush();
+
+        byte[] expectedDigest = new byte[32];
+        in.readFully(expectedDigest);
+        if (written != targetSize || !MessageDigest.isEqual(expectedDigest, targetDigest.digest())) {
+            throw new IOException("the APK rebuilt from the delta does not match the original APK");
+        }
+    }
+
+    private static List<CopyRegion> candidateRegions(RandomAccessFile target, RandomAccessFile source) throws IOException {
+        List<CopyRegion> regions = new ArrayList<>();
+        List<ZipCentralDirectory.Entry> targetEntries = ZipCentralDirectory.read(target);
+        List<ZipCentralDirectory.Entry> sourceEntries = ZipCentralDirectory.read(source);
+        if (targetEntries == null || sourceEntries == null) {
+            return regions;
+        }
+        Map<String, ZipCentralDirectory.Entry> sourceByName = new HashMap<>();
+        for (ZipCentralDirectory.Entry entry : sourceEntries) {
+            sourceByName.put(entry.name, entry);
+        }
+        for (ZipCentralDirectory.Entry targetEntry : targetEntries) {
+            ZipCentralDirectory.Entry sourceEntry = sourceByName.get(targetEntry.name);
+            if (sourceEntry == null || targetEntry.compressedSize == 0 || sourceEntry.method != targetEntry.method
+                || sourceEntry.crc != targetEntry.crc || sourceEntry.compressedSize != targetEntry.compressedSize) {
+                continue;
+            }
+            long targetOffset = ZipCentralDirectory.dataOffset(target, targetEntry);
+            long sourceOffset = ZipCentralDirectory.dataOffset(source, sourceEntry);
+            if (targetOffset < 0 || sourceOffset < 0
+                || targetOffset + targetEntry.compressedSize > target.length() || sourceOffset + sourceEntry.compressedSize > source.length()) {
+                continue;
+            }
+            regions.add(new CopyRegion(targetOffset, sourceOffset, targetEntry.compressedSize));
+        }
+        regions.sort(Comparator.comparingLong(region -> region.targetOffset));
+        return regions;
+    }
+
+    private static boolean regionsMatch(RandomAccessFile target, RandomAccessFile source, CopyRegion region, byte[] targetBuf, byte[] sourceBuf) throws IOException {
+        for (long done = 0; done < region.length; ) {
+            int chunk = (int) Math.min(BUFFER_SIZE, region.length - done);
+            target.seek(region.targetOffset + done);
+            target.readFully(targetBuf, 0, chunk);
+            source.seek(region.sourceOffset + done);
+            source.readFully(sourceBuf, 0, chunk);
+            for (int i = 0; i < chunk; i++) {
+                if (targetBuf[i] != sourceBuf[i]) {
+                    return false;
+                }
+            }
+            done += chunk;
+        }
+        return true;
+    }
+
+    private static void digestRegion(RandomAccessFile target, long offset, long length, byte[] buf, MessageDigest digest) throws IOException {
+        target.seek(offset);
+        for (long done = 0; done < length; ) {
+            int chunk = (int) Math.min(buf.length, length - done);
+            target.readFully(buf, 0, chunk);
+            digest.update(buf, 0, chunk);
+            done += chunk;
+        }
+    }
+
+    private static void writeLiteral(RandomAccessFile target, long offset, long length, byte[] buf, MessageDigest digest, DataOutputStream out) throws IOException {
+        out.writeByte(OP_LITERAL);
+        out.writeLong(length);
+        target.seek(offset);
+        for (long done = 0; done < length; ) {
+            int chunk = (int) Math.min(buf.length, length - done);
+            target.readFully(buf, 0, chunk);
+            digest.update(buf, 0, chunk);
+            out.write(buf, 0, chunk);
+            done += chunk;
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("APK delta source ended before the data it refers to");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length, byte[] buf) throws IOException {
+        for (long done = 0; done < length; ) {
+            int read = in.read(buf, 0, (int) Math.min(buf.length, length - done));
+            if (read < 0) {
+                throw new EOFException("APK delta data ended early");
+            }
+            out.write(buf, 0, read);
+            done += read;
+        }
+    }
+}
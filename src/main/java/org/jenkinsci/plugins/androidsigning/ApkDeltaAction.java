@@ -0,0 +1,161 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import jenkins.util.VirtualFile;
+
+
+/**
+ * Lists the APKs of a build that were archived as an {@link ApkDelta} against another archived APK, and
+ * rebuilds the full APK when downloaded.
+ */
+public class ApkDeltaAction implements RunAction2 {
+
+    private static final Logger LOGGER = Logger.getLogger(ApkDeltaAction.class.getName());
+
+    static final String URL_NAME = "apkDeltas";
+
+    /**
+     * Return the action of the given run, adding it if necessary.
+     */
+    static ApkDeltaAction of(Run<?, ?> run) {
+        synchronized (ApkDeltaAction.class) {
+            ApkDeltaAction action = run.getAction(ApkDeltaAction.class);
+            if (action == null) {
+                action = new ApkDeltaAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+
+    public static final class ArchivedDelta {
+
+        private final String deltaArtifact;
+        private final String sourceArtifact;
+        private final String fileName;
+
+        ArchivedDelta(String deltaArtifact, String sourceArtifact, String fileName) {
+            this.deltaArtifact = deltaArtifact;
+            this.sourceArtifact = sourceArtifact;
+            this.fileName = fileName;
+        }
+
+        /**
+         * The archive path of the delta.
+         */
+        public String getDeltaArtifact() {
+            return deltaArtifact;
+        }
+
+        /**
+         * The archive path of the APK the delta applies to.
+         */
+        public String getSourceArtifact() {
+            return sourceArtifact;
+        }
+
+        /**
+         * The file name of the APK the delta rebuilds.
+         */
+        public String getFileName() {
+            return fileName;
+        }
+    }
+
+    private final List<ArchivedDelta> deltas = new CopyOnWriteArrayList<>();
+    private transient Run<?, ?> run;
+
+    void add(ArchivedDelta delta) {
+        deltas.add(delta);
+    }
+
+    public List<ArchivedDelta> getDeltas() {
+        return Collections.unmodifiableList(deltas);
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return deltas.isEmpty() ? null : "package.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.apkDeltaAction_displayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    public void doRestore(StaplerRequest req, StaplerResponse rsp, @QueryParameter String delta) throws IOException {
+        run.checkPermission(Run.ARTIFACTS);
+        ArchivedDelta archived = null;
+        for (ArchivedDelta candidate : deltas) {
+            if (candidate.deltaArtifact.equals(delta)) {
+                archived = candidate;
+                break;
+            }
+        }
+        if (archived == null) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        VirtualFile artifacts = run.getArtifactManager().root();
+        VirtualFile source = artifacts.child(archived.sourceArtifact);
+        // verify the rebuilt APK before sending any of it, so a corrupt delta fails the download instead of truncating it
+        File restored = File.createTempFile("restored-", ".apk");
+        try {
+            try (InputStream deltaIn = artifacts.child(archived.deltaArtifact).open()) {
+                ApkDelta.apply(deltaIn, source::open, restored);
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.WARNING, "failed to rebuild " + archived.fileName + " of " + run + " from " + archived.deltaArtifact, e);
+                rsp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                    Messages.apkDeltaAction_restoreFailed(archived.fileName, e.getLocalizedMessage()));
+                return;
+            }
+            rsp.setContentType("application/vnd.android.package-archive");
+            rsp.setHeader("Content-Disposition", "attachment; filename=\"" + archived.fileName + "\"");
+            rsp.setHeader("Content-Length", String.valueOf(restored.length()));
+            try (OutputStream out = rsp.getOutputStream()) {
+                Files.copy(restored.toPath(), out);
+            }
+        }
+        finally {
+            Files.deleteIfExists(restored.toPath());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jvnet.localizer.Localizable;
+
+import hudson.model.Result;
+
+
+/**
+ * What to do when one APK of a signing run fails to align or sign.
+ */
+public enum ApkFailureMode {
+
+    /**
+     * Stop signing at the first APK that fails, and fail the step.
+     */
+    ABORT(Messages._apkFailureMode_abort_displayName(), null),
+
+    /**
+     * Sign all the other APKs, archive them, and then fail the step with a report of the APKs that failed.
+     */
+    FAIL_AFTER_ALL(Messages._apkFailureMode_failAfterAll_displayName(), Result.FAILURE),
+
+    /**
+     * Sign all the other APKs, archive them, report the APKs that failed, and mark the build unstable.
+     */
+    UNSTABLE_AFTER_ALL(Messages._apkFailureMode_unstableAfterAll_displayName(), Result.UNSTABLE);
+
+    private final Localizable displayName;
+    private final Result result;
+
+    ApkFailureMode(Localizable displayName, Result result) {
+        this.displayName = displayName;
+        this.result = result;
+    }
+
+    public String getDisplayName() {
+        return displayName.toString();
+    }
+
+    boolean continuesOnError() {
+        return this != ABORT;
+    }
+
+    /**
+     * The build result for a run in which some APKs failed, or null if the first failure aborts the run.
+     */
+    Result result() {
+        return result;
+    }
+}
@@ -0,0 +1,120 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Collects the APKs that failed in a signing run that continues past failures, with the phase each one failed
+ * in, so the run can sign and archive the rest and then report all the failures at once.  Thread-safe, for the
+ * concurrent shards of a {@link DistributedSigning} run.
+ */
+class ApkFailures {
+
+    enum Phase {
+        STAGING("copying the APK to the signing node"),
+        SIGNATURE_CHECK("checking the existing signature"),
+        ZIPALIGN("zipalign"),
+        SIGNING("signing"),
+        PUBLISHING("publishing the signed APK");
+
+        private final String description;
+
+        Phase(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * The phase one APK is in, which the signing code advances as it goes.
+     */
+    static final class Progress {
+        private volatile Phase phase;
+
+        Progress(Phase first) {
+            phase = first;
+        }
+
+        void enter(Phase x) {
+            phase = x;
+        }
+
+        Phase phase() {
+            return phase;
+        }
+    }
+
+    static final class Failure {
+        final String apk;
+        final Phase phase;
+        final Exception exception;
+
+        Failure(String apk, Phase phase, Exception exception) {
+            this.apk = apk;
+            this.phase = phase;
+            this.exception = exception;
+        }
+
+        String describe() {
+            String message = exception.getMessage();
+            return String.format("%s: %s failed: %s", apk, phase, message != null ? message : exception.toString());
+        }
+    }
+
+    private final Map<SignApksBuilder.ApkToSign, Failure> failures = new ConcurrentHashMap<>();
+
+    /**
+     * Record the failure of the given APK, replacing an earlier failure of it, as when a shard that lost its node
+     * signs the APK again.
+     */
+    void add(SignApksBuilder.ApkToSign apk, String apkName, Progress progress, Exception e, PrintStream logger) {
+        Failure failure = new Failure(apkName, progress.phase(), e);
+        failures.put(apk, failure);
+        logger.printf("[SignApksBuilder] %s; continuing with the other APKs%n", failure.describe());
+    }
+
+    /**
+     * Forget an earlier failure of the given APK because a later attempt signed it.
+     */
+    void succeeded(SignApksBuilder.ApkToSign apk) {
+        failures.remove(apk);
+    }
+
+    boolean isFailed(SignApksBuilder.ApkToSign apk) {
+        return failures.containsKey(apk);
+    }
+
+    boolean isEmpty() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Return the failures among the given APKs, in the same order.
+     */
+    List<Failure> inOrderOf(List<SignApksBuilder.ApkToSign> apks) {
+        List<Failure> ordered = new ArrayList<>(failures.size());
+        for (SignApksBuilder.ApkToSign apk : apks) {
+            Failure failure = failures.get(apk);
+            if (failure != null) {
+                ordered.add(failure);
+            }
+        }
+        return ordered;
+    }
+
+    void report(List<SignApksBuilder.ApkToSign> apks, PrintStream logger) {
+        List<Failure> ordered = inOrderOf(apks);
+        logger.printf("[SignApksBuilder] %d of %d APKs failed to sign:%n", ordered.size(), apks.size());
+        for (Failure failure : ordered) {
+            logger.printf("[SignApksBuilder]   %s%n", failure.describe());
+        }
+    }
+}
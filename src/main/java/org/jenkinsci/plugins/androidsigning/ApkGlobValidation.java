@@ -0,0 +1,188 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import hudson.FilePath;
+import hudson.model.Job;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+
+
+/**
+ * Checks that each glob of an {@code apksToSign} field matches something in a job's workspace, without holding up
+ * the form validation request.  Each glob is scanned separately on the workspace's node, within a bound on the
+ * files it visits and the time it takes, by a small pool of workers.  The results are cached per job, workspace,
+ * and glob for a short while, so re-checking the field while editing it does not scan the workspace again.  A
+ * check that cannot wait for its scans reports that the workspace is still being scanned, and picks up the cached
+ * results the next time the field is checked.  A scan that fails is reported once and then forgotten, and a check
+ * that finds the workers too busy to start a scan warns that it could not validate the field.
+ */
+class ApkGlobValidation {
+
+    static final int FILE_BUDGET = FilePath.VALIDATE_ANT_FILE_MASK_BOUND;
+    static final long SCAN_TIMEOUT_SECONDS = 10;
+    static final long CACHE_TTL_SECONDS = 30;
+    static final long REQUEST_WAIT_MILLIS = 500;
+    static final int MAX_CACHED_SCANS = 1000;
+    private static final int WORKERS = 2;
+    private static final int MAX_QUEUED_SCANS = 100;
+
+    static final ApkGlobValidation INSTANCE = new ApkGlobValidation();
+
+    private static final class Scan {
+        final Future<String> result;
+        final long expiresNanos;
+
+        Scan(Future<String> result, long expiresNanos) {
+            this.result = result;
+            this.expiresNanos = expiresNanos;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresNanos >= 0;
+        }
+    }
+
+    private final Map<String, Scan> scans = new ConcurrentHashMap<>();
+    private final ExecutorService workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(MAX_QUEUED_SCANS), new NamingThreadFactory(new DaemonThreadFactory(), getClass().getSimpleName()));
+
+    private ApkGlobValidation() {
+        ((ThreadPoolExecutor) workers).allowCoreThreadTimeOut(true);
+    }
+
+    FormValidation check(Job<?, ?> job, FilePath workspace, List<String> globs) throws IOException {
+        long now = System.nanoTime();
+        long waitUntil = now + TimeUnit.MILLISECONDS.toNanos(REQUEST_WAIT_MILLIS);
+        List<String> scanning = new ArrayList<>();
+        List<String> rejected = new ArrayList<>();
+        for (String glob : globs) {
+            String key = job.getFullName() + '\0' + workspace.getChannel() + '\0' + workspace.getRemote() + '\0' + glob;
+            Scan scan = scanOf(key, workspace, glob, now);
+            if (scan == null) {
+                rejected.add(glob);
+                continue;
+            }
+            String msg;
+            try {
+                msg = scan.result.get(Math.max(0, waitUntil - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException e) {
+                scanning.add(glob);
+                continue;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                scanning.add(glob);
+                continue;
+            }
+            catch (ExecutionException e) {
+                // report a failed scan once, rather than every time the field is checked until it expires
+                scans.remove(key, scan);
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            if (msg != null) {
+                return FormValidation.warning(msg);
+            }
+        }
+        if (!rejected.isEmpty()) {
+            return FormValidation.warning(Messages.validation_tooManyScans(String.join(", ", rejected)));
+        }
+        if (!scanning.isEmpty()) {
+            return FormValidation.ok(Messages.validation_scanningWorkspace(String.join(", ", scanning)));
+        }
+        return FormValidation.ok();
+    }
+
+    /**
+     * Forget the cached scans, so the next check of every glob scans its workspace again.
+     */
+    void clear() {
+        scans.clear();
+    }
+
+    /**
+     * Return the current scan of the given glob, starting one if there is none, or null if the workers are too busy
+     * to start one.
+     */
+    private Scan scanOf(String key, FilePath workspace, String glob, long now) {
+        Scan scan = scans.get(key);
+        if (scan != null && !scan.isExpired(now)) {
+            return scan;
+        }
+        if (scans.size() >= MAX_CACHED_SCANS) {
+            evict(now);
+        }
+        try {
+            Scan started = new Scan(workers.submit(() -> scan(workspace, glob)), now + TimeUnit.SECONDS.toNanos(CACHE_TTL_SECONDS));
+            scans.put(key, started);
+            return started;
+        }
+        catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private void evict(long now) {
+        for (Iterator<Scan> it = scans.values().iterator(); it.hasNext(); ) {
+            if (it.next().isExpired(now)) {
+                it.remove();
+            }
+        }
+        if (scans.size() >= MAX_CACHED_SCANS) {
+            scans.clear();
+        }
+    }
+
+    private static String scan(FilePath workspace, String glob) throws IOException, InterruptedException {
+        Future<String> remoteOp = workspace.actAsync(new ValidateGlobCallable(glob, FILE_BUDGET));
+        try {
+            return SignApksBuilder.getInterruptibly(remoteOp, SCAN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException e) {
+            remoteOp.cancel(true);
+            return Messages.validation_globSearchTimedOut(glob, SCAN_TIMEOUT_SECONDS);
+        }
+    }
+
+    private static class ValidateGlobCallable extends MasterToSlaveFileCallable<String> {
+
+        private static final long serialVersionUID = 1;
+
+        private final String glob;
+        private final int bound;
+
+        private ValidateGlobCallable(String glob, int bound) {
+            this.glob = glob;
+            this.bound = bound;
+        }
+
+        @Override
+        public String invoke(File workspace, VirtualChannel channel) throws IOException {
+            try {
+                return new FilePath(workspace).validateAntFileMask(glob, bound);
+            }
+            catch (InterruptedException e) {
+                return Messages.validation_globSearchLimitReached(bound);
+            }
+        }
+    }
+}
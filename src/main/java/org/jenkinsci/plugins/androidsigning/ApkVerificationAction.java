@@ -0,0 +1,132 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.plugins.androidsigning.core.ApkVerification;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+
+/**
+ * Summarizes the APKs that the {@link VerifyApksBuilder verification steps} of a build verified, with the
+ * signature schemes, signers, and problems of each.
+ */
+public class ApkVerificationAction implements RunAction2 {
+
+    static final String URL_NAME = "apkVerification";
+
+    /**
+     * Return the action of the given run, adding it if necessary.
+     */
+    static ApkVerificationAction of(Run<?, ?> run) {
+        synchronized (ApkVerificationAction.class) {
+            ApkVerificationAction action = run.getAction(ApkVerificationAction.class);
+            if (action == null) {
+                action = new ApkVerificationAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+
+    public static final class VerifiedApk {
+
+        private final String path;
+        private final boolean passed;
+        private final String schemes;
+        private final String certificateSha256;
+        private final String problems;
+
+        VerifiedApk(ApkVerification.Result result) {
+            path = result.path;
+            passed = result.passed();
+            schemes = result.schemes();
+            certificateSha256 = String.join(", ", result.certificateSha256);
+            problems = String.join("; ", result.problems);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public boolean isPassed() {
+            return passed;
+        }
+
+        /**
+         * The verified signature schemes, e.g., {@code v1+v2}.
+         */
+        public String getSchemes() {
+            return schemes;
+        }
+
+        /**
+         * The comma-separated SHA-256 fingerprints of the signer certificates.
+         */
+        public String getCertificateSha256() {
+            return certificateSha256;
+        }
+
+        /**
+         * Why the APK failed verification, or an empty string if it passed.
+         */
+        public String getProblems() {
+            return problems;
+        }
+    }
+
+    private final List<VerifiedApk> apks = new CopyOnWriteArrayList<>();
+    private transient Run<?, ?> run;
+
+    void addAll(List<ApkVerification.Result> results) {
+        for (ApkVerification.Result result : results) {
+            apks.add(new VerifiedApk(result));
+        }
+    }
+
+    public List<VerifiedApk> getApks() {
+        return Collections.unmodifiableList(apks);
+    }
+
+    public int getFailedCount() {
+        int failed = 0;
+        for (VerifiedApk apk : apks) {
+            if (!apk.passed) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return apks.isEmpty() ? null : "package.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.apkVerificationAction_displayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+}
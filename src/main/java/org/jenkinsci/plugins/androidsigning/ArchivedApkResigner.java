@@ -0,0 +1,309 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.plugins.androidsigning.core.ApkSigning;
+import org.jenkinsci.plugins.androidsigning.core.SignedApkNames;
+import org.jenkinsci.plugins.androidsigning.core.SigningComponents;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.util.BuildListenerAdapter;
+import jenkins.util.VirtualFile;
+
+
+/**
+ * Re-signs the APKs that earlier builds archived under one key store and alias with another key, and archives
+ * the results in the same builds under the new key store and alias.  A pool of workers each takes one build at a
+ * time: it reads the build's archived APKs through the build's artifact manager, signs them on the controller, and
+ * archives them in one batch.  APKs whose re-signed copy is already archived are skipped, so running the same
+ * re-signing again resumes it after a failure or restart.
+ */
+class ArchivedApkResigner {
+
+    /**
+     * What a re-signing run did.
+     */
+    static final class Summary {
+        final int builds;
+        final int resignedApks;
+        final int skippedApks;
+        final int failedBuilds;
+        final long bytes;
+        final long nanos;
+
+        Summary(int builds, int resignedApks, int skippedApks, int failedBuilds, long bytes, long nanos) {
+            this.builds = builds;
+            this.resignedApks = resignedApks;
+            this.skippedApks = skippedApks;
+            this.failedBuilds = failedBuilds;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("builds", builds);
+            map.put("resignedApks", resignedApks);
+            map.put("skippedApks", skippedApks);
+            map.put("failedBuilds", failedBuilds);
+            map.put("bytes", bytes);
+            map.put("seconds", nanos / 1e9);
+            return map;
+        }
+    }
+
+    static String archivePrefix(String keyStoreId, String keyAlias) {
+        return SignedApkNames.BUILDER_DIR + "/" + keyStoreId + "/" + keyAlias + "/";
+    }
+
+    private final List<Job<?, ?>> jobs;
+    private final int lastBuilds;
+    private final String fromPrefix;
+    private final String toPrefix;
+    private final List<SigningComponents> signers;
+    private final int workers;
+    private final TaskListener listener;
+
+    private final AtomicInteger completedBuilds = new AtomicInteger();
+    private final AtomicInteger resignedApks = new AtomicInteger();
+    private final AtomicInteger skippedApks = new AtomicInteger();
+    private final AtomicInteger failedBuilds = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private long startTime;
+
+    /**
+     * @param lastBuilds the number of most recent builds of each job to re-sign, or 0 for all of them
+     */
+    ArchivedApkResigner(List<Job<?, ?>> jobs, int lastBuilds, String fromPrefix, String toPrefix, List<SigningComponents> signers, int workers,
+        TaskListener listener) {
+        this.jobs = jobs;
+        this.lastBuilds = Math.max(0, lastBuilds);
+        this.fromPrefix = fromPrefix;
+        this.toPrefix = toPrefix;
+        this.signers = signers;
+        this.workers = Math.max(1, workers);
+        this.listener = listener;
+    }
+
+    Summary resign() throws IOException, InterruptedException {
+        List<Run<?, ?>> builds = new ArrayList<>();
+        for (Job<?, ?> job : jobs) {
+            int jobBuilds = 0;
+            for (Run<?, ?> build : job.getBuilds()) {
+                if (lastBuilds > 0 && jobBuilds >= lastBuilds) {
+                    break;
+                }
+                if (!build.isBuilding()) {
+                    builds.add(build);
+                    jobBuilds++;
+                }
+            }
+        }
+        listener.getLogger().printf("[SignApksBuilder] re-signing APKs archived under %s in %d builds of %d jobs as %s with %d workers%n",
+            fromPrefix, builds.size(), jobs.size(), toPrefix, workers);
+
+        File staging = Files.createTempDirectory(Jenkins.getInstance().getRootDir().toPath(), "android-signing-resign-").toFile();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, new NamingThreadFactory(new DaemonThreadFactory(), getClass().getSimpleName()));
+        startTime = System.nanoTime();
+        try {
+            List<Future<?>> tasks = new ArrayList<>(builds.size());
+            for (Run<?, ?> build : builds) {
+                tasks.add(pool.submit(() -> {
+                    resignBuild(build, new File(staging, Util.getDigestOf(build.getExternalizableId())), builds.size());
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                }
+                catch (ExecutionException e) {
+                    // resignBuild reports and counts its own failures, so this is an interruption or an error
+                    if (e.getCause() instanceof InterruptedException) {
+                        throw (InterruptedException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+            new FilePath(staging).deleteRecursive();
+        }
+
+        long nanos = System.nanoTime() - startTime;
+        Summary summary = new Summary(builds.size(), resignedApks.get(), skippedApks.get(), failedBuilds.get(), bytes.get(), nanos);
+        listener.getLogger().printf("[SignApksBuilder] re-signed %d APKs (%s) in %.1f s, %.1f MiB/s, %.1f APKs/s; skipped %d already re-signed; %d builds failed%n",
+            summary.resignedApks, SigningMetrics.formatBytes(summary.bytes), nanos / 1e9, throughput(summary.bytes, nanos),
+            summary.resignedApks / Math.max(nanos / 1e9, 1e-3), summary.skippedApks, summary.failedBuilds);
+        if (summary.failedBuilds > 0) {
+            throw new AbortException(summary.failedBuilds + " builds failed to re-sign; run the step again to retry them, skipping the APKs already re-signed");
+        }
+        return summary;
+    }
+
+    private static double throughput(long bytes, long nanos) {
+        return nanos > 0 ? bytes / (1024.0 * 1024) / (nanos / 1e9) : 0.0;
+    }
+
+    private void resignBuild(Run<?, ?> build, File staging, int totalBuilds) throws InterruptedException {
+        int resigned = 0;
+        try {
+            VirtualFile artifacts = build.getArtifactManager().root();
+            VirtualFile from = artifacts.child(fromPrefix);
+            if (from.isDirectory()) {
+                Map<String, String> toArchive = new LinkedHashMap<>();
+                File in = new File(staging, "in");
+                File out = new File(staging, "out");
+                ApkSigning signing = new ApkSigning(signers, null, 0, false, false, listener.getLogger(), SignApksBuilder.LOG_PREFIX);
+                for (VirtualFile apkDir : from.list()) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    if (!apkDir.isDirectory()) {
+                        continue;
+                    }
+                    String unsignedName = apkDir.getName();
+                    String signedName = signedNameOf(apkDir);
+                    if (signedName == null) {
+                        continue;
+                    }
+                    String targetPath = toPrefix + unsignedName + "/" + signedName;
+                    if (artifacts.child(targetPath).exists()) {
+                        skippedApks.incrementAndGet();
+                        continue;
+                    }
+                    File sourceFile = new File(in, unsignedName + File.separator + unsignedName);
+                    File targetFile = new File(out, targetPath.replace('/', File.separatorChar));
+                    if (!sourceFile.getParentFile().mkdirs() && !sourceFile.getParentFile().isDirectory()
+                        || !targetFile.getParentFile().mkdirs() && !targetFile.getParentFile().isDirectory()) {
+                        throw new IOException("failed to create the staging directories in " + staging);
+                    }
+                    stageSourceApk(apkDir, artifacts, build, sourceFile);
+                    signing.sign(sourceFile, targetFile);
+                    bytes.addAndGet(targetFile.length());
+                    toArchive.put(targetPath, targetPath);
+                    resigned++;
+                }
+                if (!toArchive.isEmpty()) {
+                    build.pickArtifactManager().archive(new FilePath(out), new Launcher.LocalLauncher(listener), BuildListenerAdapter.wrap(listener), toArchive);
+                }
+            }
+            resignedApks.addAndGet(resigned);
+            int done = completedBuilds.incrementAndGet();
+            listener.getLogger().printf("[SignApksBuilder] re-signed %d APKs of %s (%d/%d builds, %d APKs, %.1f MiB/s)%n",
+                resigned, build.getFullDisplayName(), done, totalBuilds, resignedApks.get(), throughput(bytes.get(), System.nanoTime() - startTime));
+        }
+        catch (IOException | RuntimeException e) {
+            failedBuilds.incrementAndGet();
+            completedBuilds.incrementAndGet();
+            listener.error("[SignApksBuilder] failed to re-sign the APKs of %s: %s", build.getFullDisplayName(), e.getMessage());
+            e.printStackTrace(listener.getLogger());
+        }
+        finally {
+            try {
+                new FilePath(staging).deleteRecursive();
+            }
+            catch (IOException e) {
+                listener.getLogger().printf("[SignApksBuilder] failed to delete staging directory %s: %s%n", staging, e);
+            }
+        }
+    }
+
+    /**
+     * Return the name of the signed APK in the given directory of one unsigned APK's archived files, whether it was
+     * archived in full or as a delta, the default signed name if only the unsigned APK was archived, or null if the
+     * directory holds no APK at all.
+     */
+    private static String signedNameOf(VirtualFile apkDir) throws IOException {
+        String unsignedName = apkDir.getName();
+        boolean unsignedArchived = false;
+        for (VirtualFile file : apkDir.list()) {
+            if (!file.isFile()) {
+                continue;
+            }
+            String name = file.getName();
+            if (name.endsWith(ApkDelta.EXTENSION)) {
+                name = name.substring(0, name.length() - ApkDelta.EXTENSION.length());
+            }
+            if (!name.endsWith(".apk")) {
+                continue;
+            }
+            if (!name.equals(unsignedName)) {
+                return name;
+            }
+            unsignedArchived = true;
+        }
+        return unsignedArchived ? SignedApkNames.siblingName(unsignedName) : null;
+    }
+
+    /**
+     * Write the APK to re-sign from the given directory of one unsigned APK's archived files to the given file: the
+     * unsigned APK if it was archived in full, otherwise the signed APK.  An APK archived only as a delta is rebuilt
+     * from the APK the delta applies to, which {@link ApkDeltaAction} records, and the build fails to re-sign if
+     * that APK is gone too.
+     */
+    private void stageSourceApk(VirtualFile apkDir, VirtualFile artifacts, Run<?, ?> build, File sourceFile) throws IOException {
+        String unsignedName = apkDir.getName();
+        VirtualFile unsigned = apkDir.child(unsignedName);
+        VirtualFile full = unsigned.isFile() ? unsigned : null;
+        VirtualFile delta = null;
+        for (VirtualFile file : apkDir.list()) {
+            if (full != null) {
+                break;
+            }
+            if (file.isFile() && file.getName().endsWith(".apk")) {
+                full = file;
+            }
+            else if (file.isFile() && file.getName().endsWith(ApkDelta.EXTENSION)) {
+                delta = file;
+            }
+        }
+        if (full != null) {
+            try (InputStream apk = full.open()) {
+                Files.copy(apk, sourceFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return;
+        }
+        String deltaArtifact = fromPrefix + unsignedName + "/" + delta.getName();
+        ApkDeltaAction deltas = build.getAction(ApkDeltaAction.class);
+        if (deltas != null) {
+            for (ApkDeltaAction.ArchivedDelta archived : deltas.getDeltas()) {
+                VirtualFile source = artifacts.child(archived.getSourceArtifact());
+                if (archived.getDeltaArtifact().equals(deltaArtifact) && source.isFile()) {
+                    listener.getLogger().printf("[SignApksBuilder] rebuilding %s of %s from its delta against %s%n",
+                        archived.getFileName(), build.getFullDisplayName(), archived.getSourceArtifact());
+                    try (InputStream deltaIn = delta.open()) {
+                        ApkDelta.apply(deltaIn, source::open, sourceFile);
+                    }
+                    return;
+                }
+            }
+        }
+        throw new AbortException(String.format(
+            "cannot re-sign %s: only a delta of it was archived, and the APK the delta applies to is no longer archived", deltaArtifact));
+    }
+}
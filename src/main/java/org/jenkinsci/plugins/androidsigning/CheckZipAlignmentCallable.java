@@ -0,0 +1,23 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.plugins.androidsigning.core.ZipAlignment;
+
+import java.io.File;
+import java.io.IOException;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+
+/**
+ * Check on the agent whether an APK already satisfies {@code zipalign -p 4}, so it can go straight to signing.
+ */
+class CheckZipAlignmentCallable extends MasterToSlaveFileCallable<Boolean> {
+
+    private static final long serialVersionUID = 1;
+
+    @Override
+    public Boolean invoke(File apk, VirtualChannel channel) throws IOException, InterruptedException {
+        return ZipAlignment.isAligned(apk, ZipAlignment.DEFAULT_ALIGNMENT, true);
+    }
+}
@@ -0,0 +1,35 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.io.File;
+import java.io.IOException;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+
+/**
+ * Write the {@link ApkDelta} that rebuilds an APK from another APK, on the node that holds both, and
+ * return the size of the delta.
+ */
+class ComputeApkDeltaCallable extends MasterToSlaveFileCallable<Long> {
+
+    private static final long serialVersionUID = 1;
+
+    private final String sourceApk;
+    private final String delta;
+
+    ComputeApkDeltaCallable(String sourceApk, String delta) {
+        this.sourceApk = sourceApk;
+        this.delta = delta;
+    }
+
+    @Override
+    public Long invoke(File targetApk, VirtualChannel channel) throws IOException, InterruptedException {
+        File deltaFile = new File(delta);
+        File deltaDir = deltaFile.getParentFile();
+        if (!deltaDir.isDirectory() && !deltaDir.mkdirs()) {
+            throw new IOException("failed to create APK delta directory " + deltaDir);
+        }
+        return ApkDelta.compute(targetApk, new File(sourceApk), deltaFile);
+    }
+}
@@ -0,0 +1,45 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.plugins.androidsigning.core.ApkSigning;
+import org.jenkinsci.plugins.androidsigning.core.SigningComponents;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+
+/**
+ * Check on the agent whether an APK is already signed by the signers it would be signed with, and if so, copy it
+ * to the signed APK instead of signing it.  Returns null if the APK needs signing.
+ */
+class CopyIfAlreadySignedCallable extends MasterToSlaveFileCallable<SignApksBuilder.SignApkResult> {
+
+    private static final long serialVersionUID = 1;
+
+    private final List<SigningComponents> signers;
+    private final String lineagePath;
+    private final String outputApk;
+    private final FsyncPolicy fsyncPolicy;
+    private final TaskListener listener;
+
+    CopyIfAlreadySignedCallable(List<SigningComponents> signers, String lineagePath, String outputApk, FsyncPolicy fsyncPolicy, TaskListener listener) {
+        this.signers = new ArrayList<>(signers);
+        this.lineagePath = lineagePath;
+        this.outputApk = outputApk;
+        this.fsyncPolicy = fsyncPolicy;
+        this.listener = listener;
+    }
+
+    @Override
+    public SignApksBuilder.SignApkResult invoke(File apk, VirtualChannel channel) throws IOException, InterruptedException {
+        ApkSigning signing = new ApkSigning(signers, lineagePath == null ? null : new File(lineagePath), 0,
+            fsyncPolicy.forcesFile(), fsyncPolicy.forcesDirectory(), listener.getLogger(), SignApksBuilder.LOG_PREFIX);
+        ApkSigning.Result result = signing.copyIfAlreadySigned(apk, new File(outputApk));
+        return result == null ? null : new SignApksBuilder.SignApkResult(result.peakHeap, result.sha256, result.md5);
+    }
+}
@@ -0,0 +1,44 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+
+/**
+ * Copy a file to another path on the same node, without streaming it through the controller.
+ */
+class CopyOnNodeCallable extends MasterToSlaveFileCallable<Void> {
+
+    private static final long serialVersionUID = 1;
+
+    /**
+     * Copy the given file to the given target, on the node itself if both are on the same node, and otherwise
+     * through the controller, which relays all transfers between nodes.
+     */
+    static void copy(FilePath from, FilePath to) throws IOException, InterruptedException {
+        if (from.getChannel() == to.getChannel()) {
+            from.act(new CopyOnNodeCallable(to.getRemote()));
+        }
+        else {
+            from.copyTo(to);
+        }
+    }
+
+    private final String targetPath;
+
+    CopyOnNodeCallable(String targetPath) {
+        this.targetPath = targetPath;
+    }
+
+    @Override
+    public Void invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+        Files.copy(file.toPath(), new File(targetPath).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return null;
+    }
+}
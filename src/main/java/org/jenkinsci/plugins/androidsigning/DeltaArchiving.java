@@ -0,0 +1,27 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jvnet.localizer.Localizable;
+
+
+/**
+ * Whether to archive one of an unsigned and signed APK pair as an {@link ApkDelta} against the other,
+ * when archiving both.
+ */
+public enum DeltaArchiving {
+
+    NONE(Messages._deltaArchiving_none_displayName()),
+
+    UNSIGNED_AGAINST_SIGNED(Messages._deltaArchiving_unsignedAgainstSigned_displayName()),
+
+    SIGNED_AGAINST_UNSIGNED(Messages._deltaArchiving_signedAgainstUnsigned_displayName());
+
+    private final Localizable displayName;
+
+    DeltaArchiving(Localizable displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName.toString();
+    }
+}
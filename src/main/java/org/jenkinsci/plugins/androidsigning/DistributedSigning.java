@@ -0,0 +1,382 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Action;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.labels.LabelAssignmentAction;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.SubTask;
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+
+/**
+ * Partitions the APKs of a signing run into shards and signs each shard on an online node matching a
+ * label.  Only nodes that would take a build of the run's job with that label are used: the run's
+ * authentication needs {@link Computer#BUILD} on the node, and the node and its properties must accept the job.
+ * Each node signs at most as many shards at once as it has executors.  The unsigned APKs are copied from the
+ * workspace to a scratch directory on the shard's node, and the signed APKs are copied back to their mapped
+ * destinations in the workspace; the copies stay on the node when the shard signs on the workspace's node, and
+ * otherwise go through the controller, which relays all transfers between nodes.  A shard that fails because
+ * its node went away is retried on another matching node with only the APKs it had not finished.  When the run
+ * continues past failed APKs, any other failure of an APK is recorded and the shard goes on with its next APK.
+ */
+class DistributedSigning {
+
+    static final int DEFAULT_SHARD_SIZE = 20;
+    static final int DEFAULT_MAX_SHARD_ATTEMPTS = 3;
+
+    /**
+     * Whether a shard failed because its node went away: the channel the shard started signing through is closed,
+     * or the node is no longer connected through it.  A closed channel to another node, e.g., the workspace's, fails
+     * the shard like any other error, without blaming the shard's node.
+     */
+    private static boolean isNodeLoss(Node node, VirtualChannel shardChannel) {
+        if (shardChannel instanceof Channel && ((Channel) shardChannel).isClosingOrClosed()) {
+            return true;
+        }
+        Computer computer = node.toComputer();
+        return computer == null || computer.isOffline() || computer.getChannel() != shardChannel;
+    }
+
+    /**
+     * Assigns the label of the distributed signing to the stand-in queue item that asks a node whether it would
+     * take the shards.
+     */
+    private static final class ShardLabel implements LabelAssignmentAction {
+
+        private final Label label;
+
+        ShardLabel(Label label) {
+            this.label = label;
+        }
+
+        @Override
+        public Label getAssignedLabel(SubTask task) {
+            return label;
+        }
+
+        @Override
+        public String getIconFileName() {
+            return null;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return null;
+        }
+
+        @Override
+        public String getUrlName() {
+            return null;
+        }
+    }
+
+    private static class ShardResult {
+        final int shardIndex;
+        final String nodeName;
+        final int apkCount;
+        final int attempts;
+        final long millis;
+
+        ShardResult(int shardIndex, String nodeName, int apkCount, int attempts, long millis) {
+            this.shardIndex = shardIndex;
+            this.nodeName = nodeName;
+            this.apkCount = apkCount;
+            this.attempts = attempts;
+            this.millis = millis;
+        }
+    }
+
+    private final Run<?, ?> run;
+    private final String labelExpression;
+    private final int shardSize;
+    private final int maxShardAttempts;
+    private final String androidHome;
+    private final String zipalignPath;
+    private final boolean skipZipalign;
+    private final boolean skipZipalignIfAligned;
+    private final boolean skipAlreadySigned;
+    private final SigningOptions options;
+    private final SigningMetrics metrics;
+    private final SigningWatchdog watchdog;
+    private final ApkFailures failures;
+    private final TaskListener listener;
+
+    DistributedSigning(Run<?, ?> run, String labelExpression, int shardSize, int maxShardAttempts, String androidHome, String zipalignPath,
+        boolean skipZipalign, boolean skipZipalignIfAligned, boolean skipAlreadySigned, SigningOptions options, SigningMetrics metrics,
+        SigningWatchdog watchdog, ApkFailures failures, TaskListener listener) {
+        this.run = run;
+        this.labelExpression = labelExpression;
+        this.shardSize = Math.max(1, shardSize);
+        this.maxShardAttempts = Math.max(1, maxShardAttempts);
+        this.androidHome = androidHome;
+        this.zipalignPath = zipalignPath;
+        this.skipZipalign = skipZipalign;
+        this.skipZipalignIfAligned = skipZipalignIfAligned;
+        this.skipAlreadySigned = skipAlreadySigned;
+        this.options = options;
+        this.metrics = metrics;
+        this.watchdog = watchdog;
+        this.failures = failures;
+        this.listener = listener;
+    }
+
+    void sign(List<SignApksBuilder.ApkToSign> apks, FilePath lineage, SignApksBuilder.SignedApkCallback onSigned) throws IOException, InterruptedException {
+        List<Node> nodes = onlineNodes();
+        if (nodes.isEmpty()) {
+            throw new AbortException("no online nodes match the distributed signing label " + labelExpression);
+        }
+
+        List<List<SignApksBuilder.ApkToSign>> shards = new ArrayList<>();
+        for (int start = 0; start < apks.size(); start += shardSize) {
+            shards.add(apks.subList(start, Math.min(start + shardSize, apks.size())));
+        }
+        listener.getLogger().printf("[SignApksBuilder] signing %d APKs in %d shards on %d nodes matching %s%n",
+            apks.size(), shards.size(), nodes.size(), labelExpression);
+
+        Map<Node, Semaphore> nodeSlots = new HashMap<>();
+        for (Node node : nodes) {
+            nodeSlots.put(node, new Semaphore(Math.max(1, node.getNumExecutors()), true));
+        }
+
+        long startTime = System.currentTimeMillis();
+        ExecutorService shardThreads = Executors.newFixedThreadPool(Math.max(1, Math.min(nodes.size(), shards.size())),
+            new NamingThreadFactory(new DaemonThreadFactory(), getClass().getSimpleName()));
+        List<ShardResult> results = new ArrayList<>(shards.size());
+        try {
+            List<Future<ShardResult>> pending = new ArrayList<>(shards.size());
+            for (int shardIndex = 0; shardIndex < shards.size(); shardIndex++) {
+                final int index = shardIndex;
+                final List<SignApksBuilder.ApkToSign> shard = shards.get(shardIndex);
+                pending.add(shardThreads.submit((Callable<ShardResult>) () -> signShard(index, shard, nodes, nodeSlots, lineage, onSigned)));
+            }
+            for (Future<ShardResult> shardResult : pending) {
+                results.add(SignApksBuilder.getInterruptibly(shardResult));
+            }
+        }
+        finally {
+            shardThreads.shutdownNow();
+        }
+
+        long millis = System.currentTimeMillis() - startTime;
+        for (ShardResult result : results) {
+            listener.getLogger().printf("[SignApksBuilder] shard %d/%d: %d APKs on %s in %.1f s (%d attempt%s)%n",
+                result.shardIndex + 1, shards.size(), result.apkCount, result.nodeName, result.millis / 1000.0,
+                result.attempts, result.attempts == 1 ? "" : "s");
+        }
+        listener.getLogger().printf("[SignApksBuilder] signed %d APKs in %d shards in %.1f s%n", apks.size(), shards.size(), millis / 1000.0);
+    }
+
+    private List<Node> onlineNodes() throws AbortException {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            throw new AbortException("Jenkins instance is not available for distributed signing");
+        }
+        Label label = jenkins.getLabel(labelExpression);
+        List<Node> nodes = new ArrayList<>();
+        if (label == null) {
+            return nodes;
+        }
+        Queue.BuildableItem standIn = standInItem(label);
+        for (Node node : label.getNodes()) {
+            Computer computer = node.toComputer();
+            if (computer == null || !computer.isOnline() || computer.getChannel() == null) {
+                continue;
+            }
+            CauseOfBlockage refusal = standIn != null ? node.canTake(standIn) : null;
+            if (standIn == null && !computer.getACL().hasPermission(Jenkins.ANONYMOUS, Computer.BUILD)) {
+                refusal = CauseOfBlockage.fromMessage(Messages._distributedSigning_noBuildPermission());
+            }
+            if (refusal != null) {
+                listener.getLogger().printf("[SignApksBuilder] not signing on node %s: %s%n", node.getDisplayName(), refusal.getShortDescription());
+                continue;
+            }
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    /**
+     * Return a queue item for the run's job with the distributed signing label, to ask each node whether it
+     * would take it, or null if the job cannot be queued.
+     */
+    private Queue.BuildableItem standInItem(Label label) {
+        if (!(run.getParent() instanceof Queue.Task)) {
+            return null;
+        }
+        List<Action> actions = Collections.singletonList(new ShardLabel(label));
+        return new Queue.BuildableItem(new Queue.WaitingItem(Calendar.getInstance(), (Queue.Task) run.getParent(), actions));
+    }
+
+    private ShardResult signShard(int shardIndex, List<SignApksBuilder.ApkToSign> shard, List<Node> nodes, Map<Node, Semaphore> nodeSlots,
+        FilePath lineage, SignApksBuilder.SignedApkCallback onSigned) throws IOException, InterruptedException {
+        Set<Node> lostNodes = new HashSet<>();
+        // the APKs a lost node already signed or recorded as failed, which a retry must not sign or report again
+        Set<SignApksBuilder.ApkToSign> finished = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        for (int attempt = 1; ; attempt++) {
+            Node node = pickNode(shardIndex + attempt - 1, nodes, lostNodes);
+            if (node == null) {
+                throw new AbortException(String.format("no online nodes left matching %s to sign shard %d", labelExpression, shardIndex + 1));
+            }
+            Semaphore slots = nodeSlots.get(node);
+            slots.acquire();
+            long startTime = System.currentTimeMillis();
+            VirtualChannel shardChannel = node.getChannel();
+            try {
+                signShardOnNode(shardIndex, shard, finished, node, shardChannel, lineage, onSigned);
+                return new ShardResult(shardIndex, node.getDisplayName(), shard.size(), attempt, System.currentTimeMillis() - startTime);
+            }
+            catch (IOException e) {
+                if (!isNodeLoss(node, shardChannel) || attempt >= maxShardAttempts) {
+                    throw e;
+                }
+                listener.getLogger().printf("[SignApksBuilder] lost node %s while signing shard %d; retrying its %d unfinished APKs: %s%n",
+                    node.getDisplayName(), shardIndex + 1, shard.size() - finished.size(), e);
+                lostNodes.add(node);
+            }
+            finally {
+                slots.release();
+            }
+        }
+    }
+
+    private Node pickNode(int preferred, List<Node> nodes, Set<Node> lostNodes) {
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get((preferred + i) % nodes.size());
+            if (lostNodes.contains(node)) {
+                continue;
+            }
+            Computer computer = node.toComputer();
+            if (computer != null && computer.isOnline()) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void signShardOnNode(int shardIndex, List<SignApksBuilder.ApkToSign> shard, Set<SignApksBuilder.ApkToSign> finished, Node node,
+        VirtualChannel shardChannel, FilePath lineage, SignApksBuilder.SignedApkCallback onSigned) throws IOException, InterruptedException {
+        FilePath root = node.getRootPath();
+        Computer computer = node.toComputer();
+        if (root == null || computer == null) {
+            throw new IOException("node " + node.getDisplayName() + " is offline");
+        }
+        FilePath scratch = root.createTempDir("android-signing-shard-" + (shardIndex + 1) + "-", "");
+        try {
+            EnvVars env = computer.buildEnvironment(listener);
+            Launcher launcher = node.createLauncher(listener);
+            ZipalignTool zipalign = new ZipalignTool(env, scratch, listener.getLogger(), androidHome, zipalignPath);
+
+            String lineagePath = null;
+            if (lineage != null) {
+                FilePath lineageCopy = scratch.child("lineage");
+                CopyOnNodeCallable.copy(lineage, lineageCopy);
+                lineagePath = lineageCopy.getRemote();
+            }
+
+            for (int i = 0; i < shard.size(); i++) {
+                SignApksBuilder.ApkToSign apk = shard.get(i);
+                if (finished.contains(apk)) {
+                    continue;
+                }
+                ApkFailures.Progress progress = new ApkFailures.Progress(ApkFailures.Phase.STAGING);
+                try {
+                    FilePath unsignedApk = scratch.child(i + "-unsigned.apk");
+                    CopyOnNodeCallable.copy(apk.unsignedApk, unsignedApk);
+
+                    FilePath signedApk = scratch.child(i + "-signed.apk");
+                    SignApksBuilder.SignApkResult result = null;
+                    if (skipAlreadySigned) {
+                        progress.enter(ApkFailures.Phase.SIGNATURE_CHECK);
+                        result = SignApksBuilder.copyIfAlreadySigned(unsignedApk, signedApk, apk.signers, lineagePath, options, metrics, listener);
+                    }
+                    if (result == null) {
+                        final int apkIndex = i;
+                        final String shardLineagePath = lineagePath;
+                        result = watchdog.withRetries(apk.unsignedApk.getRemote(), deadline -> {
+                            FilePath alignedApk = unsignedApk;
+                            progress.enter(ApkFailures.Phase.ZIPALIGN);
+                            if (!skipZipalign && !(skipZipalignIfAligned && SignApksBuilder.isAlreadyAligned(unsignedApk, metrics, listener))) {
+                                alignedApk = scratch.createTempFile(apkIndex + "-aligned-", ".apk");
+                                SignApksBuilder.runZipalign(zipalign, launcher, scratch, unsignedApk, alignedApk, watchdog, deadline, listener);
+                            }
+
+                            listener.getLogger().printf("[SignApksBuilder] signing APK %s on %s%n", apk.unsignedApk.getRemote(), node.getDisplayName());
+                            progress.enter(ApkFailures.Phase.SIGNING);
+                            SignApksBuilder.SignApkCallable signApk = new SignApksBuilder.SignApkCallable(apk.signers, shardLineagePath, signedApk.getRemote(), options, listener);
+                            return SignApksBuilder.sign(alignedApk, signApk, options, metrics, watchdog, deadline, listener);
+                        });
+                    }
+
+                    progress.enter(ApkFailures.Phase.PUBLISHING);
+                    FilePath signedParent = apk.signedApk.getParent();
+                    if (!signedParent.exists()) {
+                        signedParent.mkdirs();
+                    }
+                    FilePath publishing = signedParent.createTempFile("." + apk.signedApk.getName() + "-", ".tmp");
+                    try {
+                        CopyOnNodeCallable.copy(signedApk, publishing);
+                        publishing.act(new SignApksBuilder.PublishSignedApkCallable(apk.signedApk.getRemote(), options.fsyncPolicy, listener));
+                    }
+                    finally {
+                        if (publishing.exists()) {
+                            publishing.delete();
+                        }
+                    }
+                    listener.getLogger().printf("[SignApksBuilder] signed APK %s%n", apk.signedApk.getRemote());
+                    // published, so a retry of the shard must not sign it again, even if reporting it fails
+                    finished.add(apk);
+                    onSigned.signed(apk, result);
+                    if (failures != null) {
+                        failures.succeeded(apk);
+                    }
+                }
+                catch (IOException e) {
+                    // losing the node fails the whole shard, which is retried on another node
+                    if (failures == null || isNodeLoss(node, shardChannel)) {
+                        throw e;
+                    }
+                    failures.add(apk, apk.unsignedApk.getRemote(), progress, e, listener.getLogger());
+                    finished.add(apk);
+                }
+            }
+        }
+        finally {
+            try {
+                scratch.deleteRecursive();
+            }
+            catch (IOException e) {
+                listener.getLogger().printf("[SignApksBuilder] failed to delete shard scratch directory %s on %s: %s%n",
+                    scratch.getRemote(), node.getDisplayName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jvnet.localizer.Localizable;
+
+
+/**
+ * How much of a signed APK to force to disk before publishing it under its final name.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Leave flushing to the operating system.  Readers never see a partial APK, but a crash of the node
+     * shortly after signing can still lose the APK's contents.
+     */
+    NONE(Messages._fsyncPolicy_none_displayName()),
+
+    /**
+     * Force the signed APK's contents to disk before renaming it to its final name.
+     */
+    FILE(Messages._fsyncPolicy_file_displayName()),
+
+    /**
+     * Also force the directory entry of the rename to disk, so the signed APK survives a crash of the node
+     * as soon as the step reports it signed.
+     */
+    FILE_AND_DIRECTORY(Messages._fsyncPolicy_fileAndDirectory_displayName());
+
+    private final Localizable displayName;
+
+    FsyncPolicy(Localizable displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName.toString();
+    }
+
+    boolean forcesFile() {
+        return this != NONE;
+    }
+
+    boolean forcesDirectory() {
+        return this == FILE_AND_DIRECTORY;
+    }
+}
@@ -0,0 +1,34 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.plugins.androidsigning.core.ApkGlobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+
+/**
+ * Scans the workspace once for the union of all the signing rules' globs, then assigns each
+ * matching file to the first rule with a matching glob.  This runs on the agent so the glob
+ * matching uses the agent's file separator.
+ */
+class MatchSigningRulesCallable extends MasterToSlaveFileCallable<ApkGlobs.Matches> {
+
+    private static final long serialVersionUID = 1;
+
+    private final List<List<String>> globsByRule;
+    private final String excludes;
+
+    MatchSigningRulesCallable(List<List<String>> globsByRule, String excludes) {
+        this.globsByRule = globsByRule;
+        this.excludes = excludes;
+    }
+
+    @Override
+    public ApkGlobs.Matches invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        return ApkGlobs.match(workspace, globsByRule, excludes);
+    }
+}
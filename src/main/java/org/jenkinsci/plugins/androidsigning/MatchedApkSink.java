@@ -0,0 +1,16 @@
+package org.jenkinsci.plugins.androidsigning;
+
+
+/**
+ * Receives batches of the APKs that {@link StreamSigningRulesCallable} matches on the agent.  The agent calls it
+ * through a remoting proxy, and each call returns only once the controller has room for the batch, which bounds
+ * how far the scan can run ahead of signing.  Public only so remoting can proxy it.
+ */
+public interface MatchedApkSink {
+
+    /**
+     * Accept the matched APKs at the given workspace-relative paths, using forward slashes, each claimed by the
+     * signing rule at the same index in {@code rules}.
+     */
+    void matched(int[] rules, String[] paths) throws InterruptedException;
+}
@@ -3,13 +3,17 @@ package org.jenkinsci.plugins.androidsigning;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import hudson.Extension;
-import hudson.model.Computer;
 import hudson.model.Descriptor;
+import hudson.model.Item;
 import hudson.model.Project;
 import hudson.model.listeners.ItemListener;
 import hudson.tasks.Builder;
@@ -17,25 +21,63 @@ import hudson.util.DescribableList;
 import jenkins.model.Jenkins;
 
 
+/**
+ * Replaces each multi-entry {@link SignApksBuilder} saved by plugin versions before 2.1 with one builder per entry.
+ * Only the jobs that actually loaded such a builder are touched: {@link SignApksBuilder#readResolve()} registers
+ * every legacy builder it reads, so a controller without legacy data does no work at startup, and the jobs are
+ * saved in the new format once migrated, so later startups find nothing to register.
+ */
 @Extension
 public class MultiEntryToSingleEntryBuilderMigration extends ItemListener {
 
     private static final Logger log = Logger.getLogger(MultiEntryToSingleEntryBuilderMigration.class.getName());
 
+    private static final Set<SignApksBuilder> pending = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    /**
+     * Remember that the given builder was loaded with legacy signing entries, so its job needs migrating.
+     */
+    static void legacyBuilderLoaded(SignApksBuilder builder) {
+        pending.add(builder);
+    }
+
     @Override
     public void onLoaded() {
+        if (pending.isEmpty()) {
+            return;
+        }
         Jenkins jenkins = Jenkins.getInstance();
         if (jenkins == null) {
             log.warning("jenkins instance is null; cannot migrate old job data");
             return;
         }
+        long start = System.nanoTime();
+        int scanned = 0, migrated = 0;
         List<Project> jobs = jenkins.getAllItems(Project.class);
         for (Project<?,?> job : jobs) {
-            migrateBuildersOfJob(job);
+            if (pending.isEmpty()) {
+                break;
+            }
+            scanned++;
+            if (migrateBuildersOfJob(job)) {
+                migrated++;
+            }
         }
+        // legacy builders of anything but a project are left to sign from their entries at build time
+        pending.clear();
+        log.info(String.format("migrated the %s steps of %d jobs in %d ms, scanning %d of %d jobs",
+            SignApksBuilder.class.getSimpleName(), migrated, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), scanned, jobs.size()));
     }
 
-    private void migrateBuildersOfJob(Project<?,?> job) {
+    @Override
+    public void onCreated(Item item) {
+        // a job created from an old config.xml, e.g. through the CLI
+        if (item instanceof Project && !pending.isEmpty()) {
+            migrateBuildersOfJob((Project<?,?>) item);
+        }
+    }
+
+    private boolean migrateBuildersOfJob(Project<?,?> job) {
         DescribableList<Builder, Descriptor<Builder>> old = job.getBuildersList();
         boolean isMigrated = old.stream().allMatch(builder -> {
             if (builder instanceof  SignApksBuilder) {
@@ -44,11 +86,12 @@ public class MultiEntryToSingleEntryBuilderMigration extends ItemListener {
             return true;
         });
         if (isMigrated) {
-            return;
+            return false;
         }
         final List<Builder> migrated = new ArrayList<>();
         for (Builder builder : old) {
             if (builder instanceof SignApksBuilder) {
+                pending.remove(builder);
                 migrated.addAll(SignApksBuilder.singleEntryBuildersFromEntriesOfBuilder((SignApksBuilder) builder));
             }
             else {
@@ -57,9 +100,11 @@ public class MultiEntryToSingleEntryBuilderMigration extends ItemListener {
         }
         try {
             job.getBuildersList().replaceBy(migrated);
+            return true;
         }
         catch (IOException e) {
             log.log(Level.WARNING, "error migrating " + SignApksBuilder.class.getSimpleName() + " steps of job " + job, e);
+            return false;
         }
     }
 
@@ -0,0 +1,229 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.acegisecurity.Authentication;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.androidsigning.core.SigningComponents;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.security.ACL;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+
+/**
+ * Re-signs the APKs that earlier builds of the given jobs archived under one key store credential and alias with
+ * another, e.g., after a key rotation, and archives the re-signed APKs in the same builds.  See {@link ArchivedApkResigner}.
+ */
+public class ResignArchivedApksStep extends Step {
+
+    private final String jobs;
+    private final String fromKeyStoreId;
+    private final String fromKeyAlias;
+    private final String keyStoreId;
+    private final String keyAlias;
+    private int lastBuilds = 0;
+    private int workers = Runtime.getRuntime().availableProcessors();
+
+    @DataBoundConstructor
+    public ResignArchivedApksStep(String jobs, String fromKeyStoreId, String fromKeyAlias, String keyStoreId, String keyAlias) {
+        this.jobs = jobs;
+        this.fromKeyStoreId = fromKeyStoreId;
+        this.fromKeyAlias = fromKeyAlias;
+        this.keyStoreId = keyStoreId;
+        this.keyAlias = keyAlias;
+    }
+
+    /**
+     * The comma-separated full names of the jobs whose builds to re-sign.
+     */
+    public String getJobs() {
+        return jobs;
+    }
+
+    public String getFromKeyStoreId() {
+        return fromKeyStoreId;
+    }
+
+    public String getFromKeyAlias() {
+        return fromKeyAlias;
+    }
+
+    public String getKeyStoreId() {
+        return keyStoreId;
+    }
+
+    public String getKeyAlias() {
+        return keyAlias;
+    }
+
+    @DataBoundSetter
+    public void setLastBuilds(int x) {
+        lastBuilds = Math.max(0, x);
+    }
+
+    /**
+     * The number of most recent builds of each job to re-sign, or 0 for all of them.
+     */
+    public int getLastBuilds() {
+        return lastBuilds;
+    }
+
+    @DataBoundSetter
+    public void setWorkers(int x) {
+        workers = x > 0 ? x : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    ArchivedApkResigner createResigner(Run<?, ?> run, TaskListener listener) throws AbortException {
+        if (StringUtils.isBlank(fromKeyStoreId) || StringUtils.isBlank(fromKeyAlias)) {
+            throw new AbortException("specify the key store credential and alias the APKs were archived under");
+        }
+        // the step archives into the builds of the named jobs, so whoever the build runs as must be allowed to update them
+        Authentication auth = Jenkins.getAuthentication();
+        List<Job<?, ?>> resolved = new ArrayList<>();
+        for (String name : StringUtils.split(StringUtils.defaultString(jobs), ',')) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            Job<?, ?> job = Jenkins.getInstance().getItem(name, run.getParent(), Job.class);
+            if (job == null) {
+                throw new AbortException("no job named " + name);
+            }
+            if (ACL.SYSTEM.equals(auth) && job != run.getParent()) {
+                throw new AbortException(String.format("not re-signing the builds of %s: this build runs as SYSTEM, so it may only " +
+                    "re-sign the builds of its own job; configure the build to run as a user, e.g. with the Authorize Project plugin, " +
+                    "who may update the builds of %s", job.getFullName(), job.getFullName()));
+            }
+            ACL acl = job.getACL();
+            if (!acl.hasPermission(auth, Item.READ) || !acl.hasPermission(auth, Run.UPDATE)) {
+                throw new AbortException(String.format("not re-signing the builds of %s: %s may not update its builds",
+                    job.getFullName(), auth.getName()));
+            }
+            resolved.add(job);
+        }
+        if (resolved.isEmpty()) {
+            throw new AbortException("no jobs to re-sign: specify the jobs whose archived APKs to re-sign");
+        }
+        List<SigningComponents> signers = Collections.singletonList(SignApksBuilder.getSigningComponents(keyStoreId, keyAlias, run.getParent(), listener));
+        return new ArchivedApkResigner(resolved, lastBuilds, ArchivedApkResigner.archivePrefix(fromKeyStoreId, fromKeyAlias),
+            ArchivedApkResigner.archivePrefix(keyStoreId, signers.get(0).alias), signers, workers, listener);
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new ResignArchivedApksStepExecution(this, context);
+    }
+
+    /**
+     * Re-signs on a thread of the step's own pool, like {@link SignApksStep.SignApksStepExecution}, and completes
+     * with a summary map of the counts and time.  Stopping the step interrupts the workers.
+     */
+    static class ResignArchivedApksStepExecution extends StepExecution {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final ExecutorService resigningThreads = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), ResignArchivedApksStep.class.getSimpleName()));
+
+        private final transient ResignArchivedApksStep step;
+        private final transient AtomicBoolean completed = new AtomicBoolean();
+        private transient volatile Future<?> task;
+
+        ResignArchivedApksStepExecution(ResignArchivedApksStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            ArchivedApkResigner resigner = step.createResigner(run, listener);
+            task = resigningThreads.submit(() -> {
+                try {
+                    complete(resigner.resign().toMap(), null);
+                }
+                catch (Throwable e) {
+                    complete(null, e);
+                }
+            });
+            return false;
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            Future<?> running = task;
+            if (running != null) {
+                running.cancel(true);
+            }
+            complete(null, cause);
+        }
+
+        @Override
+        public void onResume() {
+            getContext().onFailure(new AbortException(
+                "Jenkins restarted while re-signing APKs; run the step again to resume, skipping the APKs already re-signed"));
+        }
+
+        private void complete(Object result, Throwable failure) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            if (failure == null) {
+                getContext().onSuccess(result);
+            }
+            else {
+                getContext().onFailure(failure);
+            }
+        }
+    }
+
+    @Extension(optional = true)
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(Run.class, TaskListener.class)));
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "resignArchivedAndroidApks";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.resignArchivedApks_displayName();
+        }
+    }
+}
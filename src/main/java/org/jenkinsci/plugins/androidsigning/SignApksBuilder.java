@@ -12,45 +12,43 @@
 
 package org.jenkinsci.plugins.androidsigning;
 
-import com.android.apksig.ApkSigner;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardCertificateCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 
 import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.androidsigning.core.ApkSigning;
+import org.jenkinsci.plugins.androidsigning.core.SignedApkNames;
+import org.jenkinsci.plugins.androidsigning.core.SigningDaemon;
+import org.jenkinsci.plugins.androidsigning.core.SigningComponents;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.net.URI;
+import java.io.Serializable;
 import java.security.GeneralSecurityException;
-import java.security.PrivateKey;
-import java.security.cert.Certificate;
-import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nonnull;
 
 import hudson.AbortException;
-import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
-import hudson.model.AbstractBuild;
+import hudson.Proc;
 import hudson.model.AbstractProject;
 import hudson.model.Item;
 import hudson.model.ItemGroup;
@@ -67,12 +65,13 @@ import hudson.util.ListBoxModel;
 import jenkins.MasterToSlaveFileCallable;
 import jenkins.model.Jenkins;
 import jenkins.tasks.SimpleBuildStep;
-import jenkins.util.BuildListenerAdapter;
+import net.sf.json.JSONObject;
 
 public class SignApksBuilder extends Builder implements SimpleBuildStep {
 
     static final List<DomainRequirement> NO_REQUIREMENTS = Collections.emptyList();
-    static final String BUILDER_DIR = SignApksBuilder.class.getSimpleName() + "-out";
+    static final String BUILDER_DIR = SignedApkNames.BUILDER_DIR;
+    static final String LOG_PREFIX = "[SignApksBuilder] ";
 
     static List<SignApksBuilder> singleEntryBuildersFromEntriesOfBuilder(SignApksBuilder oldBuilder) {
         List<SignApksBuilder> signers = new ArrayList<>(oldBuilder.getEntries().size());
@@ -86,29 +85,39 @@ public class SignApksBuilder extends Builder implements SimpleBuildStep {
         return signers;
     }
 
-    private static String[] getSelectionGlobs(String apksToSignValue) {
-        String[] globs = apksToSignValue.split("\\s*,\\s*");
-        List<String> cleanGlobs = new ArrayList<>(globs.length);
-        for (String glob : globs) {
-            glob = glob.trim();
-            if (glob.length() > 0) {
-                cleanGlobs.add(glob);
-            }
-        }
-        return cleanGlobs.toArray(new String[cleanGlobs.size()]);
-    }
-
     private String androidHome;
     private String zipalignPath;
+    private List<SigningRule> signingRules = new ArrayList<>();
     private String keyStoreId;
     private String keyAlias;
     private String apksToSign;
     private SignedApkMappingStrategy signedApkMapping;
     private boolean archiveSignedApks = true;
     private boolean archiveUnsignedApks = false;
+    private boolean archiveIncrementally = false;
+    private boolean writeSha256Sidecars = false;
+    private String signingPriority;
+    private int archiveBatchSize = ApkArchiver.DEFAULT_BATCH_SIZE;
+    private int maxArchiveTransfers = ApkArchiver.DEFAULT_MAX_TRANSFERS;
+    private DeltaArchiving deltaArchiving = DeltaArchiving.NONE;
     private boolean skipZipalign = false;
+    private boolean skipZipalignIfAligned = false;
+    private boolean skipAlreadySigned = false;
+    private boolean streamingDiscovery = false;
+    private List<AdditionalSigner> additionalSigners = new ArrayList<>();
+    private String signingCertificateLineage;
+    private int lowMemorySigningBudget = 0;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.NONE;
+    private int apkTimeoutSeconds = 0;
+    private int stepTimeoutMinutes = 0;
+    private int timeoutRetries = 0;
+    private ApkFailureMode apkFailureMode = ApkFailureMode.ABORT;
 
     transient private List<Apk> entries;
+    // distributed signing is only available to the pipeline step, which creates a new builder for every run
+    transient private String distributeToLabel;
+    transient private int shardSize = DistributedSigning.DEFAULT_SHARD_SIZE;
+    transient private int maxShardAttempts = DistributedSigning.DEFAULT_MAX_SHARD_ATTEMPTS;
 
     @Deprecated
     public SignApksBuilder(List<Apk> entries) {
@@ -130,6 +139,27 @@ public class SignApksBuilder extends Builder implements SimpleBuildStep {
         if (signedApkMapping == null) {
             signedApkMapping = new SignedApkMappingStrategy.UnsignedApkBuilderDirMapping();
         }
+        if (additionalSigners == null) {
+            additionalSigners = new ArrayList<>();
+        }
+        if (signingRules == null) {
+            signingRules = new ArrayList<>();
+        }
+        if (fsyncPolicy == null) {
+            fsyncPolicy = FsyncPolicy.NONE;
+        }
+        if (deltaArchiving == null) {
+            deltaArchiving = DeltaArchiving.NONE;
+        }
+        if (archiveBatchSize < 1) {
+            archiveBatchSize = ApkArchiver.DEFAULT_BATCH_SIZE;
+        }
+        if (maxArchiveTransfers < 1) {
+            maxArchiveTransfers = ApkArchiver.DEFAULT_MAX_TRANSFERS;
+        }
+        if (!isMigrated()) {
+            MultiEntryToSingleEntryBuilderMigration.legacyBuilderLoaded(this);
+        }
         return this;
     }
 
@@ -220,6 +250,39 @@ public class SignApksBuilder extends Builder implements SimpleBuildStep {
         return skipZipalign;
     }
 
+    @DataBoundSetter
+    public void setSkipZipalignIfAligned(boolean x) {
+        skipZipalignIfAligned = x;
+    }
+
+    public boolean getSkipZipalignIfAligned() {
+        return skipZipalignIfAligned;
+    }
+
+    @DataBoundSetter
+    public void setSkipAlreadySigned(boolean x) {
+        skipAlreadySigned = x;
+    }
+
+    /**
+     * Whether to copy APKs that are already signed by the configured signers to the signed APK instead of signing them again.
+     */
+    public boolean getSkipAlreadySigned() {
+        return skipAlreadySigned;
+    }
+
+    @DataBoundSetter
+    public void setStreamingDiscovery(boolean x) {
+        streamingDiscovery = x;
+    }
+
+    /**
+     * Whether to start signing APKs as the workspace scan finds them, instead of after the scan finishes.
+     */
+    public boolean getStreamingDiscovery() {
+        return streamingDiscovery;
+    }
+
     @DataBoundSetter
     public void setArchiveSignedApks(boolean x) {
         archiveSignedApks = x;
@@ -238,156 +301,391 @@ public class SignApksBuilder extends Builder implements SimpleBuildStep {
         return archiveUnsignedApks;
     }
 
-    @Override
-    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher, @Nonnull TaskListener listener) throws InterruptedException, IOException {
-        if (isIntermediateFailure(run)) {
-            listener.getLogger().println("[SignApksBuilder] skipping Sign APKs step because a previous step failed");
-            return;
-        }
+    /**
+     * Archive each APK as soon as it is signed, rather than all the APKs after signing the last one.
+     */
+    @DataBoundSetter
+    public void setArchiveIncrementally(boolean x) {
+        archiveIncrementally = x;
+    }
 
-        if (getEntries() != null && !getEntries().isEmpty()) {
-            List<SignApksBuilder> newModelBuilders = singleEntryBuildersFromEntriesOfBuilder(this);
-            for (SignApksBuilder builder : newModelBuilders) {
-                builder.perform(run, workspace, launcher, listener);
-            }
-            return;
-        }
+    public boolean getArchiveIncrementally() {
+        return archiveIncrementally;
+    }
 
-        ArgumentListBuilder command = new ArgumentListBuilder().add("echo").addQuoted("resolving effective environment");
-        command.toWindowsCommand();
-        if (!launcher.isUnix()) {
-            command = command.toWindowsCommand();
-        }
-        // force the Custom Tools plugin to inject the custom tools env vars via its DecoratedLauncher
-        Launcher.ProcStarter getEffectiveEnv = launcher.launch().pwd(workspace).cmds(command);
-        try {
-            getEffectiveEnv.join();
-        }
-        catch (Exception e) {
-            listener.getLogger().println("[SignApksBuilder] error resolving effective script environment, but this does not necessarily fail your build:");
-            e.printStackTrace(listener.getLogger());
-        }
-        String[] envLines = getEffectiveEnv.envs();
-        EnvVars shellEnv = new EnvVars();
-        for (String envVar : envLines) {
-            shellEnv.addLine(envVar);
-        }
+    /**
+     * Write the SHA-256 digest of each signed APK to a {@code .sha256} file next to it, in {@code sha256sum}
+     * format, and archive it with the signed APK.
+     */
+    @DataBoundSetter
+    public void setWriteSha256Sidecars(boolean x) {
+        writeSha256Sidecars = x;
+    }
 
-        EnvVars env = new EnvVars();
-        if (run instanceof AbstractBuild) {
-            EnvVars runEnv = run.getEnvironment(listener);
-            env.overrideExpandingAll(runEnv);
-            env.overrideExpandingAll(((AbstractBuild<?,?>) run).getBuildVariables());
-        }
-        env.overrideAll(shellEnv);
+    public boolean getWriteSha256Sidecars() {
+        return writeSha256Sidecars;
+    }
 
-        FilePath builderDir = workspace.child(BUILDER_DIR);
-        FilePath zipalignDir = builderDir.child("zipalign");
-        zipalignDir.mkdirs();
+    @DataBoundSetter
+    public void setArchiveBatchSize(int x) {
+        archiveBatchSize = x > 0 ? x : ApkArchiver.DEFAULT_BATCH_SIZE;
+    }
 
-        ZipalignTool zipalign = new ZipalignTool(env, workspace, listener.getLogger(), androidHome, zipalignPath);
-        Map<String,String> apksToArchive = new LinkedHashMap<>();
+    public int getArchiveBatchSize() {
+        return archiveBatchSize;
+    }
 
-        StandardCertificateCredentials keyStoreCredential = getKeystore(getKeyStoreId(), run.getParent());
-        SigningComponents signingParams;
-        try {
-            signingParams = SigningComponents.fromCredentials(keyStoreCredential, getKeyAlias());
-        }
-        catch (GeneralSecurityException e) {
-            String message = "Error reading signing key from key store credential " + keyStoreCredential.getId() + ": " + e.getMessage();
-            listener.fatalError(message);
-            e.printStackTrace(listener.getLogger());
-            throw new AbortException(message);
-        }
+    @DataBoundSetter
+    public void setMaxArchiveTransfers(int x) {
+        maxArchiveTransfers = x > 0 ? x : ApkArchiver.DEFAULT_MAX_TRANSFERS;
+    }
 
-        Set<FilePath> matchedApks = new TreeSet<>(Comparator.comparing(FilePath::getRemote));
-        String[] globs = getSelectionGlobs(getApksToSign());
-        for (String glob : globs) {
-            FilePath[] globMatch = workspace.list(glob, builderDir.getName() + "/**");
-            if (globMatch.length == 0) {
-                throw new AbortException("No APKs in workspace matching " + glob);
-            }
-            matchedApks.addAll(Arrays.asList(globMatch));
-        }
+    public int getMaxArchiveTransfers() {
+        return maxArchiveTransfers;
+    }
 
-        final String archivePrefix = BUILDER_DIR + "/" + getKeyStoreId() + "/" + getKeyAlias() + "/";
+    @DataBoundSetter
+    public void setDeltaArchiving(DeltaArchiving x) {
+        deltaArchiving = x == null ? DeltaArchiving.NONE : x;
+    }
 
-        if (signedApkMapping == null) {
-            signedApkMapping = new SignedApkMappingStrategy.UnsignedApkSiblingMapping();
+    public DeltaArchiving getDeltaArchiving() {
+        return deltaArchiving;
+    }
+
+    @DataBoundSetter
+    public void setAdditionalSigners(List<AdditionalSigner> x) {
+        additionalSigners = x == null ? new ArrayList<>() : new ArrayList<>(x);
+    }
+
+    public List<AdditionalSigner> getAdditionalSigners() {
+        return Collections.unmodifiableList(additionalSigners);
+    }
+
+    @DataBoundSetter
+    public void setSigningRules(List<SigningRule> x) {
+        signingRules = x == null ? new ArrayList<>() : new ArrayList<>(x);
+    }
+
+    public List<SigningRule> getSigningRules() {
+        return Collections.unmodifiableList(signingRules);
+    }
+
+    /**
+     * Return the {@link #getSigningRules() signing rules} in order, followed by a rule for the
+     * {@link #getApksToSign() APKs to sign} with the main key store, if present.
+     */
+    List<SigningRule> getEffectiveSigningRules() {
+        List<SigningRule> rules = new ArrayList<>(signingRules);
+        if (!SigningRule.globsOf(getApksToSign()).isEmpty()) {
+            SigningRule mainRule = new SigningRule(getApksToSign(), getKeyStoreId());
+            mainRule.setKeyAlias(getKeyAlias());
+            rules.add(mainRule);
         }
+        return rules;
+    }
 
-        for (FilePath unsignedApk : matchedApks) {
-            unsignedApk = unsignedApk.absolutize();
+    @DataBoundSetter
+    public void setSigningCertificateLineage(String x) {
+        signingCertificateLineage = StringUtils.stripToNull(x);
+    }
 
-            FilePath alignedApk = zipalignDir.createTempFile("aligned-" + unsignedApk.getBaseName() + "-", ".apk");
-            FilePath signedApk = signedApkMapping.destinationForUnsignedApk(unsignedApk, workspace);
+    public String getSigningCertificateLineage() {
+        return signingCertificateLineage;
+    }
 
-            if (skipZipalign) {
-                listener.getLogger().printf("[SignApksBuilder] skipping zipalign for unsigned apk %s", unsignedApk);
-                alignedApk = unsignedApk;
-            }
-            else {
-                ArgumentListBuilder zipalignCommand = zipalign.commandFor(unsignedApk.getRemote(), alignedApk.getRemote());
-                listener.getLogger().printf("[SignApksBuilder] %s%n", zipalignCommand);
-                int zipalignResult = launcher.launch()
-                    .cmds(zipalignCommand)
-                    .pwd(workspace)
-                    .stdout(listener)
-                    .stderr(listener.getLogger())
-                    .join();
-
-                if (zipalignResult != 0) {
-                    listener.fatalError("[SignApksBuilder] zipalign failed: exit code %d", zipalignResult);
-                    throw new AbortException(String.format("zipalign failed on APK %s: exit code %d", unsignedApk, zipalignResult));
-                }
-            }
+    /**
+     * Sign in low-memory mode, keeping the signer's own heap use within the given number of MiB, or sign
+     * the usual way if 0.
+     */
+    @DataBoundSetter
+    public void setLowMemorySigningBudget(int x) {
+        lowMemorySigningBudget = Math.max(0, x);
+    }
 
-            String alignedRelName = relativeToWorkspace(workspace, alignedApk);
-            String signedRelName = relativeToWorkspace(workspace, signedApk);
+    public int getLowMemorySigningBudget() {
+        return lowMemorySigningBudget;
+    }
 
-            if (!alignedApk.exists()) {
-                throw new AbortException(String.format("aligned APK does not exist: %s", alignedRelName));
-            }
+    @DataBoundSetter
+    public void setApkTimeoutSeconds(int x) {
+        apkTimeoutSeconds = Math.max(0, x);
+    }
 
-            listener.getLogger().printf("[SignApksBuilder] signing APK %s%n", alignedRelName);
+    /**
+     * The time aligning and signing each APK may take before the watchdog kills it, or 0 for no limit.
+     */
+    public int getApkTimeoutSeconds() {
+        return apkTimeoutSeconds;
+    }
 
-            FilePath signedParent = signedApk.getParent();
-            if (!signedParent.exists()) {
-                signedParent.mkdirs();
-            }
-            SignApkCallable signApk = new SignApkCallable(signingParams.key, signingParams.certChain, signingParams.v1SigName, signedApk.getRemote(), listener);
-            alignedApk.act(signApk);
+    @DataBoundSetter
+    public void setStepTimeoutMinutes(int x) {
+        stepTimeoutMinutes = Math.max(0, x);
+    }
 
-            listener.getLogger().printf("[SignApksBuilder] signed APK %s%n", signedRelName);
+    /**
+     * The time aligning and signing all the APKs may take, or 0 for no limit.
+     */
+    public int getStepTimeoutMinutes() {
+        return stepTimeoutMinutes;
+    }
 
-            if (getArchiveUnsignedApks()) {
-                listener.getLogger().printf("[SignApksBuilder] archiving unsigned APK %s%n", unsignedApk);
-                apksToArchive.put(archivePrefix + unsignedApk.getName() + "/" + unsignedApk.getName(), relativeToWorkspace(workspace, unsignedApk));
-            }
-            if (getArchiveSignedApks()) {
-                listener.getLogger().printf("[SignApksBuilder] archiving signed APK %s%n", signedRelName);
-                apksToArchive.put(archivePrefix + unsignedApk.getName() + "/" + signedApk.getName(), signedRelName);
-            }
+    @DataBoundSetter
+    public void setTimeoutRetries(int x) {
+        timeoutRetries = Math.max(0, x);
+    }
+
+    /**
+     * How many more times to align and sign an APK that ran past the APK timeout.
+     */
+    public int getTimeoutRetries() {
+        return timeoutRetries;
+    }
+
+    @DataBoundSetter
+    public void setFsyncPolicy(FsyncPolicy x) {
+        fsyncPolicy = x == null ? FsyncPolicy.NONE : x;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    @DataBoundSetter
+    public void setApkFailureMode(ApkFailureMode x) {
+        apkFailureMode = x == null ? ApkFailureMode.ABORT : x;
+    }
+
+    /**
+     * Whether the first APK that fails to sign stops the run, or the run signs the rest and reports all the
+     * failures at the end.
+     */
+    public ApkFailureMode getApkFailureMode() {
+        // null in builders saved before the option existed
+        return apkFailureMode == null ? ApkFailureMode.ABORT : apkFailureMode;
+    }
+
+    /**
+     * The name of the {@link SigningPriority} of this step's APKs when they wait for a signing slot, or null
+     * to use the job's {@link SigningPriorityJobProperty}.  This is a name rather than the enum so the
+     * configuration form can offer the job's default.
+     */
+    @DataBoundSetter
+    public void setSigningPriority(String x) {
+        signingPriority = StringUtils.stripToNull(x);
+    }
+
+    public String getSigningPriority() {
+        return signingPriority;
+    }
+
+    void setDistributeToLabel(String x) {
+        distributeToLabel = StringUtils.stripToNull(x);
+    }
+
+    void setShardSize(int x) {
+        shardSize = x;
+    }
+
+    void setMaxShardAttempts(int x) {
+        maxShardAttempts = x;
+    }
+
+    String getDistributeToLabel() {
+        return distributeToLabel;
+    }
+
+    int getShardSize() {
+        return shardSize;
+    }
+
+    int getMaxShardAttempts() {
+        return maxShardAttempts;
+    }
+
+    @Override
+    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher, @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        signApks(run, workspace, launcher, listener);
+    }
+
+    /**
+     * Sign the APKs like {@link #perform(Run, FilePath, Launcher, TaskListener)}, and return what was signed,
+     * in the order of the signing rules.  Concurrent builds of the job share this builder, so each run signs
+     * from its own {@link SigningPlan} and leaves this builder untouched.
+     */
+    List<SignedApk> signApks(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher, @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        if (isIntermediateFailure(run)) {
+            listener.getLogger().println("[SignApksBuilder] skipping Sign APKs step because a previous step failed");
+            return Collections.emptyList();
         }
 
-        listener.getLogger().println("[SignApksBuilder] finished signing APKs");
+        List<SignedApk> signedApks = new ArrayList<>();
+        for (SigningPlan plan : plans()) {
+            signedApks.addAll(new SigningRun(plan, run, workspace, launcher, listener).signApks());
+        }
+        return signedApks;
+    }
 
-        if (apksToArchive.size() > 0) {
-            run.pickArtifactManager().archive(workspace, launcher, BuildListenerAdapter.wrap(listener), apksToArchive);
+    /**
+     * Return the plans to sign with, one for each signing entry of a builder from before single-entry builders
+     * that has not been migrated yet, or just this builder's plan.
+     */
+    List<SigningPlan> plans() {
+        if (isMigrated()) {
+            return Collections.singletonList(new SigningPlan(this));
+        }
+        List<SigningPlan> plans = new ArrayList<>(getEntries().size());
+        for (SignApksBuilder builder : singleEntryBuildersFromEntriesOfBuilder(this)) {
+            plans.add(new SigningPlan(builder));
+        }
+        return plans;
+    }
+
+    /**
+     * Sign the given aligned APK once its node has a free signing slot, in the node's signing daemon if it has
+     * a {@link SigningDaemonNodeProperty}.  The watchdog cancels the signing if it runs past the given deadline.
+     */
+    static SignApkResult sign(FilePath alignedApk, SignApkCallable signApk, SigningOptions options, SigningMetrics metrics,
+        SigningWatchdog watchdog, long deadline, TaskListener listener) throws IOException, InterruptedException {
+        SigningDaemonLaunch daemon = SigningDaemonNodeProperty.launchFor(alignedApk, listener);
+        if (daemon != null) {
+            signApk = signApk.inDaemon(daemon);
+        }
+        SignApkResult result;
+        try (SigningSlots.Slot slot = SigningSlots.acquire(alignedApk, options.priority, metrics, listener)) {
+            result = watchdog.get(alignedApk.actAsync(signApk), deadline, "signing APK " + alignedApk.getName());
         }
+        metrics.recordSigned(result);
+        return result;
+    }
+
+    /**
+     * Copy the given APK to the signed APK if it is already signed by the given signers, before it is aligned or
+     * signed, and return its digests; otherwise return null.
+     */
+    static SignApkResult copyIfAlreadySigned(FilePath apk, FilePath signedApk, List<SigningComponents> signers, String lineagePath,
+        SigningOptions options, SigningMetrics metrics, TaskListener listener) throws IOException, InterruptedException {
+        FilePath signedParent = signedApk.getParent();
+        if (!signedParent.exists()) {
+            signedParent.mkdirs();
+        }
+        SignApkResult copied = apk.act(new CopyIfAlreadySignedCallable(signers, lineagePath, signedApk.getRemote(), options.fsyncPolicy, listener));
+        if (copied != null) {
+            metrics.recordAlreadySigned(apk.length());
+        }
+        return copied;
     }
 
-    private String relativeToWorkspace(FilePath ws, FilePath path) throws IOException, InterruptedException {
-        URI relUri = ws.toURI().relativize(path.toURI());
-        return relUri.getPath().replaceFirst("/$", "");
+    static boolean isAlreadyAligned(FilePath unsignedApk, SigningMetrics metrics, TaskListener listener) throws IOException, InterruptedException {
+        if (!unsignedApk.act(new CheckZipAlignmentCallable())) {
+            return false;
+        }
+        listener.getLogger().printf("[SignApksBuilder] APK %s is already aligned; skipping zipalign%n", unsignedApk.getRemote());
+        metrics.recordAlreadyAligned(unsignedApk.length());
+        return true;
+    }
+
+    static void runZipalign(ZipalignTool zipalign, Launcher launcher, FilePath pwd, FilePath unsignedApk, FilePath alignedApk,
+        SigningWatchdog watchdog, long deadline, TaskListener listener) throws IOException, InterruptedException {
+
+        ArgumentListBuilder zipalignCommand = zipalign.commandFor(unsignedApk.getRemote(), alignedApk.getRemote());
+        listener.getLogger().printf("[SignApksBuilder] %s%n", zipalignCommand);
+        Proc zipalignProc = launcher.launch()
+            .cmds(zipalignCommand)
+            .pwd(pwd)
+            .stdout(listener)
+            .stderr(listener.getLogger())
+            .start();
+        int zipalignResult = watchdog.join(zipalignProc, deadline, "zipalign of APK " + unsignedApk.getName());
+
+        if (zipalignResult != 0) {
+            listener.fatalError("[SignApksBuilder] zipalign failed: exit code %d", zipalignResult);
+            throw new AbortException(String.format("zipalign failed on APK %s: exit code %d", unsignedApk, zipalignResult));
+        }
+    }
+
+    /**
+     * Wait for the given remote operation, and cancel it, which interrupts the agent-side thread, if
+     * the waiting thread is interrupted, e.g., because the build or pipeline step was aborted.
+     */
+    static <T> T getInterruptibly(Future<T> remoteOp) throws IOException, InterruptedException {
+        try {
+            return getInterruptibly(remoteOp, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Like {@link #getInterruptibly(Future)}, but give up waiting after the given time.  The caller decides whether
+     * to cancel the operation when it times out.
+     */
+    static <T> T getInterruptibly(Future<T> remoteOp, long timeout, TimeUnit unit) throws IOException, InterruptedException, TimeoutException {
+        try {
+            return remoteOp.get(timeout, unit);
+        }
+        catch (InterruptedException e) {
+            remoteOp.cancel(true);
+            throw e;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
     }
 
-    private StandardCertificateCredentials getKeystore(String keyStoreName, Item item) {
+    private static StandardCertificateCredentials getKeystore(String keyStoreName, Item item) {
         List<StandardCertificateCredentials> creds = CredentialsProvider.lookupCredentials(
                 StandardCertificateCredentials.class, item, ACL.SYSTEM, NO_REQUIREMENTS);
         return CredentialsMatchers.firstOrNull(creds, CredentialsMatchers.withId(keyStoreName));
     }
 
+    static SigningComponents getSigningComponents(String keyStoreId, String keyAlias, Item item, TaskListener listener) throws AbortException {
+        StandardCertificateCredentials keyStoreCredential = getKeystore(keyStoreId, item);
+        if (keyStoreCredential == null) {
+            throw new AbortException("no key store credential found with ID " + keyStoreId);
+        }
+        try {
+            return SigningComponents.fromKeyStore(keyStoreCredential.getKeyStore(), keyAlias, keyStoreCredential.getPassword().getPlainText(),
+                "key store credential " + keyStoreCredential.getId());
+        }
+        catch (GeneralSecurityException e) {
+            String message = "Error reading signing key from key store credential " + keyStoreCredential.getId() + ": " + e.getMessage();
+            listener.fatalError(message);
+            e.printStackTrace(listener.getLogger());
+            throw new AbortException(message);
+        }
+    }
+
+    static ListBoxModel keyStoreIdItems(ItemGroup<?> parent) {
+        if (parent == null) {
+            parent = Jenkins.getInstance();
+        }
+        ListBoxModel items = new ListBoxModel();
+        List<StandardCertificateCredentials> keys = CredentialsProvider.lookupCredentials(
+            StandardCertificateCredentials.class, parent, ACL.SYSTEM, SignApksBuilder.NO_REQUIREMENTS);
+        for (StandardCertificateCredentials key : keys) {
+            String id = key.getId();
+            String label = key.getDescription();
+            if (StringUtils.isEmpty(label)) {
+                label = id;
+            }
+            items.add(label, id);
+        }
+        return items;
+    }
+
     @Extension
     @Symbol("signAndroidApks")
     public static final class SignApksDescriptor extends BuildStepDescriptor<Builder> {
@@ -399,11 +697,31 @@ public class SignApksBuilder extends Builder implements SimpleBuildStep {
             return true;
         }
 
+        private boolean warmUpAgents;
+
         public SignApksDescriptor() {
             super();
             load();
         }
 
+        /**
+         * Whether {@link AgentWarmUp} warms up APK signing on agents when they connect.
+         */
+        public boolean getWarmUpAgents() {
+            return warmUpAgents;
+        }
+
+        public void setWarmUpAgents(boolean x) {
+            warmUpAgents = x;
+        }
+
+        @Override
+        public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+            req.bindJSON(this, json);
+            save();
+            return true;
+        }
+
         @Override
         public @Nonnull String getDisplayName() {
             return DISPLAY_NAME;
@@ -411,19 +729,15 @@ public class SignApksBuilder extends Builder implements SimpleBuildStep {
 
         @SuppressWarnings("unused")
         public ListBoxModel doFillKeyStoreIdItems(@AncestorInPath ItemGroup<?> parent) {
-            if (parent == null) {
-                parent = Jenkins.getInstance();
-            }
+            return keyStoreIdItems(parent);
+        }
+
+        @SuppressWarnings("unused")
+        public ListBoxModel doFillSigningPriorityItems() {
             ListBoxModel items = new ListBoxModel();
-            List<StandardCertificateCredentials> keys = CredentialsProvider.lookupCredentials(
-                StandardCertificateCredentials.class, parent, ACL.SYSTEM, SignApksBuilder.NO_REQUIREMENTS);
-            for (StandardCertificateCredentials key : keys) {
-                String id = key.getId();
-                String label = key.getDescription();
-                if (StringUtils.isEmpty(label)) {
-                    label = id;
-                }
-                items.add(label, id);
+            items.add(Messages.signingPriority_jobDefault_displayName(), "");
+            for (SigningPriority priority : SigningPriority.values()) {
+                items.add(priority.getDisplayName(), priority.name());
             }
             return items;
         }
@@ -444,79 +758,147 @@ public class SignApksBuilder extends Builder implements SimpleBuildStep {
                 return FormValidation.warning(Messages.validation_noWorkspace());
             }
 
-            String[] globs = getSelectionGlobs(value);
-            String msg;
-            for (String glob : globs) {
-                try {
-                    msg = someWorkspace.validateAntFileMask(value, FilePath.VALIDATE_ANT_FILE_MASK_BOUND);
-                }
-                catch (InterruptedException e) {
-                    msg = Messages.validation_globSearchLimitReached(FilePath.VALIDATE_ANT_FILE_MASK_BOUND);
-                }
-                if (msg != null) {
-                    return FormValidation.warning(msg);
-                }
-            }
-            return FormValidation.ok();
+            return ApkGlobValidation.INSTANCE.check(project, someWorkspace, SigningRule.globsOf(value));
         }
 
     }
 
-    static class SignApkCallable extends MasterToSlaveFileCallable<Void> {
+    /**
+     * Receives each APK as soon as it is signed, possibly from the concurrent shards of a {@link DistributedSigning} run.
+     */
+    interface SignedApkCallback {
+        void signed(ApkToSign apk, SignApkResult result) throws IOException, InterruptedException;
+    }
+
+    /**
+     * An APK a single run of the builder signs, and where the signed APK and its archived copies go
+     */
+    static final class ApkToSign {
+
+        final FilePath unsignedApk;
+        final FilePath signedApk;
+        final List<SigningComponents> signers;
+        final String archivePrefix;
+
+        ApkToSign(FilePath unsignedApk, FilePath signedApk, List<SigningComponents> signers, String archivePrefix) {
+            this.unsignedApk = unsignedApk;
+            this.signedApk = signedApk;
+            this.signers = signers;
+            this.archivePrefix = archivePrefix;
+        }
+    }
+
+    /**
+     * What the node that signed an APK reports back about it.
+     */
+    static final class SignApkResult implements Serializable {
 
         private static final long serialVersionUID = 1;
 
-        private final PrivateKey key;
-        private final Certificate[] certChain;
-        private final String v1SigName;
+        /**
+         * The peak heap use of the whole signing JVM while signing the APK in low-memory mode, or 0 if not measured.
+         */
+        final long peakHeap;
+
+        /**
+         * The hex SHA-256 digest of the signed APK.
+         */
+        final String signedApkSha256;
+
+        /**
+         * The hex MD5 digest of the signed APK, which identifies its Jenkins {@link hudson.model.Fingerprint}.
+         */
+        final String signedApkMd5;
+
+        SignApkResult(long peakHeap, String signedApkSha256, String signedApkMd5) {
+            this.peakHeap = peakHeap;
+            this.signedApkSha256 = signedApkSha256;
+            this.signedApkMd5 = signedApkMd5;
+        }
+    }
+
+    static class SignApkCallable extends MasterToSlaveFileCallable<SignApkResult> {
+
+        private static final long serialVersionUID = 3;
+
+        private final List<SigningComponents> signers;
+        private final String lineagePath;
         private final String outputApk;
+        private final SigningOptions options;
         private final TaskListener listener;
+        private SigningDaemonLaunch daemon;
 
-        SignApkCallable(PrivateKey key, Certificate[] certChain, String v1SigName, String outputApk, TaskListener listener) {
-            this.key = key;
-            this.certChain = certChain;
-            this.v1SigName = v1SigName;
+        SignApkCallable(List<SigningComponents> signers, String lineagePath, String outputApk, SigningOptions options, TaskListener listener) {
+            this.signers = new ArrayList<>(signers);
+            this.lineagePath = lineagePath;
             this.outputApk = outputApk;
+            this.options = options;
             this.listener = listener;
         }
 
-        @Override
-        public Void invoke(File inputApkFile, VirtualChannel channel) throws IOException, InterruptedException {
-
-            File outputApkFile = new File(outputApk);
-            if (outputApkFile.isFile()) {
-                listener.getLogger().printf("[SignApksBuilder] deleting previous signed APK %s%n", outputApk);
-                if (!outputApkFile.delete()) {
-                    throw new AbortException("failed to delete previous signed APK " + outputApk);
-                }
-            }
+        /**
+         * Return a copy of this callable that signs in the signing daemon the given launch starts.
+         */
+        SignApkCallable inDaemon(SigningDaemonLaunch daemon) {
+            SignApkCallable inDaemon = new SignApkCallable(signers, lineagePath, outputApk, options, listener);
+            inDaemon.daemon = daemon;
+            return inDaemon;
+        }
 
-            List<X509Certificate> certs = new ArrayList<>(certChain.length);
-            for (Certificate cert : certChain) {
-                certs.add((X509Certificate) cert);
-            }
-            ApkSigner.SignerConfig signerConfig = new ApkSigner.SignerConfig.Builder(v1SigName, key, certs).build();
-            List<ApkSigner.SignerConfig> signerConfigs = Collections.singletonList(signerConfig);
-
-            ApkSigner.Builder signerBuilder = new ApkSigner.Builder(signerConfigs)
-                .setInputApk(inputApkFile)
-                .setOutputApk(outputApkFile)
-                .setOtherSignersSignaturesPreserved(false)
-                // TODO: add to jenkins descriptor
-                .setV1SigningEnabled(true)
-                .setV2SigningEnabled(true)
-                .setV3SigningEnabled(true);
-
-            ApkSigner signer = signerBuilder.build();
+        @Override
+        public SignApkResult invoke(File inputApkFile, VirtualChannel channel) throws IOException, InterruptedException {
+            File lineageFile = lineagePath == null ? null : new File(lineagePath);
+            ApkSigning.Result result;
             try {
-                signer.sign();
+                if (daemon == null) {
+                    ApkSigning signing = new ApkSigning(signers, lineageFile, options.lowMemoryBudget,
+                        options.fsyncPolicy.forcesFile(), options.fsyncPolicy.forcesDirectory(), listener.getLogger(), LOG_PREFIX);
+                    result = signing.sign(inputApkFile, new File(outputApk));
+                }
+                else {
+                    List<String> command = daemon.command();
+                    SigningDaemon.Client client = SigningDaemon.Client.of(daemon.daemonDir(), command);
+                    int starts = client.getStarts();
+                    result = client.sign(signers, lineageFile, options.lowMemoryBudget, options.fsyncPolicy.forcesFile(),
+                        options.fsyncPolicy.forcesDirectory(), inputApkFile, new File(outputApk), listener.getLogger());
+                    if (client.getStarts() != starts) {
+                        listener.getLogger().printf("[SignApksBuilder] started signing daemon: %s%n", String.join(" ", command));
+                    }
+                }
             }
-            catch (Exception e) {
-                PrintWriter details = listener.fatalError("[SignApksBuilder] error signing APK %s", inputApkFile.getAbsolutePath());
-                e.printStackTrace(details);
-                throw new AbortException("failed to sign APK " + inputApkFile.getAbsolutePath() + ": " + e.getLocalizedMessage());
+            catch (ApkSigning.ApkSigningException e) {
+                PrintWriter details = listener.fatalError("[SignApksBuilder] %s", e.getMessage());
+                if (e.getCause() != null) {
+                    e.getCause().printStackTrace(details);
+                }
+                throw new AbortException(e.getMessage());
             }
+            return new SignApkResult(result.peakHeap, result.sha256, result.md5);
+        }
+    }
+
+    /**
+     * Publish a signed APK that was copied to a temp file next to its destination, e.g., from the node
+     * of a distributed signing shard, the same way {@link SignApkCallable} publishes the APKs it signs.
+     */
+    static class PublishSignedApkCallable extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1;
+
+        private final String outputApk;
+        private final FsyncPolicy fsyncPolicy;
+        private final TaskListener listener;
 
+        PublishSignedApkCallable(String outputApk, FsyncPolicy fsyncPolicy, TaskListener listener) {
+            this.outputApk = outputApk;
+            this.fsyncPolicy = fsyncPolicy;
+            this.listener = listener;
+        }
+
+        @Override
+        public Void invoke(File tempApkFile, VirtualChannel channel) throws IOException, InterruptedException {
+            new ApkSigning(Collections.emptyList(), null, 0, fsyncPolicy.forcesFile(), fsyncPolicy.forcesDirectory(), listener.getLogger(), LOG_PREFIX)
+                .publish(tempApkFile, new File(outputApk));
             return null;
         }
     }
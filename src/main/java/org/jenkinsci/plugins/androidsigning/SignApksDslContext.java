@@ -1,5 +1,7 @@
 package org.jenkinsci.plugins.androidsigning;
 
+import java.util.ArrayList;
+import java.util.List;
 
 import hudson.Extension;
 import javaposse.jobdsl.dsl.Context;
@@ -39,6 +41,66 @@ public class SignApksDslContext extends ContextExtensionPoint {
             builder.setSkipZipalign(x);
         }
 
+        public void skipZipalignIfAligned(boolean x) {
+            builder.setSkipZipalignIfAligned(x);
+        }
+
+        public void skipAlreadySigned(boolean x) {
+            builder.setSkipAlreadySigned(x);
+        }
+
+        public void streamingDiscovery(boolean x) {
+            builder.setStreamingDiscovery(x);
+        }
+
+        public void lowMemorySigningBudget(int x) {
+            builder.setLowMemorySigningBudget(x);
+        }
+
+        public void apkTimeoutSeconds(int x) {
+            builder.setApkTimeoutSeconds(x);
+        }
+
+        public void stepTimeoutMinutes(int x) {
+            builder.setStepTimeoutMinutes(x);
+        }
+
+        public void timeoutRetries(int x) {
+            builder.setTimeoutRetries(x);
+        }
+
+        public void apkFailureMode(String x) {
+            builder.setApkFailureMode(ApkFailureMode.valueOf(x));
+        }
+
+        public void fsyncPolicy(String x) {
+            builder.setFsyncPolicy(FsyncPolicy.valueOf(x));
+        }
+
+        public void archiveIncrementally(boolean x) {
+            builder.setArchiveIncrementally(x);
+        }
+
+        public void writeSha256Sidecars(boolean x) {
+            builder.setWriteSha256Sidecars(x);
+        }
+
+        public void signingPriority(String x) {
+            builder.setSigningPriority(x);
+        }
+
+        public void archiveBatchSize(int x) {
+            builder.setArchiveBatchSize(x);
+        }
+
+        public void maxArchiveTransfers(int x) {
+            builder.setMaxArchiveTransfers(x);
+        }
+
+        public void deltaArchiving(String x) {
+            builder.setDeltaArchiving(DeltaArchiving.valueOf(x));
+        }
+
         public void archiveSignedApks(boolean x) {
             builder.setArchiveSignedApks(x);
         }
@@ -47,6 +109,26 @@ public class SignApksDslContext extends ContextExtensionPoint {
             builder.setArchiveUnsignedApks(x);
         }
 
+        public void additionalSigner(String keyStoreId, String keyAlias) {
+            AdditionalSigner signer = new AdditionalSigner(keyStoreId);
+            signer.setKeyAlias(keyAlias);
+            List<AdditionalSigner> signers = new ArrayList<>(builder.getAdditionalSigners());
+            signers.add(signer);
+            builder.setAdditionalSigners(signers);
+        }
+
+        public void signingRule(String apksToSign, String keyStoreId, String keyAlias) {
+            SigningRule rule = new SigningRule(apksToSign, keyStoreId);
+            rule.setKeyAlias(keyAlias);
+            List<SigningRule> rules = new ArrayList<>(builder.getSigningRules());
+            rules.add(rule);
+            builder.setSigningRules(rules);
+        }
+
+        public void signingCertificateLineage(String x) {
+            builder.setSigningCertificateLineage(x);
+        }
+
         public void androidHome(String x) {
             builder.setAndroidHome(x);
         }
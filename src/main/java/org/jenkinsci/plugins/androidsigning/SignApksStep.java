@@ -1,28 +1,42 @@
 package org.jenkinsci.plugins.androidsigning;
 
-import com.google.inject.Inject;
-
 import org.apache.commons.lang.StringUtils;
-import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
-import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
-import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
-import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
-import org.jenkinsci.plugins.workflow.structs.DescribableHelper;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
+import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.Timer;
 
 
-public class SignApksStep extends AbstractStepImpl {
+public class SignApksStep extends Step {
 
     @CheckForNull
     private String keyStoreId;
@@ -34,8 +48,29 @@ public class SignApksStep extends AbstractStepImpl {
     private String androidHome;
     private String zipalignPath;
     private boolean skipZipalign = false;
+    private boolean skipZipalignIfAligned = false;
+    private boolean skipAlreadySigned = false;
+    private boolean streamingDiscovery = false;
     private boolean archiveSignedApks = true;
     private boolean archiveUnsignedApks = false;
+    private boolean archiveIncrementally = false;
+    private boolean writeSha256Sidecars = false;
+    private String signingPriority;
+    private int archiveBatchSize = ApkArchiver.DEFAULT_BATCH_SIZE;
+    private int maxArchiveTransfers = ApkArchiver.DEFAULT_MAX_TRANSFERS;
+    private DeltaArchiving deltaArchiving = DeltaArchiving.NONE;
+    private List<AdditionalSigner> additionalSigners = new ArrayList<>();
+    private List<SigningRule> signingRules = new ArrayList<>();
+    private String signingCertificateLineage;
+    private int lowMemorySigningBudget = 0;
+    private int apkTimeoutSeconds = 0;
+    private int stepTimeoutMinutes = 0;
+    private int timeoutRetries = 0;
+    private ApkFailureMode apkFailureMode = ApkFailureMode.ABORT;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.NONE;
+    private String distributeToLabel;
+    private int shardSize = DistributedSigning.DEFAULT_SHARD_SIZE;
+    private int maxShardAttempts = DistributedSigning.DEFAULT_MAX_SHARD_ATTEMPTS;
 
     @DataBoundConstructor
     public SignApksStep() {
@@ -66,6 +101,21 @@ public class SignApksStep extends AbstractStepImpl {
         skipZipalign = x;
     }
 
+    @DataBoundSetter
+    public void setSkipZipalignIfAligned(boolean x) {
+        skipZipalignIfAligned = x;
+    }
+
+    @DataBoundSetter
+    public void setSkipAlreadySigned(boolean x) {
+        skipAlreadySigned = x;
+    }
+
+    @DataBoundSetter
+    public void setStreamingDiscovery(boolean x) {
+        streamingDiscovery = x;
+    }
+
     @DataBoundSetter
     public void setArchiveSignedApks(boolean x) {
         archiveSignedApks = x;
@@ -76,6 +126,100 @@ public class SignApksStep extends AbstractStepImpl {
         archiveUnsignedApks = x;
     }
 
+    @DataBoundSetter
+    public void setArchiveIncrementally(boolean x) {
+        archiveIncrementally = x;
+    }
+
+    @DataBoundSetter
+    public void setWriteSha256Sidecars(boolean x) {
+        writeSha256Sidecars = x;
+    }
+
+    @DataBoundSetter
+    public void setSigningPriority(String x) {
+        signingPriority = x;
+    }
+
+    @DataBoundSetter
+    public void setArchiveBatchSize(int x) {
+        archiveBatchSize = x;
+    }
+
+    @DataBoundSetter
+    public void setMaxArchiveTransfers(int x) {
+        maxArchiveTransfers = x;
+    }
+
+    @DataBoundSetter
+    public void setDeltaArchiving(DeltaArchiving x) {
+        deltaArchiving = x;
+    }
+
+    @DataBoundSetter
+    public void setAdditionalSigners(List<AdditionalSigner> x) {
+        additionalSigners = x == null ? new ArrayList<>() : new ArrayList<>(x);
+    }
+
+    @DataBoundSetter
+    public void setSigningRules(List<SigningRule> x) {
+        signingRules = x == null ? new ArrayList<>() : new ArrayList<>(x);
+    }
+
+    @DataBoundSetter
+    public void setSigningCertificateLineage(String x) {
+        signingCertificateLineage = x;
+    }
+
+    @DataBoundSetter
+    public void setLowMemorySigningBudget(int x) {
+        lowMemorySigningBudget = x;
+    }
+
+    @DataBoundSetter
+    public void setApkTimeoutSeconds(int x) {
+        apkTimeoutSeconds = x;
+    }
+
+    @DataBoundSetter
+    public void setStepTimeoutMinutes(int x) {
+        stepTimeoutMinutes = x;
+    }
+
+    @DataBoundSetter
+    public void setTimeoutRetries(int x) {
+        timeoutRetries = x;
+    }
+
+    @DataBoundSetter
+    public void setApkFailureMode(ApkFailureMode x) {
+        apkFailureMode = x;
+    }
+
+    @DataBoundSetter
+    public void setFsyncPolicy(FsyncPolicy x) {
+        fsyncPolicy = x;
+    }
+
+    /**
+     * Sign the APKs on all the online nodes matching the given label expression, instead of only the
+     * node of the enclosing {@code node} block.
+     */
+    @DataBoundSetter
+    public void setDistributeToLabel(String x) {
+        distributeToLabel = x;
+    }
+
+    @DataBoundSetter
+    public void setShardSize(int x) {
+        shardSize = x;
+    }
+
+    @DataBoundSetter
+    public void setMaxShardAttempts(int x) {
+        maxShardAttempts = x;
+    }
+
     @DataBoundSetter
     public void setAndroidHome(String x) {
         androidHome = x;
@@ -106,6 +250,18 @@ public class SignApksStep extends AbstractStepImpl {
         return skipZipalign;
     }
 
+    public boolean getSkipZipalignIfAligned() {
+        return skipZipalignIfAligned;
+    }
+
+    public boolean getSkipAlreadySigned() {
+        return skipAlreadySigned;
+    }
+
+    public boolean getStreamingDiscovery() {
+        return streamingDiscovery;
+    }
+
     public boolean getArchiveSignedApks() {
         return archiveSignedApks;
     }
@@ -114,6 +270,78 @@ public class SignApksStep extends AbstractStepImpl {
         return archiveUnsignedApks;
     }
 
+    public boolean getArchiveIncrementally() {
+        return archiveIncrementally;
+    }
+
+    public boolean getWriteSha256Sidecars() {
+        return writeSha256Sidecars;
+    }
+
+    public String getSigningPriority() {
+        return signingPriority;
+    }
+
+    public int getArchiveBatchSize() {
+        return archiveBatchSize;
+    }
+
+    public int getMaxArchiveTransfers() {
+        return maxArchiveTransfers;
+    }
+
+    public DeltaArchiving getDeltaArchiving() {
+        return deltaArchiving;
+    }
+
+    public List<AdditionalSigner> getAdditionalSigners() {
+        return additionalSigners;
+    }
+
+    public List<SigningRule> getSigningRules() {
+        return signingRules;
+    }
+
+    public String getSigningCertificateLineage() {
+        return signingCertificateLineage;
+    }
+
+    public int getLowMemorySigningBudget() {
+        return lowMemorySigningBudget;
+    }
+
+    public int getApkTimeoutSeconds() {
+        return apkTimeoutSeconds;
+    }
+
+    public int getStepTimeoutMinutes() {
+        return stepTimeoutMinutes;
+    }
+
+    public int getTimeoutRetries() {
+        return timeoutRetries;
+    }
+
+    public ApkFailureMode getApkFailureMode() {
+        return apkFailureMode;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public String getDistributeToLabel() {
+        return distributeToLabel;
+    }
+
+    public int getShardSize() {
+        return shardSize;
+    }
+
+    public int getMaxShardAttempts() {
+        return maxShardAttempts;
+    }
+
     public String getAndroidHome() {
         return androidHome;
     }
@@ -123,63 +351,175 @@ public class SignApksStep extends AbstractStepImpl {
     }
 
 
-    private static class SignApksStepExecution extends AbstractSynchronousNonBlockingStepExecution<Void> {
+    SignApksBuilder createBuilder(EnvVars env) {
+        String androidHome = getAndroidHome();
+        String zipalignPath = getZipalignPath();
+        if (StringUtils.isEmpty(androidHome) && StringUtils.isEmpty(zipalignPath)) {
+            if (StringUtils.isEmpty(androidHome)) {
+                androidHome = env.get(ZipalignTool.ENV_ANDROID_HOME);
+            }
+            if (StringUtils.isEmpty(zipalignPath)) {
+                zipalignPath = env.get(ZipalignTool.ENV_ZIPALIGN_PATH);
+            }
+        }
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(getKeyStoreId());
+        builder.setKeyAlias(getKeyAlias());
+        builder.setApksToSign(getApksToSign());
+        builder.setSignedApkMapping(getSignedApkMapping());
+        builder.setSkipZipalign(getSkipZipalign());
+        builder.setSkipZipalignIfAligned(getSkipZipalignIfAligned());
+        builder.setSkipAlreadySigned(getSkipAlreadySigned());
+        builder.setStreamingDiscovery(getStreamingDiscovery());
+        builder.setArchiveSignedApks(getArchiveSignedApks());
+        builder.setArchiveUnsignedApks(getArchiveUnsignedApks());
+        builder.setArchiveIncrementally(getArchiveIncrementally());
+        builder.setWriteSha256Sidecars(getWriteSha256Sidecars());
+        builder.setSigningPriority(getSigningPriority());
+        builder.setArchiveBatchSize(getArchiveBatchSize());
+        builder.setMaxArchiveTransfers(getMaxArchiveTransfers());
+        builder.setDeltaArchiving(getDeltaArchiving());
+        builder.setAdditionalSigners(getAdditionalSigners());
+        builder.setSigningRules(getSigningRules());
+        builder.setSigningCertificateLineage(getSigningCertificateLineage());
+        builder.setLowMemorySigningBudget(getLowMemorySigningBudget());
+        builder.setApkTimeoutSeconds(getApkTimeoutSeconds());
+        builder.setStepTimeoutMinutes(getStepTimeoutMinutes());
+        builder.setTimeoutRetries(getTimeoutRetries());
+        builder.setApkFailureMode(getApkFailureMode());
+        builder.setFsyncPolicy(getFsyncPolicy());
+        builder.setAndroidHome(androidHome);
+        builder.setZipalignPath(zipalignPath);
+        builder.setDistributeToLabel(getDistributeToLabel());
+        builder.setShardSize(getShardSize());
+        builder.setMaxShardAttempts(getMaxShardAttempts());
+        return builder;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new SignApksStepExecution(this, context);
+    }
 
-        private static final long serialVersionUID = 1L;
+    /**
+     * Runs the signing work on a thread of the step's own pool, rather than the CPS VM thread, and completes the
+     * step asynchronously with the list of {@link SignedApk#toMap() signed APKs}.  The pool is not bounded, so a
+     * signing step never waits behind those of unrelated builds; how many APKs sign at once on each node is up to
+     * {@link SigningSlots}.  Stopping the step interrupts its thread, which kills the running
+     * {@code zipalign} process and cancels the signing task on the agent.  If the thread has still not finished
+     * {@link #STOP_TIMEOUT_SECONDS} later, the step fails anyway, and says so in the build log along with what the
+     * thread is still doing, since its work on the agent may outlive the step.
+     */
+    static class SignApksStepExecution extends StepExecution {
 
-        @Inject
-        private transient SignApksStep step;
+        private static final long serialVersionUID = 2L;
 
-        @StepContextParameter
-        @SuppressWarnings("unused")
-        private transient Run build;
+        private static final Logger log = Logger.getLogger(SignApksStepExecution.class.getName());
 
-        @StepContextParameter
-        @SuppressWarnings("unused")
-        private transient FilePath workspace;
+        static final long STOP_TIMEOUT_SECONDS = Long.getLong(SignApksStep.class.getName() + ".stopTimeoutSeconds", 30);
 
-        @StepContextParameter
-        @SuppressWarnings("unused")
-        private transient Launcher launcher;
+        private static final ExecutorService signingThreads = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), SignApksStep.class.getSimpleName()));
 
-        @StepContextParameter
-        @SuppressWarnings("unused")
-        private transient TaskListener listener;
+        private final transient SignApksStep step;
+        private final transient AtomicBoolean completed = new AtomicBoolean();
+        private transient volatile Future<?> task;
+        private transient volatile Thread signingThread;
+        private transient volatile Throwable stopCause;
+        private transient volatile TaskListener listener;
 
-        @StepContextParameter
-        private transient EnvVars env;
+        SignApksStepExecution(SignApksStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
 
         @Override
-        protected Void run() throws Exception {
-            String androidHome = step.getAndroidHome();
-            String zipalignPath = step.getZipalignPath();
-            if (StringUtils.isEmpty(androidHome) && StringUtils.isEmpty(zipalignPath)) {
-                if (StringUtils.isEmpty(androidHome)) {
-                    androidHome = env.get(ZipalignTool.ENV_ANDROID_HOME);
+        public boolean start() throws Exception {
+            Run<?,?> run = getContext().get(Run.class);
+            FilePath workspace = getContext().get(FilePath.class);
+            Launcher launcher = getContext().get(Launcher.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            EnvVars env = getContext().get(EnvVars.class);
+            SignApksBuilder builder = step.createBuilder(env);
+            this.listener = listener;
+            task = signingThreads.submit(() -> {
+                signingThread = Thread.currentThread();
+                try {
+                    List<SignedApk> signedApks = builder.signApks(run, workspace, launcher, listener);
+                    complete(SignedApk.toMaps(signedApks), null);
                 }
-                if (StringUtils.isEmpty(zipalignPath)) {
-                    zipalignPath = env.get(ZipalignTool.ENV_ZIPALIGN_PATH);
+                catch (Throwable e) {
+                    Throwable cause = stopCause;
+                    complete(null, cause != null ? cause : e);
                 }
+                finally {
+                    signingThread = null;
+                }
+            });
+            return false;
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            stopCause = cause;
+            Future<?> running = task;
+            if (running == null) {
+                complete(null, cause);
+                return;
+            }
+            running.cancel(true);
+            Timer.get().schedule(() -> failUnstopped(cause), STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void onResume() {
+            getContext().onFailure(new AbortException("Jenkins restarted while signing APKs; the signing step cannot resume"));
+        }
+
+        private void failUnstopped(Throwable cause) {
+            if (completed.get()) {
+                return;
+            }
+            Thread thread = signingThread;
+            StringBuilder stack = new StringBuilder();
+            if (thread != null) {
+                for (StackTraceElement frame : thread.getStackTrace()) {
+                    stack.append(String.format("%n\tat %s", frame));
+                }
+            }
+            String msg = String.format("[SignApksBuilder] signing did not stop within %d s of the step being stopped; failing the step, but %s may still be running%s",
+                STOP_TIMEOUT_SECONDS, thread != null ? thread.getName() : "its signing thread", stack);
+            TaskListener listener = this.listener;
+            if (listener != null) {
+                listener.error(msg);
+            }
+            log.warning(msg);
+            AbortException failure = new AbortException(String.format(
+                "signing did not stop within %d s; its work on the agent may still be running", STOP_TIMEOUT_SECONDS));
+            failure.initCause(cause);
+            complete(null, failure);
+        }
+
+        private void complete(Object result, Throwable failure) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            if (failure == null) {
+                getContext().onSuccess(result);
+            }
+            else {
+                getContext().onFailure(failure);
             }
-            SignApksBuilder builder = new SignApksBuilder();
-            builder.setKeyStoreId(step.getKeyStoreId());
-            builder.setKeyAlias(step.getKeyAlias());
-            builder.setApksToSign(step.getApksToSign());
-            builder.setSignedApkMapping(step.getSignedApkMapping());
-            builder.setSkipZipalign(step.getSkipZipalign());
-            builder.setArchiveSignedApks(step.getArchiveSignedApks());
-            builder.setArchiveUnsignedApks(step.getArchiveUnsignedApks());
-            builder.setAndroidHome(androidHome);
-            builder.setZipalignPath(zipalignPath);
-            builder.perform(build, workspace, launcher, listener);
-            return null;
         }
     }
 
     @Extension(optional = true)
-    public static class DescriptorImpl extends AbstractStepDescriptorImpl {
-        public DescriptorImpl() {
-            super(SignApksStepExecution.class);
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+                Run.class, FilePath.class, Launcher.class, TaskListener.class, EnvVars.class)));
         }
 
         @Override
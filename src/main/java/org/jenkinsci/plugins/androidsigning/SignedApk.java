@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.io.Serializable;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hudson.Util;
+
+
+/**
+ * One APK a signing step signed.  The {@code signAndroidApks} pipeline step returns these as
+ * {@link #toMap() maps}, which pipeline scripts can use without any script approval.
+ */
+public class SignedApk implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    static String sha256Of(Certificate cert) throws GeneralSecurityException {
+        return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(cert.getEncoded()));
+    }
+
+    static List<Map<String, String>> toMaps(List<SignedApk> signedApks) {
+        List<Map<String, String>> maps = new ArrayList<>(signedApks.size());
+        for (SignedApk signedApk : signedApks) {
+            maps.add(signedApk.toMap());
+        }
+        return maps;
+    }
+
+    private final String unsignedApk;
+    private final String signedApk;
+    private final String signedApkSha256;
+    private final String certificateSha256;
+
+    SignedApk(String unsignedApk, String signedApk, String signedApkSha256, String certificateSha256) {
+        this.unsignedApk = unsignedApk;
+        this.signedApk = signedApk;
+        this.signedApkSha256 = signedApkSha256;
+        this.certificateSha256 = certificateSha256;
+    }
+
+    /**
+     * The workspace-relative path of the unsigned APK.
+     */
+    public String getUnsignedApk() {
+        return unsignedApk;
+    }
+
+    /**
+     * The workspace-relative path of the signed APK.
+     */
+    public String getSignedApk() {
+        return signedApk;
+    }
+
+    /**
+     * The hex SHA-256 digest of the signed APK.
+     */
+    public String getSignedApkSha256() {
+        return signedApkSha256;
+    }
+
+    /**
+     * The hex SHA-256 fingerprint of the certificate of the main signer, which matches the fingerprint
+     * {@code apksigner verify --print-certs} reports.
+     */
+    public String getCertificateSha256() {
+        return certificateSha256;
+    }
+
+    /**
+     * Return this APK's line of the {@link SigningRun#SIGNED_APKS_LIST list of signed APKs}: the same values as
+     * {@link #toMap()}, in the same order, separated by tabs.
+     */
+    String toListLine() {
+        return unsignedApk + '\t' + signedApk + '\t' + signedApkSha256 + '\t' + certificateSha256 + '\n';
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("unsignedApk", unsignedApk);
+        map.put("signedApk", signedApk);
+        map.put("signedApkSha256", signedApkSha256);
+        map.put("certificateSha256", certificateSha256);
+        return map;
+    }
+}
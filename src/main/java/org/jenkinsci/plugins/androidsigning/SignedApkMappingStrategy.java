@@ -3,11 +3,9 @@ package org.jenkinsci.plugins.androidsigning;
 import com.sun.org.apache.xpath.internal.operations.Bool;
 
 import org.jenkinsci.Symbol;
+import org.jenkinsci.plugins.androidsigning.core.SignedApkNames;
 import org.kohsuke.stapler.DataBoundConstructor;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import javax.annotation.Nonnull;
 
 import hudson.Extension;
@@ -35,9 +33,7 @@ public abstract class SignedApkMappingStrategy extends AbstractDescribableImpl<S
      * @return
      */
     public static String unqualifiedNameOfUnsignedApk(FilePath unsignedApk) {
-        Pattern stripUnsignedPattern = Pattern.compile("(-?unsigned)?$", Pattern.CASE_INSENSITIVE);
-        Matcher stripUnsigned = stripUnsignedPattern.matcher(unsignedApk.getBaseName());
-        return stripUnsigned.replaceFirst("");
+        return SignedApkNames.unqualifiedName(unsignedApk.getName());
     }
 
     public static class UnsignedApkBuilderDirMapping extends SignedApkMappingStrategy {
@@ -48,8 +44,7 @@ public abstract class SignedApkMappingStrategy extends AbstractDescribableImpl<S
 
         @Override
         public FilePath destinationForUnsignedApk(FilePath unsignedApk, FilePath workspace) {
-            String strippedName = unqualifiedNameOfUnsignedApk(unsignedApk);
-            return workspace.child(SignApksBuilder.BUILDER_DIR).child(unsignedApk.getName()).child(strippedName + "-signed.apk");
+            return workspace.child(SignedApkNames.builderDirPath(unsignedApk.getName()));
         }
 
         @Extension
@@ -71,11 +66,7 @@ public abstract class SignedApkMappingStrategy extends AbstractDescribableImpl<S
 
         @Override
         public FilePath destinationForUnsignedApk(FilePath unsignedApk, FilePath workspace) {
-            String strippedName = unqualifiedNameOfUnsignedApk(unsignedApk);
-            if (!unsignedApk.getBaseName().endsWith("-unsigned")) {
-                strippedName += "-signed";
-            }
-            return unsignedApk.getParent().child(strippedName + ".apk");
+            return unsignedApk.getParent().child(SignedApkNames.siblingName(unsignedApk.getName()));
         }
 
         @Extension
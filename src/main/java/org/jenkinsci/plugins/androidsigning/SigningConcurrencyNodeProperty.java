@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import hudson.util.FormValidation;
+
+
+/**
+ * Limits how many APKs all the builds on a node sign at the same time.  Without this property, a node signs
+ * as many APKs at once as it has processors.
+ */
+public class SigningConcurrencyNodeProperty extends NodeProperty<Node> {
+
+    private final int maxConcurrentSignings;
+
+    @DataBoundConstructor
+    public SigningConcurrencyNodeProperty(int maxConcurrentSignings) {
+        this.maxConcurrentSignings = Math.max(0, maxConcurrentSignings);
+    }
+
+    /**
+     * The maximum number of APKs the node signs at the same time, or 0 for the node's processor count.
+     */
+    public int getMaxConcurrentSignings() {
+        return maxConcurrentSignings;
+    }
+
+    @Extension
+    @Symbol("androidSigningConcurrency")
+    public static class DescriptorImpl extends NodePropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.signingConcurrency_displayName();
+        }
+
+        @SuppressWarnings("unused")
+        public FormValidation doCheckMaxConcurrentSignings(@QueryParameter int value) {
+            if (value < 0) {
+                return FormValidation.error(Messages.signingConcurrency_negative());
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.plugins.androidsigning.core.SigningDaemon;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import hudson.util.QuotedStringTokenizer;
+
+
+/**
+ * How to start the {@link SigningDaemon} of a node, which travels with a {@link SignApksBuilder.SignApkCallable}
+ * to the node, where it becomes the daemon's command line.
+ */
+final class SigningDaemonLaunch implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    private final String javaPath;
+    private final String javaOptions;
+    private final String daemonDir;
+    private final List<String> classpath;
+
+    SigningDaemonLaunch(String javaPath, String javaOptions, String daemonDir, List<String> classpath) {
+        this.javaPath = javaPath;
+        this.javaOptions = javaOptions;
+        this.daemonDir = daemonDir;
+        this.classpath = new ArrayList<>(classpath);
+    }
+
+    /**
+     * The directory the daemon is installed in on the node, which identifies the node's daemon whatever version
+     * it runs.
+     */
+    String daemonDir() {
+        return daemonDir;
+    }
+
+    /**
+     * The daemon's command line on the node this runs on.
+     */
+    List<String> command() {
+        String java = javaPath;
+        if (java == null) {
+            java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        }
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(Arrays.asList(QuotedStringTokenizer.tokenize(javaOptions)));
+        command.add("-cp");
+        command.add(String.join(File.pathSeparator, classpath));
+        command.add(SigningDaemon.class.getName());
+        return command;
+    }
+}
@@ -0,0 +1,211 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import com.android.apksig.ApkSigner;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.types.FileSet;
+import org.jenkinsci.Symbol;
+import org.jenkinsci.plugins.androidsigning.core.ApkSigning;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Which;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+
+
+/**
+ * Signs the APKs of all the builds on a node in a long-lived {@link org.jenkinsci.plugins.androidsigning.core.SigningDaemon}
+ * JVM instead of the node's agent JVM.  The daemon keeps the signing code warm across builds, and its heap and
+ * GC options size it apart from the agent.
+ */
+public class SigningDaemonNodeProperty extends NodeProperty<Node> {
+
+    static final String DEFAULT_JAVA_OPTIONS = "-Xms256m -Xmx1g -XX:+UseParallelGC";
+    static final String DAEMON_DIR = "android-signing-daemon";
+
+    private static final Logger LOGGER = Logger.getLogger(SigningDaemonNodeProperty.class.getName());
+
+    /**
+     * The classpath the daemon runs from, by the node, its install directory, and the channel it was installed through.
+     */
+    private static final ConcurrentMap<String, List<String>> installed = new ConcurrentHashMap<>();
+
+    /**
+     * The jars, or class directories, the daemon runs from on the controller, and the digest of their content,
+     * which names the directory they are installed to on the nodes.
+     */
+    private static List<File> daemonSources;
+    private static String daemonDigest;
+
+    private String javaPath;
+    private String javaOptions = DEFAULT_JAVA_OPTIONS;
+
+    @DataBoundConstructor
+    public SigningDaemonNodeProperty() {
+    }
+
+    /**
+     * The java executable to start the daemon with, or null for the one running the node's agent.
+     */
+    public String getJavaPath() {
+        return javaPath;
+    }
+
+    @DataBoundSetter
+    public void setJavaPath(String x) {
+        javaPath = StringUtils.stripToNull(x);
+    }
+
+    public String getJavaOptions() {
+        return javaOptions;
+    }
+
+    @DataBoundSetter
+    public void setJavaOptions(String x) {
+        javaOptions = StringUtils.isBlank(x) ? DEFAULT_JAVA_OPTIONS : x.trim();
+    }
+
+    /**
+     * Return how to start the signing daemon of the node the given path is on, installing the daemon's jars on
+     * the node if needed, or null if the node signs in its agent JVM.
+     */
+    static SigningDaemonLaunch launchFor(FilePath onNode, TaskListener listener) throws IOException, InterruptedException {
+        Node node = SigningSlots.nodeOf(onNode);
+        SigningDaemonNodeProperty property = node.getNodeProperties().get(SigningDaemonNodeProperty.class);
+        if (property == null) {
+            return null;
+        }
+        FilePath root = node.getRootPath();
+        if (root == null) {
+            throw new AbortException("cannot start the signing daemon of " + node.getDisplayName() + ": the node is offline");
+        }
+        FilePath daemonDir = root.child(DAEMON_DIR);
+        String installKey = node.getNodeName() + ":" + daemonDir.getRemote() + "@" + System.identityHashCode(root.getChannel());
+        List<String> classpath = installed.get(installKey);
+        if (classpath == null) {
+            classpath = install(daemonDir, listener);
+            installed.put(installKey, classpath);
+        }
+        return new SigningDaemonLaunch(property.javaPath, property.javaOptions, daemonDir.getRemote(), classpath);
+    }
+
+    /**
+     * Install the signing core and apksig in a directory of the given one named by the digest of their content,
+     * unless they are already there, remove the installs of other versions, and return the daemon's classpath.
+     * The jars of a version are never overwritten in place, so a daemon still running an older version keeps its
+     * jars until the version is removed, and that version's daemon restarts with the new classpath.
+     */
+    private static List<String> install(FilePath daemonDir, TaskListener listener) throws IOException, InterruptedException {
+        List<File> sources = daemonSources();
+        FilePath versionDir = daemonDir.child(daemonDigest);
+        if (!versionDir.exists()) {
+            listener.getLogger().printf("[SignApksBuilder] installing the signing daemon in %s%n", versionDir.getRemote());
+            daemonDir.mkdirs();
+            // copy to a scratch directory first, so a daemon never starts from a partial install
+            FilePath staging = daemonDir.createTempDir(daemonDigest, ".tmp");
+            try {
+                for (File source : sources) {
+                    if (source.isDirectory()) {
+                        new FilePath(source).copyRecursiveTo(classesPattern(), staging.child("classes"));
+                    }
+                    else {
+                        new FilePath(source).copyTo(staging.child(source.getName()));
+                    }
+                }
+                staging.renameTo(versionDir);
+            }
+            catch (IOException e) {
+                // another build may have installed the same version at the same time
+                if (!versionDir.exists()) {
+                    throw e;
+                }
+            }
+            finally {
+                if (staging.exists()) {
+                    staging.deleteRecursive();
+                }
+            }
+        }
+        for (FilePath stale : daemonDir.list()) {
+            if (!stale.getName().equals(versionDir.getName()) && !stale.getName().endsWith(".tmp")) {
+                try {
+                    stale.deleteRecursive();
+                }
+                catch (IOException e) {
+                    // e.g., a daemon on Windows still has the jars open; the next install tries again
+                    LOGGER.log(Level.FINE, "could not remove the stale signing daemon install " + stale.getRemote(), e);
+                }
+            }
+        }
+        List<String> classpath = new ArrayList<>();
+        for (File source : sources) {
+            classpath.add(versionDir.child(source.isDirectory() ? "classes" : source.getName()).getRemote());
+        }
+        return classpath;
+    }
+
+    private static synchronized List<File> daemonSources() throws IOException {
+        if (daemonSources == null) {
+            List<File> sources = new ArrayList<>();
+            StringBuilder digests = new StringBuilder();
+            for (Class<?> fromJar : new Class<?>[] { ApkSigning.class, ApkSigner.class }) {
+                File source = Which.jarFile(fromJar);
+                sources.add(source);
+                digests.append(source.getName()).append(' ').append(digestOf(source)).append('\n');
+            }
+            daemonDigest = Util.getDigestOf(digests.toString());
+            daemonSources = sources;
+        }
+        return daemonSources;
+    }
+
+    private static String digestOf(File source) throws IOException {
+        if (!source.isDirectory()) {
+            return Util.getDigestOf(source);
+        }
+        // the plugin's classes are not in a jar when it runs from a development build
+        StringBuilder digests = new StringBuilder();
+        FileSet classes = Util.createFileSet(source, classesPattern());
+        String[] names = classes.getDirectoryScanner().getIncludedFiles();
+        Arrays.sort(names);
+        for (String name : names) {
+            digests.append(name).append(' ').append(Util.getDigestOf(new File(source, name))).append('\n');
+        }
+        return Util.getDigestOf(digests.toString());
+    }
+
+    private static String classesPattern() {
+        return ApkSigning.class.getPackage().getName().replace('.', '/') + "/**";
+    }
+
+    @Extension
+    @Symbol("androidSigningDaemon")
+    public static class DescriptorImpl extends NodePropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.signingDaemon_displayName();
+        }
+
+        public String getDefaultJavaOptions() {
+            return DEFAULT_JAVA_OPTIONS;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.plugins.androidsigning.core.ApkSigning;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Counters one run of a signing step collects and reports at the end of the run.  Safe to update from
+ * the concurrent shards of a {@link DistributedSigning} run.
+ */
+class SigningMetrics {
+
+    static String formatBytes(long bytes) {
+        return ApkSigning.formatBytes(bytes);
+    }
+
+    private final AtomicInteger alreadyAlignedApks = new AtomicInteger();
+    private final AtomicLong alignmentBytesNotCopied = new AtomicLong();
+    private final AtomicLong peakSigningHeap = new AtomicLong();
+    private final AtomicInteger alreadySignedApks = new AtomicInteger();
+    private final AtomicLong alreadySignedBytes = new AtomicLong();
+    private final AtomicInteger zipalignTimeouts = new AtomicInteger();
+    private final AtomicInteger signingTimeouts = new AtomicInteger();
+    private final AtomicInteger timeoutRetries = new AtomicInteger();
+    private final AtomicInteger slotWaits = new AtomicInteger();
+    private final AtomicLong slotWaitNanos = new AtomicLong();
+
+    void recordAlreadyAligned(long apkSize) {
+        alreadyAlignedApks.incrementAndGet();
+        alignmentBytesNotCopied.addAndGet(apkSize);
+    }
+
+    void recordAlreadySigned(long apkSize) {
+        alreadySignedApks.incrementAndGet();
+        alreadySignedBytes.addAndGet(apkSize);
+    }
+
+    void recordZipalignTimeout() {
+        zipalignTimeouts.incrementAndGet();
+    }
+
+    void recordSigningTimeout() {
+        signingTimeouts.incrementAndGet();
+    }
+
+    void recordTimeoutRetry() {
+        timeoutRetries.incrementAndGet();
+    }
+
+    void recordSigned(SignApksBuilder.SignApkResult result) {
+        peakSigningHeap.accumulateAndGet(result.peakHeap, Math::max);
+    }
+
+    void recordSlotWait(long nanos) {
+        slotWaits.incrementAndGet();
+        slotWaitNanos.addAndGet(nanos);
+    }
+
+    int getAlreadyAlignedApks() {
+        return alreadyAlignedApks.get();
+    }
+
+    long getAlignmentBytesNotCopied() {
+        return alignmentBytesNotCopied.get();
+    }
+
+    int getAlreadySignedApks() {
+        return alreadySignedApks.get();
+    }
+
+    int getZipalignTimeouts() {
+        return zipalignTimeouts.get();
+    }
+
+    int getSigningTimeouts() {
+        return signingTimeouts.get();
+    }
+
+    int getTimeoutRetries() {
+        return timeoutRetries.get();
+    }
+
+    long getPeakSigningHeap() {
+        return peakSigningHeap.get();
+    }
+
+    long getSlotWaitNanos() {
+        return slotWaitNanos.get();
+    }
+
+    void report(PrintStream logger) {
+        logger.printf("[SignApksBuilder] waited %.1f s in total for node signing slots (%d APKs waited)%n",
+            slotWaitNanos.get() / 1e9, slotWaits.get());
+        if (alreadyAlignedApks.get() > 0) {
+            logger.printf("[SignApksBuilder] skipped zipalign for %d already aligned APKs (%s not copied)%n",
+                alreadyAlignedApks.get(), formatBytes(alignmentBytesNotCopied.get()));
+        }
+        if (alreadySignedApks.get() > 0) {
+            logger.printf("[SignApksBuilder] skipped signing %d APKs already signed by the same certificates (%s)%n",
+                alreadySignedApks.get(), formatBytes(alreadySignedBytes.get()));
+        }
+        if (zipalignTimeouts.get() + signingTimeouts.get() > 0) {
+            logger.printf("[SignApksBuilder] timed out %d zipalign runs and %d signings; retried %d APKs%n",
+                zipalignTimeouts.get(), signingTimeouts.get(), timeoutRetries.get());
+        }
+        if (peakSigningHeap.get() > 0) {
+            logger.printf("[SignApksBuilder] peak JVM heap while signing in low-memory mode: %s%n", formatBytes(peakSigningHeap.get()));
+        }
+    }
+}
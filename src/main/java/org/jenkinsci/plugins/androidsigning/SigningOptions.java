@@ -0,0 +1,36 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.io.Serializable;
+
+
+/**
+ * Settings of one signing run that travel with every {@link SignApksBuilder.SignApkCallable} to the node
+ * that signs the APK.
+ */
+class SigningOptions implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    static final long MEBIBYTE = 1024L * 1024;
+
+    /**
+     * The heap budget of low-memory signing in bytes, or 0 to sign the usual way.
+     */
+    final long lowMemoryBudget;
+
+    /**
+     * How much of the signed APK to force to disk before renaming it to its final name.
+     */
+    final FsyncPolicy fsyncPolicy;
+
+    /**
+     * The priority of the APKs when they wait for a signing slot.  Only the controller uses this.
+     */
+    final SigningPriority priority;
+
+    SigningOptions(long lowMemoryBudget, FsyncPolicy fsyncPolicy, SigningPriority priority) {
+        this.lowMemoryBudget = Math.max(0, lowMemoryBudget);
+        this.fsyncPolicy = fsyncPolicy == null ? FsyncPolicy.NONE : fsyncPolicy;
+        this.priority = priority == null ? SigningPriority.NORMAL : priority;
+    }
+}
@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * An immutable snapshot of a {@link SignApksBuilder}'s configuration, taken at the start of each run.  All the
+ * concurrent builds of a job share one builder instance, so a run reads its settings only from its own plan and
+ * keeps everything it changes in its {@link SigningRun}, never in the builder.
+ */
+final class SigningPlan {
+
+    final String androidHome;
+    final String zipalignPath;
+    /**
+     * the signing rules, followed by the rule of the main key store and APK globs, if any
+     */
+    final List<SigningRule> signingRules;
+    final List<AdditionalSigner> additionalSigners;
+    final String signingCertificateLineage;
+    final SignedApkMappingStrategy signedApkMapping;
+    final boolean archiveSignedApks;
+    final boolean archiveUnsignedApks;
+    final boolean archiveIncrementally;
+    final boolean writeSha256Sidecars;
+    final String signingPriority;
+    final int archiveBatchSize;
+    final int maxArchiveTransfers;
+    final DeltaArchiving deltaArchiving;
+    final boolean skipZipalign;
+    final boolean skipZipalignIfAligned;
+    final boolean skipAlreadySigned;
+    final boolean streamingDiscovery;
+    final int lowMemorySigningBudget;
+    final FsyncPolicy fsyncPolicy;
+    final int apkTimeoutSeconds;
+    final int stepTimeoutMinutes;
+    final int timeoutRetries;
+    final ApkFailureMode apkFailureMode;
+    final String distributeToLabel;
+    final int shardSize;
+    final int maxShardAttempts;
+
+    SigningPlan(SignApksBuilder builder) {
+        androidHome = builder.getAndroidHome();
+        zipalignPath = builder.getZipalignPath();
+        signingRules = Collections.unmodifiableList(new ArrayList<>(builder.getEffectiveSigningRules()));
+        additionalSigners = Collections.unmodifiableList(new ArrayList<>(builder.getAdditionalSigners()));
+        signingCertificateLineage = builder.getSigningCertificateLineage();
+        SignedApkMappingStrategy mapping = builder.getSignedApkMapping();
+        signedApkMapping = mapping != null ? mapping : new SignedApkMappingStrategy.UnsignedApkSiblingMapping();
+        archiveSignedApks = builder.getArchiveSignedApks();
+        archiveUnsignedApks = builder.getArchiveUnsignedApks();
+        archiveIncrementally = builder.getArchiveIncrementally();
+        writeSha256Sidecars = builder.getWriteSha256Sidecars();
+        signingPriority = builder.getSigningPriority();
+        archiveBatchSize = builder.getArchiveBatchSize();
+        maxArchiveTransfers = builder.getMaxArchiveTransfers();
+        deltaArchiving = builder.getDeltaArchiving();
+        skipZipalign = builder.getSkipZipalign();
+        skipZipalignIfAligned = builder.getSkipZipalignIfAligned();
+        skipAlreadySigned = builder.getSkipAlreadySigned();
+        streamingDiscovery = builder.getStreamingDiscovery();
+        lowMemorySigningBudget = builder.getLowMemorySigningBudget();
+        fsyncPolicy = builder.getFsyncPolicy();
+        apkTimeoutSeconds = builder.getApkTimeoutSeconds();
+        stepTimeoutMinutes = builder.getStepTimeoutMinutes();
+        timeoutRetries = builder.getTimeoutRetries();
+        apkFailureMode = builder.getApkFailureMode();
+        distributeToLabel = builder.getDistributeToLabel();
+        shardSize = builder.getShardSize();
+        maxShardAttempts = builder.getMaxShardAttempts();
+    }
+}
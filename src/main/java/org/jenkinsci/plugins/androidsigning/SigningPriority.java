@@ -0,0 +1,34 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jvnet.localizer.Localizable;
+
+
+/**
+ * The priority class of a build's signing work.  When builds wait for a signing slot on the same node, the
+ * slot goes to the waiting build with the highest priority, and among builds of the same priority, to the
+ * one that has waited longest.
+ */
+public enum SigningPriority {
+
+    /**
+     * For release builds, which should not wait behind CI builds.
+     */
+    HIGH(Messages._signingPriority_high_displayName()),
+
+    NORMAL(Messages._signingPriority_normal_displayName()),
+
+    /**
+     * For CI and pull request builds that sign debug flavors.
+     */
+    LOW(Messages._signingPriority_low_displayName());
+
+    private final Localizable displayName;
+
+    SigningPriority(Localizable displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName.toString();
+    }
+}
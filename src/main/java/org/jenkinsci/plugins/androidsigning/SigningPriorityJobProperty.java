@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import net.sf.json.JSONObject;
+
+
+/**
+ * The {@link SigningPriority} of a job's signing steps that do not set their own.
+ */
+public class SigningPriorityJobProperty extends JobProperty<Job<?, ?>> {
+
+    /**
+     * Return the signing priority of the given job, or {@link SigningPriority#NORMAL} if it does not have
+     * this property.
+     */
+    static SigningPriority of(Job<?, ?> job) {
+        SigningPriorityJobProperty property = job.getProperty(SigningPriorityJobProperty.class);
+        return property == null ? SigningPriority.NORMAL : property.getPriority();
+    }
+
+    private final SigningPriority priority;
+
+    @DataBoundConstructor
+    public SigningPriorityJobProperty(SigningPriority priority) {
+        this.priority = priority == null ? SigningPriority.NORMAL : priority;
+    }
+
+    public SigningPriority getPriority() {
+        return priority;
+    }
+
+    @Extension
+    @Symbol("androidSigningPriority")
+    public static class DescriptorImpl extends JobPropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.signingPriorityJobProperty_displayName();
+        }
+
+        @Override
+        public JobProperty<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            JSONObject block = formData.optJSONObject("androidSigningPriority");
+            return block == null ? null : req.bindJSON(SigningPriorityJobProperty.class, block);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+
+
+/**
+ * Exposes the signing slots and priority queues of each node at {@code /androidSigningQueue/api/json}.
+ */
+@Extension
+@ExportedBean
+public class SigningQueueAction implements RootAction {
+
+    static final String URL_NAME = "androidSigningQueue";
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class NodeStatus {
+
+        private final SigningSlots.Snapshot snapshot;
+
+        NodeStatus(SigningSlots.Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Exported
+        public String getNode() {
+            return snapshot.node;
+        }
+
+        @Exported
+        public int getSlots() {
+            return snapshot.slots;
+        }
+
+        @Exported
+        public int getSlotsInUse() {
+            return snapshot.inUse;
+        }
+
+        @Exported
+        public int getQueueLength() {
+            int queued = 0;
+            for (SigningSlots.WaitStats stats : snapshot.stats.values()) {
+                queued += stats.waiting;
+            }
+            return queued;
+        }
+
+        @Exported
+        public List<PriorityStatus> getPriorities() {
+            List<PriorityStatus> priorities = new ArrayList<>(snapshot.stats.size());
+            for (Map.Entry<SigningPriority, SigningSlots.WaitStats> entry : snapshot.stats.entrySet()) {
+                priorities.add(new PriorityStatus(entry.getKey(), entry.getValue()));
+            }
+            return priorities;
+        }
+    }
+
+    @ExportedBean(defaultVisibility = 3)
+    public static final class PriorityStatus {
+
+        private final SigningPriority priority;
+        private final SigningSlots.WaitStats stats;
+
+        PriorityStatus(SigningPriority priority, SigningSlots.WaitStats stats) {
+            this.priority = priority;
+            this.stats = stats;
+        }
+
+        @Exported
+        public SigningPriority getPriority() {
+            return priority;
+        }
+
+        @Exported
+        public int getQueueLength() {
+            return stats.waiting;
+        }
+
+        /**
+         * The number of signings of this priority that got a slot, with or without waiting.
+         */
+        @Exported
+        public long getSignings() {
+            return stats.signings;
+        }
+
+        @Exported
+        public long getTotalWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(stats.totalWaitNanos);
+        }
+
+        @Exported
+        public long getMaxWaitMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(stats.maxWaitNanos);
+        }
+
+        @Exported
+        public long getAverageWaitMillis() {
+            return stats.signings == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(stats.totalWaitNanos / stats.signings);
+        }
+    }
+
+    @Exported
+    public List<NodeStatus> getNodes() {
+        Jenkins.getInstance().checkPermission(Jenkins.READ);
+        List<NodeStatus> nodes = new ArrayList<>();
+        for (SigningSlots.Snapshot snapshot : SigningSlots.snapshots()) {
+            nodes.add(new NodeStatus(snapshot));
+        }
+        return nodes;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.signingQueueAction_displayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+}
@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.ItemGroup;
+import hudson.util.ListBoxModel;
+
+
+/**
+ * Maps the APKs matching a set of globs to the key store credential and alias that should sign them.
+ * A {@link SignApksBuilder} evaluates its rules in order, and each APK belongs to the first rule
+ * with a matching glob.  Gradle variants map naturally to globs over the Android Gradle plugin's
+ * output directories, e.g., {@code **}{@code /outputs/apk/brandA/release/*.apk}.
+ */
+public final class SigningRule extends AbstractDescribableImpl<SigningRule> {
+
+    static List<String> globsOf(String apksToSignValue) {
+        List<String> globs = new ArrayList<>();
+        if (apksToSignValue == null) {
+            return globs;
+        }
+        for (String glob : apksToSignValue.split("\\s*,\\s*")) {
+            glob = glob.trim();
+            if (glob.length() > 0) {
+                globs.add(glob);
+            }
+        }
+        return globs;
+    }
+
+    private final String apksToSign;
+    private final String keyStoreId;
+    private String keyAlias;
+
+    /**
+     * @param apksToSign an Ant-style glob pattern; multiple globs separated by commas are allowed
+     * @param keyStoreId an ID of a {@link com.cloudbees.plugins.credentials.common.StandardCertificateCredentials}
+     */
+    @DataBoundConstructor
+    public SigningRule(String apksToSign, String keyStoreId) {
+        this.apksToSign = apksToSign;
+        this.keyStoreId = keyStoreId;
+    }
+
+    @DataBoundSetter
+    public void setKeyAlias(String x) {
+        keyAlias = x;
+    }
+
+    public String getApksToSign() {
+        return apksToSign;
+    }
+
+    public String getKeyStoreId() {
+        return keyStoreId;
+    }
+
+    public String getKeyAlias() {
+        return keyAlias;
+    }
+
+    List<String> getGlobs() {
+        return globsOf(apksToSign);
+    }
+
+    @Extension
+    @Symbol("signingRule")
+    public static class DescriptorImpl extends Descriptor<SigningRule> {
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.signingRule_displayName();
+        }
+
+        @SuppressWarnings("unused")
+        public ListBoxModel doFillKeyStoreIdItems(@AncestorInPath ItemGroup<?> parent) {
+            return SignApksBuilder.keyStoreIdItems(parent);
+        }
+    }
+}
@@ -0,0 +1,533 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.androidsigning.core.ApkGlobs;
+import org.jenkinsci.plugins.androidsigning.core.SigningComponents;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.Item;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.Fingerprinter;
+import hudson.util.ArgumentListBuilder;
+import jenkins.model.Jenkins;
+
+
+/**
+ * One run of a {@link SignApksBuilder}: signs and archives the APKs of one build as its {@link SigningPlan} says,
+ * and holds all the state the run changes.  A new instance signs each run, so concurrent builds of a job that
+ * share a builder never share any of it.
+ */
+class SigningRun {
+
+    /**
+     * The name of the list of the APKs a build has signed so far, in the {@link SignApksBuilder#BUILDER_DIR} of the
+     * workspace.  Every run in the build, e.g., of each entry of a legacy builder or each parallel signing step,
+     * adds its APKs to it.
+     */
+    static final String SIGNED_APKS_LIST = "signed-apks.tsv";
+
+    /**
+     * Locks the list of signed APKs of each build, so the build's runs do not overwrite each other's lines.
+     */
+    private static final Map<Run<?, ?>, Object> signedApksListLocks = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final SigningPlan plan;
+    private final Run<?, ?> run;
+    private final FilePath workspace;
+    private final Launcher launcher;
+    private final TaskListener listener;
+
+    private final Map<SignApksBuilder.ApkToSign, SignedApk> signedApks = new ConcurrentHashMap<>();
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+
+    SigningRun(SigningPlan plan, Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener) {
+        this.plan = plan;
+        this.run = run;
+        this.workspace = workspace;
+        this.launcher = launcher;
+        this.listener = listener;
+    }
+
+    /**
+     * Sign the APKs, and return what was signed, in the order of the signing rules.
+     */
+    List<SignedApk> signApks() throws IOException, InterruptedException {
+        ArgumentListBuilder command = new ArgumentListBuilder().add("echo").addQuoted("resolving effective environment");
+        command.toWindowsCommand();
+        if (!launcher.isUnix()) {
+            command = command.toWindowsCommand();
+        }
+        // force the Custom Tools plugin to inject the custom tools env vars via its DecoratedLauncher
+        Launcher.ProcStarter getEffectiveEnv = launcher.launch().pwd(workspace).cmds(command);
+        try {
+            getEffectiveEnv.join();
+        }
+        catch (Exception e) {
+            listener.getLogger().println("[SignApksBuilder] error resolving effective script environment, but this does not necessarily fail your build:");
+            e.printStackTrace(listener.getLogger());
+        }
+        String[] envLines = getEffectiveEnv.envs();
+        EnvVars shellEnv = new EnvVars();
+        for (String envVar : envLines) {
+            shellEnv.addLine(envVar);
+        }
+
+        EnvVars env = new EnvVars();
+        if (run instanceof AbstractBuild) {
+            EnvVars runEnv = run.getEnvironment(listener);
+            env.overrideExpandingAll(runEnv);
+            env.overrideExpandingAll(((AbstractBuild<?,?>) run).getBuildVariables());
+        }
+        env.overrideAll(shellEnv);
+
+        FilePath builderDir = workspace.child(SignApksBuilder.BUILDER_DIR);
+        FilePath zipalignDir = builderDir.child("zipalign");
+        zipalignDir.mkdirs();
+        startSignedApksList();
+
+        ZipalignTool zipalign = new ZipalignTool(env, workspace, listener.getLogger(), plan.androidHome, plan.zipalignPath);
+
+        List<SigningRule> rules = plan.signingRules;
+        if (rules.isEmpty()) {
+            throw new AbortException("no APKs to sign: specify the APKs to sign or at least one signing rule");
+        }
+
+        SigningPriority priority = effectiveSigningPriority();
+
+        // decode each distinct key only once, no matter how many rules use it
+        Map<String, SigningComponents> decodedKeys = new HashMap<>();
+        List<List<SigningComponents>> signersByRule = new ArrayList<>(rules.size());
+        for (SigningRule rule : rules) {
+            List<SigningComponents> signers = new ArrayList<>(1 + plan.additionalSigners.size());
+            signers.add(decodeKey(decodedKeys, rule.getKeyStoreId(), rule.getKeyAlias(), run.getParent(), listener));
+            for (AdditionalSigner additionalSigner : plan.additionalSigners) {
+                signers.add(decodeKey(decodedKeys, additionalSigner.getKeyStoreId(), additionalSigner.getKeyAlias(), run.getParent(), listener));
+            }
+            signersByRule.add(signers);
+        }
+
+        FilePath lineage = null;
+        String lineagePath = null;
+        if (plan.signingCertificateLineage != null) {
+            lineage = workspace.child(env.expand(plan.signingCertificateLineage)).absolutize();
+            if (!lineage.exists()) {
+                throw new AbortException("signing certificate lineage file does not exist: " + lineage.getRemote());
+            }
+            lineagePath = lineage.getRemote();
+        }
+
+        List<List<String>> globsByRule = new ArrayList<>(rules.size());
+        for (SigningRule rule : rules) {
+            globsByRule.add(rule.getGlobs());
+        }
+        String excludes = builderDir.getName() + "/**";
+
+        // distributed signing shards the APKs up front, so it always needs the whole scan first
+        boolean streaming = plan.streamingDiscovery && plan.distributeToLabel == null;
+        if (plan.streamingDiscovery && !streaming) {
+            listener.getLogger().println("[SignApksBuilder] scanning the whole workspace before signing because distributed signing shards the APKs up front");
+        }
+        List<SignApksBuilder.ApkToSign> apksToSign = new ArrayList<>();
+        if (!streaming) {
+            ApkGlobs.Matches matches = workspace.act(new MatchSigningRulesCallable(globsByRule, excludes));
+            if (!matches.unmatchedGlobs.isEmpty()) {
+                throw new AbortException("No APKs in workspace matching " + matches.unmatchedGlobs.get(0));
+            }
+            for (int ruleIndex = 0; ruleIndex < rules.size(); ruleIndex++) {
+                for (String matchedPath : matches.pathsByGroup.get(ruleIndex)) {
+                    apksToSign.add(apkToSign(matchedPath, rules.get(ruleIndex), signersByRule.get(ruleIndex)));
+                }
+            }
+        }
+
+        if (plan.deltaArchiving != DeltaArchiving.NONE && !(plan.archiveUnsignedApks && plan.archiveSignedApks)) {
+            listener.getLogger().println("[SignApksBuilder] archiving APKs in full because delta archiving requires archiving both the unsigned and signed APKs");
+        }
+
+        try (ApkArchiver archiver = new ApkArchiver(run, workspace, launcher, listener, plan.archiveBatchSize, plan.maxArchiveTransfers)) {
+            SignApksBuilder.SignedApkCallback onSigned = (apk, result) -> {
+                String certificateSha256;
+                try {
+                    certificateSha256 = SignedApk.sha256Of(apk.signers.get(0).certChain[0]);
+                }
+                catch (GeneralSecurityException e) {
+                    throw new IOException("failed to fingerprint the signing certificate of " + apk.signedApk.getRemote(), e);
+                }
+                String signedRelName = relativeToWorkspace(workspace, apk.signedApk);
+                SignedApk signed = new SignedApk(relativeToWorkspace(workspace, apk.unsignedApk), signedRelName, result.signedApkSha256, certificateSha256);
+                signedApks.put(apk, signed);
+                addToSignedApksList(signed);
+                Jenkins.getInstance().getFingerprintMap().getOrCreate(run, apk.signedApk.getName(), result.signedApkMd5).addFor(run);
+                fingerprints.put(signedRelName, result.signedApkMd5);
+                if (plan.writeSha256Sidecars) {
+                    FilePath sidecar = sha256SidecarOf(apk.signedApk);
+                    sidecar.write(result.signedApkSha256 + "  " + apk.signedApk.getName() + "\n", "UTF-8");
+                    listener.getLogger().printf("[SignApksBuilder] wrote SHA-256 of signed APK %s to %s%n", signedRelName, sidecar.getName());
+                }
+                if (plan.archiveIncrementally) {
+                    archiver.add(archiveEntriesOf(Collections.singletonList(apk)));
+                }
+            };
+
+            SigningOptions options = new SigningOptions(plan.lowMemorySigningBudget * SigningOptions.MEBIBYTE, plan.fsyncPolicy, priority);
+            SigningMetrics metrics = new SigningMetrics();
+            SigningWatchdog watchdog = new SigningWatchdog(plan.apkTimeoutSeconds, plan.stepTimeoutMinutes, plan.timeoutRetries, metrics, listener);
+            ApkFailureMode failureMode = plan.apkFailureMode;
+            ApkFailures failures = failureMode.continuesOnError() ? new ApkFailures() : null;
+            String unmatchedGlob = null;
+            try {
+                if (plan.distributeToLabel != null) {
+                    DistributedSigning distributed = new DistributedSigning(run, plan.distributeToLabel, plan.shardSize, plan.maxShardAttempts,
+                        plan.androidHome, plan.zipalignPath, plan.skipZipalign, plan.skipZipalignIfAligned, plan.skipAlreadySigned, options, metrics, watchdog, failures, listener);
+                    distributed.sign(apksToSign, lineage, onSigned);
+                }
+                else {
+                    try (StreamingApkDiscovery discovery = streaming ? new StreamingApkDiscovery() : null) {
+                        Map<SignApksBuilder.ApkToSign, StreamingApkDiscovery.Match> streamed = new HashMap<>();
+                        if (discovery != null) {
+                            listener.getLogger().println("[SignApksBuilder] signing APKs as the workspace scan finds them");
+                            discovery.start(workspace, globsByRule, excludes);
+                        }
+                        for (int next = 0; ; next++) {
+                            if (discovery != null) {
+                                // fail as soon as the scan shows a glob matched nothing, not after signing the rest
+                                List<String> unmatched = discovery.getUnmatchedGlobsIfScanned();
+                                if (unmatched != null && !unmatched.isEmpty()) {
+                                    unmatchedGlob = unmatched.get(0);
+                                    break;
+                                }
+                            }
+                            if (discovery != null && next == apksToSign.size()) {
+                                StreamingApkDiscovery.Match match = discovery.next();
+                                if (match != null) {
+                                    SignApksBuilder.ApkToSign apk = apkToSign(match.path, rules.get(match.rule), signersByRule.get(match.rule));
+                                    apksToSign.add(apk);
+                                    streamed.put(apk, match);
+                                }
+                            }
+                            if (next == apksToSign.size()) {
+                                break;
+                            }
+                            SignApksBuilder.ApkToSign apk = apksToSign.get(next);
+                            ApkFailures.Progress progress = new ApkFailures.Progress(ApkFailures.Phase.SIGNATURE_CHECK);
+                            try {
+                                SignApksBuilder.SignApkResult result = alignAndSign(apk, zipalignDir, zipalign, lineagePath, options, metrics, watchdog, progress);
+                                progress.enter(ApkFailures.Phase.PUBLISHING);
+                                onSigned.signed(apk, result);
+                            }
+                            catch (IOException e) {
+                                if (failures == null) {
+                                    throw e;
+                                }
+                                failures.add(apk, relativeToWorkspace(workspace, apk.unsignedApk), progress, e, listener.getLogger());
+                            }
+                        }
+                        if (unmatchedGlob != null) {
+                            // still archive the APKs signed so far, rather than leave them unarchived in the workspace
+                            listener.getLogger().printf("[SignApksBuilder] no APKs in workspace matching %s; stopping after %d signed APKs%n",
+                                unmatchedGlob, apksToSign.size());
+                        }
+                        else if (discovery != null) {
+                            listener.getLogger().printf("[SignApksBuilder] workspace scan found %d APKs in %.1f s%n",
+                                apksToSign.size(), discovery.getScanNanos() / 1e9);
+                        }
+                        if (discovery != null) {
+                            // archive and report in the order of a full scan, not the order the APKs were found
+                            apksToSign.sort(Comparator.comparing(streamed::get, StreamingApkDiscovery.Match.SCAN_ORDER));
+                        }
+                    }
+                }
+            }
+            catch (SigningWatchdog.ApkTimeoutException e) {
+                // report the timeouts that failed the step along with the rest of the metrics so far
+                metrics.report(listener.getLogger());
+                throw e;
+            }
+            metrics.report(listener.getLogger());
+            recordFingerprints(run, fingerprints);
+
+            List<SignApksBuilder.ApkToSign> succeeded = apksToSign;
+            if (failures != null && !failures.isEmpty()) {
+                succeeded = new ArrayList<>(apksToSign.size());
+                for (SignApksBuilder.ApkToSign apk : apksToSign) {
+                    if (!failures.isFailed(apk)) {
+                        succeeded.add(apk);
+                    }
+                }
+            }
+            if (!plan.archiveIncrementally) {
+                archiver.add(archiveEntriesOf(succeeded));
+            }
+
+            listener.getLogger().println("[SignApksBuilder] finished signing APKs");
+
+            archiver.finish();
+            deleteDeltaScratch();
+
+            if (failures != null && !failures.isEmpty()) {
+                failures.report(apksToSign, listener.getLogger());
+            }
+            if (unmatchedGlob != null) {
+                throw new AbortException("No APKs in workspace matching " + unmatchedGlob);
+            }
+            if (failures != null && !failures.isEmpty()) {
+                if (failureMode.result() == Result.FAILURE) {
+                    throw new AbortException(String.format("%d of %d APKs failed to sign", apksToSign.size() - succeeded.size(), apksToSign.size()));
+                }
+                run.setResult(failureMode.result());
+            }
+        }
+
+        List<SignedApk> signedInOrder = new ArrayList<>(apksToSign.size());
+        for (SignApksBuilder.ApkToSign apk : apksToSign) {
+            SignedApk signed = signedApks.get(apk);
+            if (signed != null) {
+                signedInOrder.add(signed);
+            }
+        }
+        return signedInOrder;
+    }
+
+    private SignApksBuilder.ApkToSign apkToSign(String matchedPath, SigningRule rule, List<SigningComponents> signers) throws IOException, InterruptedException {
+        FilePath unsignedApk = workspace.child(matchedPath).absolutize();
+        FilePath signedApk = plan.signedApkMapping.destinationForUnsignedApk(unsignedApk, workspace);
+        return new SignApksBuilder.ApkToSign(unsignedApk, signedApk, signers, ArchivedApkResigner.archivePrefix(rule.getKeyStoreId(), rule.getKeyAlias()));
+    }
+
+    private SigningPriority effectiveSigningPriority() throws AbortException {
+        if (plan.signingPriority == null) {
+            return SigningPriorityJobProperty.of(run.getParent());
+        }
+        try {
+            return SigningPriority.valueOf(plan.signingPriority.toUpperCase(Locale.ENGLISH));
+        }
+        catch (IllegalArgumentException e) {
+            throw new AbortException(Messages.signingPriority_unknown(plan.signingPriority, Arrays.toString(SigningPriority.values())));
+        }
+    }
+
+    private static FilePath sha256SidecarOf(FilePath signedApk) {
+        return signedApk.sibling(signedApk.getName() + ".sha256");
+    }
+
+    /**
+     * Add the given fingerprints, from workspace-relative signed APK path to MD5, to the run's fingerprint
+     * action, so the signed APKs show on the run's See Fingerprints page like those of the Fingerprinter.
+     */
+    private static void recordFingerprints(Run<?, ?> run, Map<String, String> fingerprints) {
+        if (fingerprints.isEmpty()) {
+            return;
+        }
+        Fingerprinter.FingerprintAction action = run.getAction(Fingerprinter.FingerprintAction.class);
+        if (action == null) {
+            run.addAction(new Fingerprinter.FingerprintAction(run, fingerprints));
+        }
+        else {
+            action.add(fingerprints);
+        }
+    }
+
+    private Map<String, String> archiveEntriesOf(List<SignApksBuilder.ApkToSign> apks) throws IOException, InterruptedException {
+        boolean archiveBoth = plan.archiveUnsignedApks && plan.archiveSignedApks;
+        Map<String, String> apksToArchive = new LinkedHashMap<>();
+        for (SignApksBuilder.ApkToSign apk : apks) {
+            FilePath unsignedApk = apk.unsignedApk;
+            String unsignedArchivePath = apk.archivePrefix + unsignedApk.getName() + "/" + unsignedApk.getName();
+            String signedArchivePath = apk.archivePrefix + unsignedApk.getName() + "/" + apk.signedApk.getName();
+            if (plan.archiveUnsignedApks) {
+                if (archiveBoth && plan.deltaArchiving == DeltaArchiving.UNSIGNED_AGAINST_SIGNED) {
+                    apksToArchive.put(unsignedArchivePath + ApkDelta.EXTENSION,
+                        archiveDelta(unsignedApk, unsignedArchivePath, apk.signedApk, signedArchivePath));
+                }
+                else {
+                    listener.getLogger().printf("[SignApksBuilder] archiving unsigned APK %s%n", unsignedApk);
+                    apksToArchive.put(unsignedArchivePath, relativeToWorkspace(workspace, unsignedApk));
+                }
+            }
+            if (plan.archiveSignedApks) {
+                if (archiveBoth && plan.deltaArchiving == DeltaArchiving.SIGNED_AGAINST_UNSIGNED) {
+                    apksToArchive.put(signedArchivePath + ApkDelta.EXTENSION,
+                        archiveDelta(apk.signedApk, signedArchivePath, unsignedApk, unsignedArchivePath));
+                }
+                else {
+                    String signedRelName = relativeToWorkspace(workspace, apk.signedApk);
+                    listener.getLogger().printf("[SignApksBuilder] archiving signed APK %s%n", signedRelName);
+                    apksToArchive.put(signedArchivePath, signedRelName);
+                }
+                if (plan.writeSha256Sidecars) {
+                    FilePath sidecar = sha256SidecarOf(apk.signedApk);
+                    apksToArchive.put(apk.archivePrefix + unsignedApk.getName() + "/" + sidecar.getName(), relativeToWorkspace(workspace, sidecar));
+                }
+            }
+        }
+        return apksToArchive;
+    }
+
+    /**
+     * Write the delta that rebuilds the given APK from the other archived APK of its pair, register it with the
+     * run's {@link ApkDeltaAction}, and return the workspace-relative path of the delta to archive.
+     */
+    private String archiveDelta(FilePath apk, String archivePath, FilePath sourceApk, String sourceArchivePath)
+        throws IOException, InterruptedException {
+        String deltaArchivePath = archivePath + ApkDelta.EXTENSION;
+        FilePath delta = deltaScratchDir().child(deltaArchivePath);
+        long deltaSize = apk.act(new ComputeApkDeltaCallable(sourceApk.getRemote(), delta.getRemote()));
+        listener.getLogger().printf("[SignApksBuilder] archiving APK %s as a %s delta against %s (%s in full)%n",
+            relativeToWorkspace(workspace, apk), SigningMetrics.formatBytes(deltaSize), relativeToWorkspace(workspace, sourceApk),
+            SigningMetrics.formatBytes(apk.length()));
+        ApkDeltaAction.of(run).add(new ApkDeltaAction.ArchivedDelta(deltaArchivePath, sourceArchivePath, apk.getName()));
+        return relativeToWorkspace(workspace, delta);
+    }
+
+    /**
+     * Empty the workspace's {@link #SIGNED_APKS_LIST list of signed APKs}, unless an earlier run of the same build
+     * started it.  A file next to the list records the build that started it.
+     */
+    private void startSignedApksList() throws IOException, InterruptedException {
+        FilePath list = workspace.child(SignApksBuilder.BUILDER_DIR).child(SIGNED_APKS_LIST);
+        FilePath startedBy = list.getParent().child("." + SIGNED_APKS_LIST + ".build");
+        synchronized (signedApksListLock()) {
+            if (!startedBy.exists() || !startedBy.readToString().equals(run.getExternalizableId())) {
+                writeSignedApksList(list, "");
+                startedBy.write(run.getExternalizableId(), "UTF-8");
+            }
+        }
+    }
+
+    private void addToSignedApksList(SignedApk signed) throws IOException, InterruptedException {
+        FilePath list = workspace.child(SignApksBuilder.BUILDER_DIR).child(SIGNED_APKS_LIST);
+        synchronized (signedApksListLock()) {
+            String signedSoFar = list.exists() ? list.readToString() : "";
+            writeSignedApksList(list, signedSoFar + signed.toListLine());
+        }
+    }
+
+    private Object signedApksListLock() {
+        return signedApksListLocks.computeIfAbsent(run, r -> new Object());
+    }
+
+    /**
+     * Replace the list of signed APKs with the given lines by a rename, so a parallel branch that polls it never reads
+     * a partial list.
+     */
+    private void writeSignedApksList(FilePath list, String lines) throws IOException, InterruptedException {
+        FilePath temp = list.getParent().createTempFile("." + SIGNED_APKS_LIST + "-", ".tmp");
+        temp.write(lines, "UTF-8");
+        // the same atomic replace as a signed APK's
+        temp.act(new SignApksBuilder.PublishSignedApkCallable(list.getRemote(), FsyncPolicy.NONE, listener));
+    }
+
+    /**
+     * Delete the deltas {@link #archiveDelta} wrote, which only exist to be archived.
+     */
+    private void deleteDeltaScratch() throws InterruptedException {
+        FilePath deltas = deltaScratchDir();
+        try {
+            if (deltas.exists()) {
+                deltas.deleteRecursive();
+            }
+        }
+        catch (IOException e) {
+            listener.getLogger().printf("[SignApksBuilder] failed to delete archived deltas in %s: %s%n", deltas.getRemote(), e);
+        }
+    }
+
+    private FilePath deltaScratchDir() {
+        return workspace.child(SignApksBuilder.BUILDER_DIR).child("deltas");
+    }
+
+    private SignApksBuilder.SignApkResult alignAndSign(SignApksBuilder.ApkToSign apk, FilePath zipalignDir, ZipalignTool zipalign, String lineagePath, SigningOptions options,
+        SigningMetrics metrics, SigningWatchdog watchdog, ApkFailures.Progress progress) throws IOException, InterruptedException {
+
+        FilePath unsignedApk = apk.unsignedApk;
+        FilePath signedApk = apk.signedApk;
+
+        if (plan.skipAlreadySigned) {
+            SignApksBuilder.SignApkResult copied = SignApksBuilder.copyIfAlreadySigned(unsignedApk, signedApk, apk.signers, lineagePath, options, metrics, listener);
+            if (copied != null) {
+                listener.getLogger().printf("[SignApksBuilder] copied already signed APK %s to %s%n",
+                    relativeToWorkspace(workspace, unsignedApk), relativeToWorkspace(workspace, signedApk));
+                return copied;
+            }
+        }
+
+        return watchdog.withRetries(relativeToWorkspace(workspace, unsignedApk), deadline -> {
+            FilePath alignedApk;
+            progress.enter(ApkFailures.Phase.ZIPALIGN);
+            if (plan.skipZipalign) {
+                listener.getLogger().printf("[SignApksBuilder] skipping zipalign for unsigned apk %s", unsignedApk);
+                alignedApk = unsignedApk;
+            }
+            else if (plan.skipZipalignIfAligned && SignApksBuilder.isAlreadyAligned(unsignedApk, metrics, listener)) {
+                alignedApk = unsignedApk;
+            }
+            else {
+                // a fresh aligned copy for every attempt, so a retry never reuses what a killed zipalign left behind
+                alignedApk = zipalignDir.createTempFile("aligned-" + unsignedApk.getBaseName() + "-", ".apk");
+                try {
+                    SignApksBuilder.runZipalign(zipalign, launcher, workspace, unsignedApk, alignedApk, watchdog, deadline, listener);
+                }
+                catch (SigningWatchdog.ApkTimeoutException e) {
+                    alignedApk.delete();
+                    throw e;
+                }
+            }
+
+            String alignedRelName = relativeToWorkspace(workspace, alignedApk);
+            String signedRelName = relativeToWorkspace(workspace, signedApk);
+
+            if (!alignedApk.exists()) {
+                throw new AbortException(String.format("aligned APK does not exist: %s", alignedRelName));
+            }
+
+            listener.getLogger().printf("[SignApksBuilder] signing APK %s%n", alignedRelName);
+            progress.enter(ApkFailures.Phase.SIGNING);
+
+            FilePath signedParent = signedApk.getParent();
+            if (!signedParent.exists()) {
+                signedParent.mkdirs();
+            }
+            SignApksBuilder.SignApkCallable signApk = new SignApksBuilder.SignApkCallable(apk.signers, lineagePath, signedApk.getRemote(), options, listener);
+            SignApksBuilder.SignApkResult result = SignApksBuilder.sign(alignedApk, signApk, options, metrics, watchdog, deadline, listener);
+
+            listener.getLogger().printf("[SignApksBuilder] signed APK %s%n", signedRelName);
+            return result;
+        });
+    }
+
+    private static SigningComponents decodeKey(Map<String, SigningComponents> decodedKeys, String keyStoreId, String keyAlias, Item item, TaskListener listener) throws AbortException {
+        String cacheKey = keyStoreId + "/" + StringUtils.defaultString(keyAlias);
+        SigningComponents key = decodedKeys.get(cacheKey);
+        if (key == null) {
+            key = SignApksBuilder.getSigningComponents(keyStoreId, keyAlias, item, listener);
+            decodedKeys.put(cacheKey, key);
+        }
+        return key;
+    }
+
+    static String relativeToWorkspace(FilePath ws, FilePath path) throws IOException, InterruptedException {
+        URI relUri = ws.toURI().relativize(path.toURI());
+        return relUri.getPath().replaceFirst("/$", "");
+    }
+}
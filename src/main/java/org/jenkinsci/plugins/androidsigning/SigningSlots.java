@@ -0,0 +1,269 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.security.MasterToSlaveCallable;
+
+
+/**
+ * The signing slots of each node, shared by all the builds that sign on the node.  A freed slot goes to the
+ * waiting signing with the highest {@link SigningPriority}, and among those of the same priority, to the one
+ * that asked first, so a build that signs many APKs cannot starve the others on the same node, and release
+ * builds do not wait behind CI builds.
+ */
+final class SigningSlots {
+
+    /**
+     * A held signing slot, which closing returns to its node.
+     */
+    interface Slot extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final class Waiter {
+        final SigningPriority priority;
+        final long sequence;
+        boolean granted;
+
+        Waiter(SigningPriority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Waiter> DISPATCH_ORDER =
+        Comparator.<Waiter, SigningPriority>comparing(waiter -> waiter.priority).thenComparingLong(waiter -> waiter.sequence);
+
+    /**
+     * The wait statistics of one priority class on one node.
+     */
+    static final class WaitStats {
+        int waiting;
+        long signings;
+        long totalWaitNanos;
+        long maxWaitNanos;
+
+        WaitStats copy() {
+            WaitStats copy = new WaitStats();
+            copy.waiting = waiting;
+            copy.signings = signings;
+            copy.totalWaitNanos = totalWaitNanos;
+            copy.maxWaitNanos = maxWaitNanos;
+            return copy;
+        }
+    }
+
+    /**
+     * A consistent view of the slots and queue of one node.
+     */
+    static final class Snapshot {
+        final String node;
+        final int slots;
+        final int inUse;
+        final Map<SigningPriority, WaitStats> stats;
+
+        Snapshot(String node, int slots, int inUse, Map<SigningPriority, WaitStats> stats) {
+            this.node = node;
+            this.slots = slots;
+            this.inUse = inUse;
+            this.stats = stats;
+        }
+    }
+
+    private static final class NodeQueue {
+        final String displayName;
+        final int configured;
+        final int slots;
+        // guarded by this
+        int inUse;
+        long nextSequence;
+        final PriorityQueue<Waiter> waiting = new PriorityQueue<>(DISPATCH_ORDER);
+        final Map<SigningPriority, WaitStats> stats = new EnumMap<>(SigningPriority.class);
+
+        NodeQueue(String displayName, int configured, int slots) {
+            this.displayName = displayName;
+            this.configured = configured;
+            this.slots = slots;
+            for (SigningPriority priority : SigningPriority.values()) {
+                stats.put(priority, new WaitStats());
+            }
+        }
+
+        synchronized boolean tryAcquire(SigningPriority priority) {
+            if (inUse < slots && waiting.isEmpty()) {
+                inUse++;
+                stats.get(priority).signings++;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized long acquire(SigningPriority priority) throws InterruptedException {
+            long start = System.nanoTime();
+            Waiter waiter = new Waiter(priority, nextSequence++);
+            WaitStats priorityStats = stats.get(priority);
+            waiting.add(waiter);
+            priorityStats.waiting++;
+            dispatch();
+            try {
+                while (!waiter.granted) {
+                    wait();
+                }
+            }
+            catch (InterruptedException e) {
+                if (waiter.granted) {
+                    release();
+                }
+                else {
+                    waiting.remove(waiter);
+                }
+                throw e;
+            }
+            finally {
+                priorityStats.waiting--;
+            }
+            long waited = System.nanoTime() - start;
+            priorityStats.signings++;
+            priorityStats.totalWaitNanos += waited;
+            priorityStats.maxWaitNanos = Math.max(priorityStats.maxWaitNanos, waited);
+            return waited;
+        }
+
+        synchronized void release() {
+            inUse--;
+            dispatch();
+        }
+
+        private void dispatch() {
+            boolean granted = false;
+            while (inUse < slots && !waiting.isEmpty()) {
+                waiting.poll().granted = true;
+                inUse++;
+                granted = true;
+            }
+            if (granted) {
+                notifyAll();
+            }
+        }
+
+        synchronized boolean isIdle() {
+            return inUse == 0 && waiting.isEmpty();
+        }
+
+        synchronized Snapshot snapshot() {
+            Map<SigningPriority, WaitStats> statsCopy = new EnumMap<>(SigningPriority.class);
+            for (Map.Entry<SigningPriority, WaitStats> entry : stats.entrySet()) {
+                statsCopy.put(entry.getKey(), entry.getValue().copy());
+            }
+            return new Snapshot(displayName, slots, inUse, statsCopy);
+        }
+    }
+
+    private static final class AvailableProcessors extends MasterToSlaveCallable<Integer, IOException> {
+        private static final long serialVersionUID = 1;
+
+        @Override
+        public Integer call() {
+            return Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    private static final ConcurrentMap<String, NodeQueue> queues = new ConcurrentHashMap<>();
+
+    private SigningSlots() {
+    }
+
+    /**
+     * Wait for a signing slot on the node the given path is on, and record the time spent waiting.
+     */
+    static Slot acquire(FilePath onNode, SigningPriority priority, SigningMetrics metrics, TaskListener listener) throws IOException, InterruptedException {
+        Node node = nodeOf(onNode);
+        String nodeName = node.getNodeName();
+        String nodeDisplayName = node.getDisplayName();
+        int configured = configuredSlotsOf(node);
+
+        NodeQueue queue = queues.get(nodeName);
+        if (queue == null || queue.configured != configured) {
+            // builds that already hold or wait for a slot keep using the replaced queue, so changing the
+            // property takes effect for new signings right away
+            NodeQueue fresh = new NodeQueue(nodeDisplayName, configured, configured > 0 ? configured : onNode.act(new AvailableProcessors()));
+            queue = queues.merge(nodeName, fresh, (current, replacement) -> current.configured == configured ? current : replacement);
+        }
+
+        if (!queue.tryAcquire(priority)) {
+            int ahead;
+            synchronized (queue) {
+                ahead = queue.waiting.size();
+            }
+            listener.getLogger().printf("[SignApksBuilder] waiting for one of %d signing slots on %s at %s priority (%d signings queued)%n",
+                queue.slots, nodeDisplayName, priority, ahead + 1);
+            long waited = queue.acquire(priority);
+            listener.getLogger().printf("[SignApksBuilder] waited %.1f s for a signing slot on %s%n", waited / 1e9, nodeDisplayName);
+            metrics.recordSlotWait(waited);
+        }
+        NodeQueue held = queue;
+        return held::release;
+    }
+
+    /**
+     * The current slots, queue, and wait statistics of every node that has signed since Jenkins started, and still
+     * exists with the same signing concurrency.
+     */
+    static List<Snapshot> snapshots() {
+        pruneStaleQueues();
+        Collection<NodeQueue> current = queues.values();
+        List<Snapshot> snapshots = new ArrayList<>(current.size());
+        for (NodeQueue queue : current) {
+            snapshots.add(queue.snapshot());
+        }
+        snapshots.sort(Comparator.comparing(snapshot -> snapshot.node));
+        return snapshots;
+    }
+
+    /**
+     * Forget the queues of nodes that were deleted or renamed, or whose signing concurrency changed, once no build
+     * holds or waits for one of their slots.  A queue still in use stays until a later call finds it idle.
+     */
+    static void pruneStaleQueues() {
+        Jenkins jenkins = Jenkins.getInstance();
+        for (Map.Entry<String, NodeQueue> entry : queues.entrySet()) {
+            String nodeName = entry.getKey();
+            NodeQueue queue = entry.getValue();
+            Node node = nodeName.isEmpty() ? jenkins : jenkins.getNode(nodeName);
+            if (node != null && configuredSlotsOf(node) == queue.configured) {
+                continue;
+            }
+            synchronized (queue) {
+                if (queue.isIdle()) {
+                    queues.remove(nodeName, queue);
+                }
+            }
+        }
+    }
+
+    private static int configuredSlotsOf(Node node) {
+        SigningConcurrencyNodeProperty property = node.getNodeProperties().get(SigningConcurrencyNodeProperty.class);
+        return property == null ? 0 : property.getMaxConcurrentSignings();
+    }
+
+    static Node nodeOf(FilePath path) {
+        Computer computer = path.toComputer();
+        Node node = computer == null ? null : computer.getNode();
+        return node == null ? Jenkins.getInstance() : node;
+    }
+}
@@ -0,0 +1,162 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hudson.AbortException;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import jenkins.util.Timer;
+
+
+/**
+ * Enforces the per-APK and per-step timeouts of one signing run.  Each attempt at aligning and signing an APK gets
+ * a deadline, the earlier of the APK timeout and the step timeout; the watchdog kills a {@code zipalign} process
+ * or cancels a signing task that runs past it, and retries the APK on fresh scratch files up to the configured
+ * number of times.  Safe to share between the concurrent shards of a {@link DistributedSigning} run.
+ */
+class SigningWatchdog {
+
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Thrown when aligning or signing an APK runs past its deadline.
+     */
+    static final class ApkTimeoutException extends AbortException {
+
+        private static final long serialVersionUID = 1;
+
+        /**
+         * Whether the whole step ran out of time, so retrying the APK is pointless.
+         */
+        final boolean stepTimeout;
+
+        ApkTimeoutException(String message, boolean stepTimeout) {
+            super(message);
+            this.stepTimeout = stepTimeout;
+        }
+    }
+
+    /**
+     * One attempt at aligning and signing an APK, which must finish by the given {@link System#nanoTime()} deadline.
+     */
+    interface Attempt<T> {
+        T run(long deadlineNanos) throws IOException, InterruptedException;
+    }
+
+    private final long apkTimeoutNanos;
+    private final int stepTimeoutMinutes;
+    private final long stepDeadlineNanos;
+    private final int timeoutRetries;
+    private final SigningMetrics metrics;
+    private final TaskListener listener;
+
+    /**
+     * @param apkTimeoutSeconds the time each attempt at one APK may take, or 0 for no limit
+     * @param stepTimeoutMinutes the time signing all the APKs may take from now, or 0 for no limit
+     * @param timeoutRetries how many more times to try an APK that timed out
+     */
+    SigningWatchdog(int apkTimeoutSeconds, int stepTimeoutMinutes, int timeoutRetries, SigningMetrics metrics, TaskListener listener) {
+        this.apkTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(0, apkTimeoutSeconds));
+        this.stepTimeoutMinutes = Math.max(0, stepTimeoutMinutes);
+        this.stepDeadlineNanos = stepTimeoutMinutes > 0 ? System.nanoTime() + TimeUnit.MINUTES.toNanos(stepTimeoutMinutes) : NO_DEADLINE;
+        this.timeoutRetries = Math.max(0, timeoutRetries);
+        this.metrics = metrics;
+        this.listener = listener;
+    }
+
+    /**
+     * Run attempts at the given APK until one finishes in time, the APK runs out of retries, or the step runs out
+     * of time.
+     */
+    <T> T withRetries(String apk, Attempt<T> attempt) throws IOException, InterruptedException {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                return attempt.run(attemptDeadline());
+            }
+            catch (ApkTimeoutException e) {
+                if (e.stepTimeout || attemptNumber > timeoutRetries) {
+                    throw e;
+                }
+                metrics.recordTimeoutRetry();
+                listener.getLogger().printf("[SignApksBuilder] %s; retrying APK %s on fresh scratch files (attempt %d of %d)%n",
+                    e.getMessage(), apk, attemptNumber + 1, timeoutRetries + 1);
+            }
+        }
+    }
+
+    private long attemptDeadline() throws ApkTimeoutException {
+        long now = System.nanoTime();
+        if (stepDeadlineNanos != NO_DEADLINE && now - stepDeadlineNanos >= 0) {
+            throw stepTimedOut();
+        }
+        if (apkTimeoutNanos == 0) {
+            return stepDeadlineNanos;
+        }
+        long apkDeadline = now + apkTimeoutNanos;
+        return stepDeadlineNanos == NO_DEADLINE || apkDeadline - stepDeadlineNanos < 0 ? apkDeadline : stepDeadlineNanos;
+    }
+
+    private ApkTimeoutException stepTimedOut() {
+        return new ApkTimeoutException(String.format("signing step timed out after %d minutes", stepTimeoutMinutes), true);
+    }
+
+    private ApkTimeoutException timedOut(String what, long deadlineNanos) {
+        if (deadlineNanos == stepDeadlineNanos) {
+            return stepTimedOut();
+        }
+        return new ApkTimeoutException(String.format("%s timed out after %d s", what, TimeUnit.NANOSECONDS.toSeconds(apkTimeoutNanos)), false);
+    }
+
+    /**
+     * Wait for the given {@code zipalign} process, killing it if it runs past the deadline.
+     */
+    int join(Proc proc, long deadlineNanos, String what) throws IOException, InterruptedException {
+        if (deadlineNanos == NO_DEADLINE) {
+            return proc.join();
+        }
+        AtomicBoolean killed = new AtomicBoolean();
+        ScheduledFuture<?> kill = Timer.get().schedule(() -> {
+            killed.set(true);
+            try {
+                proc.kill();
+            }
+            catch (IOException | InterruptedException e) {
+                listener.getLogger().printf("[SignApksBuilder] failed to kill stuck %s: %s%n", what, e);
+            }
+        }, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        int exitCode;
+        try {
+            exitCode = proc.join();
+        }
+        finally {
+            kill.cancel(false);
+        }
+        if (killed.get()) {
+            metrics.recordZipalignTimeout();
+            throw timedOut(what, deadlineNanos);
+        }
+        return exitCode;
+    }
+
+    /**
+     * Wait for the given signing task, cancelling it, which interrupts it on its node, if it runs past the deadline.
+     */
+    <T> T get(Future<T> remoteOp, long deadlineNanos, String what) throws IOException, InterruptedException {
+        if (deadlineNanos == NO_DEADLINE) {
+            return SignApksBuilder.getInterruptibly(remoteOp);
+        }
+        try {
+            return SignApksBuilder.getInterruptibly(remoteOp, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException e) {
+            remoteOp.cancel(true);
+            metrics.recordSigningTimeout();
+            throw timedOut(what, deadlineNanos);
+        }
+    }
+}
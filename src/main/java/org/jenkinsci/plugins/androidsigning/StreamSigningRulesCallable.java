@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.plugins.androidsigning.core.ApkGlobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+
+/**
+ * Walks the workspace for the signing rules' globs like {@link MatchSigningRulesCallable}, but sends the matches
+ * to a {@link MatchedApkSink} in small batches while the walk goes on, so signing can start with the first match.
+ * A batch goes out when it is full or when the previous one went out a while ago, and the first match always goes
+ * out on its own.  Returns the globs that did not match any file.
+ */
+class StreamSigningRulesCallable extends MasterToSlaveFileCallable<List<String>> {
+
+    private static final long serialVersionUID = 1;
+
+    static final int MAX_BATCH_SIZE = 32;
+    private static final long MAX_BATCH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final List<List<String>> globsByRule;
+    private final String excludes;
+    private final MatchedApkSink sink;
+
+    StreamSigningRulesCallable(List<List<String>> globsByRule, String excludes, MatchedApkSink sink) {
+        this.globsByRule = globsByRule;
+        this.excludes = excludes;
+        this.sink = sink;
+    }
+
+    @Override
+    public List<String> invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        List<Integer> rules = new ArrayList<>(MAX_BATCH_SIZE);
+        List<String> paths = new ArrayList<>(MAX_BATCH_SIZE);
+        long[] lastSent = { System.nanoTime() - MAX_BATCH_DELAY_NANOS };
+        List<String> unmatchedGlobs = ApkGlobs.stream(workspace, globsByRule, excludes, (rule, path) -> {
+            rules.add(rule);
+            paths.add(path);
+            if (paths.size() >= MAX_BATCH_SIZE || System.nanoTime() - lastSent[0] >= MAX_BATCH_DELAY_NANOS) {
+                send(rules, paths);
+                lastSent[0] = System.nanoTime();
+            }
+        });
+        send(rules, paths);
+        return unmatchedGlobs;
+    }
+
+    private void send(List<Integer> rules, List<String> paths) throws InterruptedException {
+        if (paths.isEmpty()) {
+            return;
+        }
+        int[] ruleArray = new int[rules.size()];
+        for (int i = 0; i < ruleArray.length; i++) {
+            ruleArray[i] = rules.get(i);
+        }
+        sink.matched(ruleArray, paths.toArray(new String[0]));
+        rules.clear();
+        paths.clear();
+    }
+}
@@ -0,0 +1,132 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import hudson.FilePath;
+
+
+/**
+ * The controller side of streaming discovery: starts a {@link StreamSigningRulesCallable} on the workspace's node
+ * and hands out its matches one at a time, in the order the agent finds them, while the scan goes on.  The matches
+ * wait in a bounded queue; when signing falls behind, the agent's next batch blocks until there is room, so memory
+ * use stays bounded no matter how many APKs match.
+ */
+class StreamingApkDiscovery implements MatchedApkSink, AutoCloseable {
+
+    static final int QUEUE_CAPACITY = 4 * StreamSigningRulesCallable.MAX_BATCH_SIZE;
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * An APK that a signing rule claimed.
+     */
+    static final class Match {
+
+        /**
+         * The order {@link MatchSigningRulesCallable} returns its matches in: by signing rule, then by path.
+         */
+        static final Comparator<Match> SCAN_ORDER = Comparator.<Match>comparingInt(match -> match.rule).thenComparing(match -> match.path);
+
+        final int rule;
+        final String path;
+
+        Match(int rule, String path) {
+            this.rule = rule;
+            this.path = path;
+        }
+    }
+
+    private final BlockingQueue<Match> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile boolean closed;
+    private Future<List<String>> scan;
+    private long scanStart;
+    private long scanNanos;
+    private List<String> unmatchedGlobs;
+
+    /**
+     * Start scanning the given workspace for the given signing rules' globs.
+     */
+    void start(FilePath workspace, List<List<String>> globsByRule, String excludes) throws IOException, InterruptedException {
+        // on the controller's own workspace the export is this object itself
+        MatchedApkSink sink = workspace.getChannel().export(MatchedApkSink.class, this);
+        scanStart = System.nanoTime();
+        scan = workspace.actAsync(new StreamSigningRulesCallable(globsByRule, excludes, sink));
+    }
+
+    @Override
+    public void matched(int[] rules, String[] paths) throws InterruptedException {
+        for (int i = 0; i < paths.length; i++) {
+            Match match = new Match(rules[i], paths[i]);
+            while (!queue.offer(match, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    // signing stopped, so stop the scan instead of waiting for room that will never come
+                    throw new InterruptedException("streaming discovery was closed");
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the next match, waiting for the scan to find it, or null once the scan has finished and every match
+     * has been handed out.
+     */
+    Match next() throws IOException, InterruptedException {
+        while (true) {
+            Match match = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (match != null) {
+                return match;
+            }
+            if (scan.isDone()) {
+                // the agent's last batch returned before the scan did, so the queue holds everything left
+                match = queue.poll();
+                if (match == null) {
+                    getUnmatchedGlobsIfScanned();
+                }
+                return match;
+            }
+        }
+    }
+
+    /**
+     * Return the globs that did not match any file if the scan has finished, even while some of its matches are
+     * still waiting to be handed out, or null while the scan goes on.
+     */
+    List<String> getUnmatchedGlobsIfScanned() throws IOException, InterruptedException {
+        if (unmatchedGlobs == null && scan.isDone()) {
+            unmatchedGlobs = SignApksBuilder.getInterruptibly(scan);
+            scanNanos = System.nanoTime() - scanStart;
+        }
+        return unmatchedGlobs;
+    }
+
+    /**
+     * The globs that did not match any file, once {@link #next()} has returned null.
+     */
+    List<String> getUnmatchedGlobs() {
+        if (unmatchedGlobs == null) {
+            throw new IllegalStateException("the scan has not finished");
+        }
+        return unmatchedGlobs;
+    }
+
+    /**
+     * How long the scan took, measured when it was first seen finished, once {@link #next()} has returned null.
+     */
+    long getScanNanos() {
+        return scanNanos;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (scan != null && !scan.isDone()) {
+            scan.cancel(true);
+        }
+        queue.clear();
+    }
+}
@@ -0,0 +1,179 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.Symbol;
+import org.jenkinsci.plugins.androidsigning.core.ApkGlobs;
+import org.jenkinsci.plugins.androidsigning.core.ApkVerification;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import jenkins.tasks.SimpleBuildStep;
+
+
+/**
+ * Verifies the signatures of the workspace APKs matching a set of globs, e.g., third-party or previously signed
+ * APKs before promoting them, and checks their signers and signature schemes.  The APKs verify in parallel on the
+ * agent, the log reports each as soon as it is verified, and every APK is verified before the build fails for
+ * any that did not pass.  {@link ApkVerificationAction} summarizes the results on the build page.
+ */
+public class VerifyApksBuilder extends Builder implements SimpleBuildStep {
+
+    private String apksToVerify;
+    private String expectedCertificateSha256;
+    private boolean requireV1Scheme = false;
+    private boolean requireV2Scheme = false;
+    private boolean requireV3Scheme = false;
+    private int verificationThreads = 0;
+
+    @DataBoundConstructor
+    public VerifyApksBuilder() {
+    }
+
+    @DataBoundSetter
+    public void setApksToVerify(String x) {
+        apksToVerify = x;
+    }
+
+    public String getApksToVerify() {
+        return apksToVerify;
+    }
+
+    @DataBoundSetter
+    public void setExpectedCertificateSha256(String x) {
+        expectedCertificateSha256 = x;
+    }
+
+    /**
+     * The comma- or whitespace-separated SHA-256 fingerprints of the certificates allowed to sign the APKs.
+     */
+    public String getExpectedCertificateSha256() {
+        return expectedCertificateSha256;
+    }
+
+    @DataBoundSetter
+    public void setRequireV1Scheme(boolean x) {
+        requireV1Scheme = x;
+    }
+
+    public boolean getRequireV1Scheme() {
+        return requireV1Scheme;
+    }
+
+    @DataBoundSetter
+    public void setRequireV2Scheme(boolean x) {
+        requireV2Scheme = x;
+    }
+
+    public boolean getRequireV2Scheme() {
+        return requireV2Scheme;
+    }
+
+    @DataBoundSetter
+    public void setRequireV3Scheme(boolean x) {
+        requireV3Scheme = x;
+    }
+
+    public boolean getRequireV3Scheme() {
+        return requireV3Scheme;
+    }
+
+    @DataBoundSetter
+    public void setVerificationThreads(int x) {
+        verificationThreads = Math.max(0, x);
+    }
+
+    /**
+     * The number of APKs to verify at once, or 0 for the number of processors of the agent.
+     */
+    public int getVerificationThreads() {
+        return verificationThreads;
+    }
+
+    ApkVerification.Expectations expectations() {
+        List<String> fingerprints = Arrays.asList(StringUtils.split(StringUtils.defaultString(expectedCertificateSha256), ", \t\r\n"));
+        return new ApkVerification.Expectations(fingerprints, requireV1Scheme, requireV2Scheme, requireV3Scheme);
+    }
+
+    @Override
+    public void perform(@Nonnull Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher, @Nonnull TaskListener listener) throws InterruptedException, IOException {
+        verifyApks(run, workspace, listener);
+    }
+
+    /**
+     * Verify the matching APKs, add the results to the run's {@link ApkVerificationAction}, and throw if any failed.
+     */
+    List<ApkVerification.Result> verifyApks(Run<?, ?> run, FilePath workspace, TaskListener listener) throws InterruptedException, IOException {
+        List<String> globs = SigningRule.globsOf(apksToVerify);
+        if (globs.isEmpty()) {
+            throw new AbortException("no APKs to verify: specify the APK globs");
+        }
+        ApkGlobs.Matches matches = workspace.act(new MatchSigningRulesCallable(Collections.singletonList(globs), SignApksBuilder.BUILDER_DIR + "/**"));
+        if (!matches.unmatchedGlobs.isEmpty()) {
+            throw new AbortException("No APKs in workspace matching " + matches.unmatchedGlobs.get(0));
+        }
+        List<String> paths = matches.pathsByGroup.get(0);
+        listener.getLogger().printf("[SignApksBuilder] verifying %d APKs%n", paths.size());
+
+        List<ApkVerification.Result> results = workspace.act(new VerifyApksCallable(paths, expectations(), verificationThreads, listener));
+        ApkVerificationAction.of(run).addAll(results);
+
+        int failed = 0;
+        for (ApkVerification.Result result : results) {
+            if (!result.passed()) {
+                failed++;
+            }
+        }
+        listener.getLogger().printf("[SignApksBuilder] verified %d APKs: %d passed, %d failed%n", results.size(), results.size() - failed, failed);
+        if (failed > 0) {
+            throw new AbortException(failed + " of " + results.size() + " APKs failed verification");
+        }
+        return results;
+    }
+
+    static List<Map<String, Object>> toMaps(List<ApkVerification.Result> results) {
+        List<Map<String, Object>> maps = new ArrayList<>(results.size());
+        for (ApkVerification.Result result : results) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("apk", result.path);
+            map.put("schemes", result.schemes());
+            map.put("certificateSha256", new ArrayList<>(result.certificateSha256));
+            map.put("warnings", new ArrayList<>(result.warnings));
+            maps.add(map);
+        }
+        return maps;
+    }
+
+    @Extension
+    @Symbol("verifyAndroidApks")
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @Override
+        public @Nonnull String getDisplayName() {
+            return Messages.verifyApks_displayName();
+        }
+    }
+}
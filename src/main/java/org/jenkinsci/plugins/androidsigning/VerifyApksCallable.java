@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.plugins.androidsigning.core.ApkVerification;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+
+
+/**
+ * Verifies the given workspace APKs on the agent with a pool of threads, logging each result as soon as it is
+ * known, and returns all the results in the order the APKs were given.
+ */
+class VerifyApksCallable extends MasterToSlaveFileCallable<List<ApkVerification.Result>> {
+
+    private static final long serialVersionUID = 1;
+
+    private final List<String> paths;
+    private final ApkVerification.Expectations expectations;
+    private final int threads;
+    private final TaskListener listener;
+
+    /**
+     * @param threads the number of APKs to verify at once, or 0 for the number of processors of the agent
+     */
+    VerifyApksCallable(List<String> paths, ApkVerification.Expectations expectations, int threads, TaskListener listener) {
+        this.paths = new ArrayList<>(paths);
+        this.expectations = expectations;
+        this.threads = threads;
+        this.listener = listener;
+    }
+
+    @Override
+    public List<ApkVerification.Result> invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        List<ApkVerification.Result> results = new ArrayList<>(paths.size());
+        if (paths.isEmpty()) {
+            return results;
+        }
+        int poolSize = Math.min(paths.size(), threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize, new NamingThreadFactory(new DaemonThreadFactory(), getClass().getSimpleName()));
+        try {
+            CompletionService<ApkVerification.Result> verifications = new ExecutorCompletionService<>(pool);
+            Map<String, Integer> indexes = new HashMap<>();
+            for (String path : paths) {
+                verifications.submit(() -> ApkVerification.verify(new File(workspace, path), path, expectations));
+                indexes.put(path, results.size());
+                results.add(null);
+            }
+            PrintStream logger = listener.getLogger();
+            for (int done = 0; done < paths.size(); done++) {
+                ApkVerification.Result result;
+                try {
+                    result = verifications.take().get();
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof InterruptedException) {
+                        throw (InterruptedException) e.getCause();
+                    }
+                    throw new IOException("failed to verify APK: " + e.getCause(), e.getCause());
+                }
+                results.set(indexes.get(result.path), result);
+                logger.println(SignApksBuilder.LOG_PREFIX + ApkVerification.describe(result));
+                for (String warning : result.warnings) {
+                    logger.println(SignApksBuilder.LOG_PREFIX + "  warning: " + warning);
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+}
@@ -0,0 +1,203 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.jenkinsci.plugins.androidsigning.core.ApkVerification;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+
+/**
+ * The pipeline form of {@link VerifyApksBuilder}.  The step returns a list with one map per verified APK, with the
+ * workspace-relative {@code apk} path, the verified signature {@code schemes}, the {@code certificateSha256}
+ * fingerprints of the signers, and any {@code warnings}.
+ */
+public class VerifyApksStep extends Step {
+
+    private String apksToVerify;
+    private String expectedCertificateSha256;
+    private boolean requireV1Scheme = false;
+    private boolean requireV2Scheme = false;
+    private boolean requireV3Scheme = false;
+    private int verificationThreads = 0;
+
+    @DataBoundConstructor
+    public VerifyApksStep() {
+    }
+
+    @DataBoundSetter
+    public void setApksToVerify(String x) {
+        apksToVerify = x;
+    }
+
+    public String getApksToVerify() {
+        return apksToVerify;
+    }
+
+    @DataBoundSetter
+    public void setExpectedCertificateSha256(String x) {
+        expectedCertificateSha256 = x;
+    }
+
+    public String getExpectedCertificateSha256() {
+        return expectedCertificateSha256;
+    }
+
+    @DataBoundSetter
+    public void setRequireV1Scheme(boolean x) {
+        requireV1Scheme = x;
+    }
+
+    public boolean getRequireV1Scheme() {
+        return requireV1Scheme;
+    }
+
+    @DataBoundSetter
+    public void setRequireV2Scheme(boolean x) {
+        requireV2Scheme = x;
+    }
+
+    public boolean getRequireV2Scheme() {
+        return requireV2Scheme;
+    }
+
+    @DataBoundSetter
+    public void setRequireV3Scheme(boolean x) {
+        requireV3Scheme = x;
+    }
+
+    public boolean getRequireV3Scheme() {
+        return requireV3Scheme;
+    }
+
+    @DataBoundSetter
+    public void setVerificationThreads(int x) {
+        verificationThreads = Math.max(0, x);
+    }
+
+    public int getVerificationThreads() {
+        return verificationThreads;
+    }
+
+    VerifyApksBuilder createBuilder() {
+        VerifyApksBuilder builder = new VerifyApksBuilder();
+        builder.setApksToVerify(getApksToVerify());
+        builder.setExpectedCertificateSha256(getExpectedCertificateSha256());
+        builder.setRequireV1Scheme(getRequireV1Scheme());
+        builder.setRequireV2Scheme(getRequireV2Scheme());
+        builder.setRequireV3Scheme(getRequireV3Scheme());
+        builder.setVerificationThreads(getVerificationThreads());
+        return builder;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new VerifyApksStepExecution(this, context);
+    }
+
+    /**
+     * Verifies on a thread of the step's own pool, like {@link SignApksStep.SignApksStepExecution}.
+     */
+    static class VerifyApksStepExecution extends StepExecution {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final ExecutorService verifyingThreads = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), VerifyApksStep.class.getSimpleName()));
+
+        private final transient VerifyApksStep step;
+        private final transient AtomicBoolean completed = new AtomicBoolean();
+        private transient volatile Future<?> task;
+
+        VerifyApksStepExecution(VerifyApksStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            FilePath workspace = getContext().get(FilePath.class);
+            TaskListener listener = getContext().get(TaskListener.class);
+            VerifyApksBuilder builder = step.createBuilder();
+            task = verifyingThreads.submit(() -> {
+                try {
+                    List<ApkVerification.Result> results = builder.verifyApks(run, workspace, listener);
+                    complete(VerifyApksBuilder.toMaps(results), null);
+                }
+                catch (Throwable e) {
+                    complete(null, e);
+                }
+            });
+            return false;
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            Future<?> running = task;
+            if (running != null) {
+                running.cancel(true);
+            }
+            complete(null, cause);
+        }
+
+        @Override
+        public void onResume() {
+            getContext().onFailure(new AbortException("Jenkins restarted while verifying APKs; the verification step cannot resume"));
+        }
+
+        private void complete(Object result, Throwable failure) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            if (failure == null) {
+                getContext().onSuccess(result);
+            }
+            else {
+                getContext().onFailure(failure);
+            }
+        }
+    }
+
+    @Extension(optional = true)
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(Run.class, FilePath.class, TaskListener.class)));
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "verifyAndroidApks";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.verifyApks_displayName();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Scans a directory once for the union of several groups of globs, e.g., the globs of each signing rule, then
+ * assigns each matching file to the first group with a matching glob.  {@link #match} scans the whole directory
+ * before returning the matches; {@link #stream} hands each match to a listener as soon as it finds it.
+ */
+public final class ApkGlobs {
+
+    public static class Matches implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        /**
+         * relative paths, using forward slashes, of the files each group matched, in the same order as the groups
+         */
+        public final List<List<String>> pathsByGroup;
+        /**
+         * globs that did not match any file, regardless of whether an earlier group claimed the file
+         */
+        public final List<String> unmatchedGlobs;
+
+        Matches(List<List<String>> pathsByGroup, List<String> unmatchedGlobs) {
+            this.pathsByGroup = pathsByGroup;
+            this.unmatchedGlobs = unmatchedGlobs;
+        }
+    }
+
+    private static String normalizePattern(String glob) {
+        String pattern = glob.trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+        if (pattern.endsWith(File.separator)) {
+            pattern += "**";
+        }
+        return pattern;
+    }
+
+    private static String[] patterns(String commaSeparated) {
+        List<String> patterns = new ArrayList<>();
+        if (commaSeparated != null) {
+            for (String pattern : commaSeparated.split(",")) {
+                if (!pattern.trim().isEmpty()) {
+                    patterns.add(normalizePattern(pattern));
+                }
+            }
+        }
+        return patterns.toArray(new String[0]);
+    }
+
+    /**
+     * Receives the matches of {@link #stream} as the scan finds them.
+     */
+    public interface MatchListener {
+        void matched(int group, String path) throws IOException, InterruptedException;
+    }
+
+    private ApkGlobs() {
+    }
+
+    /**
+     * Match the files in the given directory against the given groups of globs, leaving out files that match the
+     * comma-separated excludes, if any, and Ant's default excludes, like {@code Util.createFileSet} does.
+     */
+    public static Matches match(File dir, List<List<String>> globsByGroup, String excludes) throws InterruptedException {
+        Set<String> allGlobs = new LinkedHashSet<>();
+        for (List<String> groupGlobs : globsByGroup) {
+            allGlobs.addAll(groupGlobs);
+        }
+        List<List<String>> pathsByGroup = new ArrayList<>(globsByGroup.size());
+        for (int i = 0; i < globsByGroup.size(); i++) {
+            pathsByGroup.add(new ArrayList<>());
+        }
+        if (allGlobs.isEmpty()) {
+            return new Matches(pathsByGroup, new ArrayList<>());
+        }
+
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(dir);
+        scanner.setIncludes(patterns(String.join(",", allGlobs)));
+        scanner.setExcludes(patterns(excludes));
+        scanner.addDefaultExcludes();
+        scanner.scan();
+        String[] included = scanner.getIncludedFiles();
+        Arrays.sort(included);
+
+        Set<String> unmatchedGlobs = new LinkedHashSet<>(allGlobs);
+        for (String path : included) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            boolean claimed = false;
+            for (int groupIndex = 0; groupIndex < globsByGroup.size(); groupIndex++) {
+                for (String glob : globsByGroup.get(groupIndex)) {
+                    if (!SelectorUtils.matchPath(normalizePattern(glob), path)) {
+                        continue;
+                    }
+                    unmatchedGlobs.remove(glob);
+                    if (!claimed) {
+                        pathsByGroup.get(groupIndex).add(path.replace(File.separatorChar, '/'));
+                        claimed = true;
+                    }
+                }
+            }
+        }
+
+        return new Matches(pathsByGroup, new ArrayList<>(unmatchedGlobs));
+    }
+
+    /**
+     * Match the files in the given directory like {@link #match}, but walk the directory tree and give each match
+     * to the listener as soon as it is found, instead of listing every file first.  Directories that no glob can
+     * reach and directories whose whole contents are excluded are not entered, and the files of each directory are
+     * visited in name order, so the matches of a group arrive in the order {@link #match} returns them.
+     *
+     * @return the globs that did not match any file
+     */
+    public static List<String> stream(File dir, List<List<String>> globsByGroup, String excludes, MatchListener listener)
+        throws IOException, InterruptedException {
+        Set<String> unmatchedGlobs = new LinkedHashSet<>();
+        for (List<String> groupGlobs : globsByGroup) {
+            unmatchedGlobs.addAll(groupGlobs);
+        }
+        if (unmatchedGlobs.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<String> includePatterns = Arrays.asList(patterns(String.join(",", unmatchedGlobs)));
+        List<String> excludePatterns = new ArrayList<>(Arrays.asList(patterns(excludes)));
+        for (String defaultExclude : DirectoryScanner.getDefaultExcludes()) {
+            excludePatterns.add(normalizePattern(defaultExclude));
+        }
+        List<List<String>> patternsByGroup = new ArrayList<>(globsByGroup.size());
+        for (List<String> groupGlobs : globsByGroup) {
+            List<String> groupPatterns = new ArrayList<>(groupGlobs.size());
+            for (String glob : groupGlobs) {
+                groupPatterns.add(normalizePattern(glob));
+            }
+            patternsByGroup.add(groupPatterns);
+        }
+
+        Set<String> visitedDirs = new HashSet<>();
+        Deque<String> pendingDirs = new ArrayDeque<>();
+        pendingDirs.push("");
+        while (!pendingDirs.isEmpty()) {
+            String relDir = pendingDirs.pop();
+            File absDir = relDir.isEmpty() ? dir : new File(dir, relDir);
+            // follow symlinks like DirectoryScanner, but never enter the same directory twice
+            if (!visitedDirs.add(absDir.getCanonicalPath())) {
+                continue;
+            }
+            String[] names = absDir.list();
+            if (names == null) {
+                continue;
+            }
+            Arrays.sort(names);
+            List<String> subDirs = new ArrayList<>();
+            for (String name : names) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                String path = relDir.isEmpty() ? name : relDir + File.separator + name;
+                File file = new File(absDir, name);
+                if (file.isDirectory()) {
+                    if (couldHoldIncluded(path, includePatterns) && !contentsExcluded(path, excludePatterns)) {
+                        subDirs.add(path);
+                    }
+                    continue;
+                }
+                if (!matchesAny(path, includePatterns) || matchesAny(path, excludePatterns)) {
+                    continue;
+                }
+                int claimedBy = -1;
+                for (int groupIndex = 0; groupIndex < globsByGroup.size(); groupIndex++) {
+                    List<String> groupGlobs = globsByGroup.get(groupIndex);
+                    List<String> groupPatterns = patternsByGroup.get(groupIndex);
+                    for (int globIndex = 0; globIndex < groupGlobs.size(); globIndex++) {
+                        if (SelectorUtils.matchPath(groupPatterns.get(globIndex), path)) {
+                            unmatchedGlobs.remove(groupGlobs.get(globIndex));
+                            if (claimedBy < 0) {
+                                claimedBy = groupIndex;
+                            }
+                        }
+                    }
+                }
+                if (claimedBy >= 0) {
+                    listener.matched(claimedBy, path.replace(File.separatorChar, '/'));
+                }
+            }
+            // push in reverse so the subdirectories are walked in name order
+            for (int i = subDirs.size() - 1; i >= 0; i--) {
+                pendingDirs.push(subDirs.get(i));
+            }
+        }
+        return new ArrayList<>(unmatchedGlobs);
+    }
+
+    private static boolean matchesAny(String path, List<String> patterns) {
+        for (String pattern : patterns) {
+            if (SelectorUtils.matchPath(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean couldHoldIncluded(String dirPath, List<String> includePatterns) {
+        for (String pattern : includePatterns) {
+            if (SelectorUtils.matchPatternStart(pattern, dirPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contentsExcluded(String dirPath, List<String> excludePatterns) {
+        String allContents = File.separator + "**";
+        for (String pattern : excludePatterns) {
+            if (pattern.endsWith(allContents) && SelectorUtils.matchPath(pattern.substring(0, pattern.length() - allContents.length()), dirPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,290 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * Tells whether an APK is already signed the way {@link ApkSigning} would sign it with the given signers, from
+ * only the APK Signing Block in front of the central directory and the v1 signature block entries, without reading
+ * the rest of the APK.  This does not verify the signatures; it only answers whether re-signing would change who
+ * signed the APK and with which schemes, so APKs that come back through signing need not be signed again.
+ */
+public final class ApkSignatureCheck {
+
+    static final int APK_SIGNATURE_SCHEME_V2_BLOCK_ID = 0x7109871a;
+    static final int APK_SIGNATURE_SCHEME_V3_BLOCK_ID = 0xf05368c0;
+
+    private static final byte[] APK_SIG_BLOCK_MAGIC = "APK Sig Block 42".getBytes(StandardCharsets.US_ASCII);
+    private static final int APK_SIG_BLOCK_FOOTER_SIZE = 24;
+    private static final long MAX_APK_SIG_BLOCK_SIZE = 16L * 1024 * 1024;
+    private static final long MAX_V1_SIGNATURE_BLOCK_SIZE = 1024L * 1024;
+    private static final int METHOD_DEFLATED = 8;
+
+    private ApkSignatureCheck() {
+    }
+
+    /**
+     * Return true if the given APK has a v1 and a v2 signature by exactly the given signers' certificates, and a v3
+     * signature by them if and only if {@code v3} is true.
+     */
+    public static boolean isSignedBy(File apk, List<SigningComponents> signers, boolean v3) throws IOException {
+        Set<String> expected = new HashSet<>();
+        for (SigningComponents signer : signers) {
+            expected.add(fingerprint(signer.certChain[0]));
+        }
+        if (expected.isEmpty() || expected.size() != signers.size()) {
+            return false;
+        }
+
+        try (RandomAccessFile zip = new RandomAccessFile(apk, "r")) {
+            List<ZipCentralDirectory.Entry> entries = ZipCentralDirectory.read(zip);
+            long centralDirOffset = ZipCentralDirectory.centralDirectoryOffset(zip);
+            if (entries == null || centralDirOffset < 0) {
+                return false;
+            }
+            Map<Integer, ByteBuffer> blocks = readSigningBlock(zip, centralDirOffset);
+            if (blocks == null) {
+                return false;
+            }
+            ByteBuffer v2Block = blocks.get(APK_SIGNATURE_SCHEME_V2_BLOCK_ID);
+            ByteBuffer v3Block = blocks.get(APK_SIGNATURE_SCHEME_V3_BLOCK_ID);
+            if (v2Block == null || !expected.equals(signerFingerprints(v2Block))) {
+                return false;
+            }
+            if (v3 != (v3Block != null) || v3 && !expected.equals(signerFingerprints(v3Block))) {
+                return false;
+            }
+            List<Set<String>> v1Signers = v1SignerFingerprints(zip, entries);
+            if (v1Signers == null || v1Signers.size() != expected.size()) {
+                return false;
+            }
+            // each v1 signature block holds the signer's whole certificate chain
+            for (String signer : expected) {
+                boolean found = false;
+                for (Set<String> chain : v1Signers) {
+                    found |= chain.contains(signer);
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            // a malformed signing block; the full signing pass replaces it
+            return false;
+        }
+    }
+
+    private static String fingerprint(Certificate cert) throws IOException {
+        try {
+            return fingerprint(cert.getEncoded());
+        }
+        catch (GeneralSecurityException e) {
+            throw new IOException("failed to encode signer certificate", e);
+        }
+    }
+
+    private static String fingerprint(byte[] encodedCert) throws IOException {
+        try {
+            return DigestingDataSink.toHexString(MessageDigest.getInstance("SHA-256").digest(encodedCert));
+        }
+        catch (GeneralSecurityException e) {
+            throw new IOException("failed to fingerprint signer certificate", e);
+        }
+    }
+
+    /**
+     * Return the ID-value pairs of the APK Signing Block that ends at the given central directory offset, or null
+     * if there is none.
+     */
+    private static Map<Integer, ByteBuffer> readSigningBlock(RandomAccessFile zip, long centralDirOffset) throws IOException {
+        if (centralDirOffset < APK_SIG_BLOCK_FOOTER_SIZE + 8) {
+            return null;
+        }
+        ByteBuffer footer = ByteBuffer.allocate(APK_SIG_BLOCK_FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        zip.seek(centralDirOffset - APK_SIG_BLOCK_FOOTER_SIZE);
+        zip.readFully(footer.array());
+        if (!Arrays.equals(Arrays.copyOfRange(footer.array(), 8, APK_SIG_BLOCK_FOOTER_SIZE), APK_SIG_BLOCK_MAGIC)) {
+            return null;
+        }
+        long blockSize = footer.getLong(0);
+        long totalSize = blockSize + 8;
+        if (blockSize < APK_SIG_BLOCK_FOOTER_SIZE || totalSize > centralDirOffset || totalSize > MAX_APK_SIG_BLOCK_SIZE) {
+            return null;
+        }
+
+        ByteBuffer block = ByteBuffer.allocate((int) totalSize).order(ByteOrder.LITTLE_ENDIAN);
+        zip.seek(centralDirOffset - totalSize);
+        zip.readFully(block.array());
+        if (block.getLong(0) != blockSize) {
+            return null;
+        }
+
+        Map<Integer, ByteBuffer> pairs = new HashMap<>();
+        block.position(8);
+        block.limit((int) totalSize - APK_SIG_BLOCK_FOOTER_SIZE);
+        while (block.hasRemaining()) {
+            long pairSize = block.getLong();
+            if (pairSize < 4 || pairSize > block.remaining()) {
+                return null;
+            }
+            int id = block.getInt();
+            pairs.put(id, slice(block, (int) pairSize - 4));
+        }
+        return pairs;
+    }
+
+    /**
+     * Return the fingerprints of the first certificate of each signer in a v2 or v3 signature scheme block.  Both
+     * schemes start each signer's signed data with the digests, followed by the certificates.
+     */
+    private static Set<String> signerFingerprints(ByteBuffer schemeBlock) throws IOException {
+        ByteBuffer signers = lengthPrefixed(schemeBlock.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        Set<String> fingerprints = new HashSet<>();
+        while (signers.hasRemaining()) {
+            ByteBuffer signer = lengthPrefixed(signers);
+            ByteBuffer signedData = lengthPrefixed(signer);
+            lengthPrefixed(signedData);
+            ByteBuffer certs = lengthPrefixed(signedData);
+            ByteBuffer cert = lengthPrefixed(certs);
+            byte[] encoded = new byte[cert.remaining()];
+            cert.get(encoded);
+            fingerprints.add(fingerprint(encoded));
+        }
+        return fingerprints;
+    }
+
+    private static ByteBuffer lengthPrefixed(ByteBuffer buf) {
+        int size = buf.getInt();
+        if (size < 0 || size > buf.remaining()) {
+            throw new IllegalArgumentException("length-prefixed field of " + size + " bytes overflows its " + buf.remaining() + "-byte container");
+        }
+        return slice(buf, size);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int size) {
+        ByteBuffer slice = buf.slice();
+        slice.limit(size);
+        slice.order(ByteOrder.LITTLE_ENDIAN);
+        buf.position(buf.position() + size);
+        return slice;
+    }
+
+    /**
+     * Return the fingerprints of the certificates in each v1 signature block, the PKCS #7 file next to each
+     * {@code META-INF/*.SF} signature file, or null if a signature file has no readable signature block.
+     */
+    private static List<Set<String>> v1SignerFingerprints(RandomAccessFile zip, List<ZipCentralDirectory.Entry> entries) throws IOException {
+        Map<String, ZipCentralDirectory.Entry> signatureBlocks = new HashMap<>();
+        Set<String> signatureFiles = new HashSet<>();
+        for (ZipCentralDirectory.Entry entry : entries) {
+            String name = entry.name.toUpperCase(Locale.ENGLISH);
+            if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0) {
+                continue;
+            }
+            int dot = name.lastIndexOf('.');
+            if (dot < 0) {
+                continue;
+            }
+            String baseName = name.substring(0, dot);
+            String extension = name.substring(dot + 1);
+            if (extension.equals("SF")) {
+                signatureFiles.add(baseName);
+            }
+            else if (extension.equals("RSA") || extension.equals("DSA") || extension.equals("EC")) {
+                signatureBlocks.put(baseName, entry);
+            }
+        }
+        if (signatureFiles.isEmpty()) {
+            return null;
+        }
+
+        List<Set<String>> signers = new ArrayList<>(signatureFiles.size());
+        for (String signatureFile : signatureFiles) {
+            ZipCentralDirectory.Entry block = signatureBlocks.get(signatureFile);
+            if (block == null) {
+                return null;
+            }
+            byte[] pkcs7 = readEntry(zip, block);
+            if (pkcs7 == null) {
+                return null;
+            }
+            Set<String> chain = new HashSet<>();
+            try {
+                for (Certificate cert : CertificateFactory.getInstance("X.509").generateCertificates(new ByteArrayInputStream(pkcs7))) {
+                    chain.add(fingerprint(cert));
+                }
+            }
+            catch (GeneralSecurityException e) {
+                return null;
+            }
+            signers.add(chain);
+        }
+        return signers;
+    }
+
+    private static byte[] readEntry(RandomAccessFile zip, ZipCentralDirectory.Entry entry) throws IOException {
+        if (entry.compressedSize > MAX_V1_SIGNATURE_BLOCK_SIZE) {
+            return null;
+        }
+        long offset = ZipCentralDirectory.dataOffset(zip, entry);
+        if (offset < 0 || offset + entry.compressedSize > zip.length()) {
+            return null;
+        }
+        byte[] data = new byte[(int) entry.compressedSize];
+        zip.seek(offset);
+        zip.readFully(data);
+        if (entry.method == ZipCentralDirectory.METHOD_STORED) {
+            return data;
+        }
+        if (entry.method != METHOD_DEFLATED) {
+            return null;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream(data.length * 2);
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                inflated.write(buf, 0, n);
+                if (inflated.size() > MAX_V1_SIGNATURE_BLOCK_SIZE) {
+                    return null;
+                }
+            }
+            return inflated.toByteArray();
+        }
+        catch (DataFormatException e) {
+            return null;
+        }
+        finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import com.android.apksig.ApkSigner;
+import com.android.apksig.SigningCertificateLineage;
+import com.android.apksig.util.DataSinks;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Signs APKs with apksig.  This is the part of the signing pipeline that runs on the node that holds the APK,
+ * without any Jenkins dependency, so the plugin's {@code SignApkCallable} and the command-line {@link Main}
+ * sign exactly the same way.
+ */
+public class ApkSigning {
+
+    /**
+     * A failure to sign an APK that is not an interruption, with a message fit for a build log.
+     */
+    public static class ApkSigningException extends IOException {
+        ApkSigningException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * What signing one APK reports back.
+     */
+    public static final class Result implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        /**
+         * The peak heap use of the whole JVM while signing the APK in low-memory mode, or 0 if not measured.
+         */
+        public final long peakHeap;
+
+        /**
+         * The hex SHA-256 digest of the signed APK.
+         */
+        public final String sha256;
+
+        /**
+         * The hex MD5 digest of the signed APK.
+         */
+        public final String md5;
+
+        Result(long peakHeap, String sha256, String md5) {
+            this.peakHeap = peakHeap;
+            this.sha256 = sha256;
+            this.md5 = md5;
+        }
+    }
+
+    /**
+     * The number of low-memory signings in progress in this JVM.  Only the first of overlapping signings resets the
+     * peak heap use, so none of them resets the peak another is measuring.
+     */
+    private static final AtomicInteger lowMemorySignings = new AtomicInteger();
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                heapPools.add(pool);
+            }
+        }
+        return heapPools;
+    }
+
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KiB", bytes / 1024.0);
+        }
+        if (bytes < 1024L * 1024 * 1024) {
+            return String.format("%.1f MiB", bytes / (1024.0 * 1024));
+        }
+        return String.format("%.2f GiB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    private final List<SigningComponents> signers;
+    private final File lineageFile;
+    private final long lowMemoryBudget;
+    private final boolean forceFile;
+    private final boolean forceDirectory;
+    private final PrintStream logger;
+    private final String logPrefix;
+
+    /**
+     * @param lineageFile the v3 signing certificate lineage, or null
+     * @param lowMemoryBudget the heap budget of {@link LowMemoryDataSource low-memory signing} in bytes, or 0 to sign the usual way
+     * @param forceFile force each signed APK's contents to disk before renaming it to its final name
+     * @param forceDirectory also force the directory entry of the rename to disk
+     * @param logPrefix the prefix of each line this logs
+     */
+    public ApkSigning(List<SigningComponents> signers, File lineageFile, long lowMemoryBudget, boolean forceFile, boolean forceDirectory,
+        PrintStream logger, String logPrefix) {
+        this.signers = new ArrayList<>(signers);
+        this.lineageFile = lineageFile;
+        this.lowMemoryBudget = Math.max(0, lowMemoryBudget);
+        this.forceFile = forceFile || forceDirectory;
+        this.forceDirectory = forceDirectory;
+        this.logger = logger;
+        this.logPrefix = logPrefix;
+    }
+
+    /**
+     * Sign the given APK to a temp file next to the output APK, and rename it over the output APK, if any, only
+     * once it is complete, so concurrent readers never see a partial signed APK and a failure leaves the
+     * previous one.
+     * <p>
+     * In low-memory mode, this also measures the peak heap use of the whole JVM while signing, which is all the
+     * JVM's memory pools can report.  Other work in the JVM, including other signings that overlap this one, counts
+     * towards it.
+     */
+    public Result sign(File inputApkFile, File outputApkFile) throws IOException, InterruptedException {
+        if (lowMemoryBudget == 0) {
+            return signApk(inputApkFile, outputApkFile);
+        }
+        List<MemoryPoolMXBean> heapPools = heapPools();
+        if (lowMemorySignings.getAndIncrement() == 0) {
+            for (MemoryPoolMXBean pool : heapPools) {
+                pool.resetPeakUsage();
+            }
+        }
+        Result result;
+        try {
+            result = signApk(inputApkFile, outputApkFile);
+        }
+        finally {
+            lowMemorySignings.decrementAndGet();
+        }
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            MemoryUsage peak = pool.getPeakUsage();
+            if (peak != null) {
+                peakHeap += peak.getUsed();
+            }
+        }
+        if (peakHeap > 0) {
+            logger.printf("%speak JVM heap while signing %s: %s, low-memory budget %s%n",
+                logPrefix, inputApkFile.getName(), formatBytes(peakHeap), formatBytes(lowMemoryBudget));
+        }
+        return new Result(peakHeap, result.sha256, result.md5);
+    }
+
+    private Result signApk(File inputApkFile, File outputApkFile) throws IOException, InterruptedException {
+
+        List<ApkSigner.SignerConfig> signerConfigs = new ArrayList<>(signers.size());
+        for (SigningComponents signer : signers) {
+            List<X509Certificate> certs = new ArrayList<>(signer.certChain.length);
+            for (Certificate cert : signer.certChain) {
+                certs.add((X509Certificate) cert);
+            }
+            signerConfigs.add(new ApkSigner.SignerConfig.Builder(signer.v1SigName, signer.key, certs).build());
+        }
+
+        SigningCertificateLineage lineage = null;
+        if (lineageFile != null) {
+            try {
+                lineage = SigningCertificateLineage.readFromFile(lineageFile);
+            }
+            catch (Exception e) {
+                throw new ApkSigningException("failed to read signing certificate lineage " + lineageFile + ": " + e.getLocalizedMessage(), e);
+            }
+        }
+
+        // apksig only supports multiple v3 signers when they are related by a lineage
+        boolean v3SigningEnabled = signerConfigs.size() == 1 || lineage != null;
+        if (!v3SigningEnabled) {
+            logger.printf("%sdisabling v3 signature scheme for %d signers without a signing certificate lineage%n", logPrefix, signerConfigs.size());
+        }
+
+        File tempApkFile = File.createTempFile("." + outputApkFile.getName() + "-", ".tmp", outputApkFile.getAbsoluteFile().getParentFile());
+        boolean published = false;
+        DigestingDataSink signedApkOut;
+        try {
+            try (RandomAccessFile inputApkIn = new RandomAccessFile(inputApkFile, "r");
+                RandomAccessFile tempApk = new RandomAccessFile(tempApkFile, "rw")) {
+                DataSource inputApk = lowMemoryBudget > 0 ?
+                    new LowMemoryDataSource(inputApkIn.getChannel(), lowMemoryBudget) : DataSources.asDataSource(inputApkIn);
+                // digest the signed APK as apksig writes it instead of reading it back afterward
+                signedApkOut = new DigestingDataSink(DataSinks.asDataSink(tempApk));
+                ApkSigner.Builder signerBuilder = new ApkSigner.Builder(signerConfigs)
+                    .setInputApk(new InterruptibleDataSource(inputApk))
+                    .setOutputApk(signedApkOut, DataSources.asDataSource(tempApk))
+                    .setOtherSignersSignaturesPreserved(false)
+                    // TODO: add to jenkins descriptor
+                    .setV1SigningEnabled(true)
+                    .setV2SigningEnabled(true)
+                    .setV3SigningEnabled(v3SigningEnabled);
+                if (lineage != null) {
+                    signerBuilder.setSigningCertificateLineage(lineage);
+                }
+
+                ApkSigner signer = signerBuilder.build();
+                try {
+                    signer.sign();
+                }
+                catch (Exception e) {
+                    // apksig may wrap the interruption when it digests on multiple threads
+                    if (e instanceof InterruptedIOException || Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException("signing APK " + inputApkFile.getAbsolutePath() + " was interrupted");
+                    }
+                    throw new ApkSigningException("failed to sign APK " + inputApkFile.getAbsolutePath() + ": " + e.getLocalizedMessage(), e);
+                }
+            }
+
+            publish(tempApkFile, outputApkFile);
+            published = true;
+        }
+        finally {
+            if (!published && tempApkFile.isFile() && !tempApkFile.delete()) {
+                logger.printf("%sfailed to delete partial signed APK %s%n", logPrefix, tempApkFile);
+            }
+        }
+
+        return new Result(0, signedApkOut.sha256(), signedApkOut.md5());
+    }
+
+    /**
+     * If the given APK is already signed by exactly this signing's signers with the schemes {@link #sign} would use,
+     * copy it to the output APK the same way {@link #sign} publishes a signed APK and return its digests;
+     * otherwise return null without writing anything.  See {@link ApkSignatureCheck}.  An APK to sign with a
+     * signing certificate lineage is always signed again.
+     */
+    public Result copyIfAlreadySigned(File inputApkFile, File outputApkFile) throws IOException, InterruptedException {
+        if (lineageFile != null || !ApkSignatureCheck.isSignedBy(inputApkFile, signers, signers.size() == 1)) {
+            return null;
+        }
+
+        MessageDigest md5;
+        MessageDigest sha256;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+            sha256 = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        // digest the APK as it is copied instead of reading it back afterward
+        boolean sameFile = inputApkFile.getCanonicalFile().equals(outputApkFile.getCanonicalFile());
+        File tempApkFile = sameFile ? null : File.createTempFile("." + outputApkFile.getName() + "-", ".tmp", outputApkFile.getAbsoluteFile().getParentFile());
+        boolean published = false;
+        try {
+            try (InputStream in = new FileInputStream(inputApkFile); OutputStream out = sameFile ? null : new FileOutputStream(tempApkFile)) {
+                byte[] buf = new byte[64 * 1024];
+                for (int n = in.read(buf); n > 0; n = in.read(buf)) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException("copying already signed APK " + inputApkFile.getAbsolutePath() + " was interrupted");
+                    }
+                    md5.update(buf, 0, n);
+                    sha256.update(buf, 0, n);
+                    if (out != null) {
+                        out.write(buf, 0, n);
+                    }
+                }
+            }
+            if (!sameFile) {
+                publish(tempApkFile, outputApkFile);
+            }
+            published = true;
+        }
+        finally {
+            if (!published && tempApkFile != null && tempApkFile.isFile() && !tempApkFile.delete()) {
+                logger.printf("%sfailed to delete partial copy of signed APK %s%n", logPrefix, tempApkFile);
+            }
+        }
+        logger.printf("%sAPK %s is already signed by the same certificates; skipping signing%n", logPrefix, inputApkFile.getName());
+        return new Result(0, DigestingDataSink.toHexString(sha256.digest()), DigestingDataSink.toHexString(md5.digest()));
+    }
+
+    /**
+     * Atomically replace the given signed APK with the complete temp file next to it.
+     */
+    public void publish(File tempApkFile, File outputApkFile) throws IOException {
+        Path tempApk = tempApkFile.toPath();
+        Path outputApk = outputApkFile.toPath();
+        if (forceFile) {
+            try (FileChannel signed = FileChannel.open(tempApk, StandardOpenOption.WRITE)) {
+                signed.force(true);
+            }
+        }
+        try {
+            Files.move(tempApk, outputApk, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            logger.printf("%sfile system does not support atomic rename; replacing signed APK %s in place%n", logPrefix, outputApkFile);
+            Files.move(tempApk, outputApk, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (forceDirectory) {
+            try (FileChannel dir = FileChannel.open(outputApk.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+                dir.force(true);
+            }
+            catch (IOException e) {
+                // some platforms, e.g., Windows, cannot open a directory to force it
+                logger.printf("%sunable to force directory of signed APK %s to disk: %s%n", logPrefix, outputApkFile, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import com.android.apksig.ApkVerifier;
+
+import java.io.File;
+import java.io.Serializable;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+
+/**
+ * Verifies signed APKs with apksig and checks them against {@link Expectations} of who signed them and how.
+ * Like {@link ApkSigning}, this has no Jenkins dependency.
+ */
+public final class ApkVerification {
+
+    /**
+     * What a verified APK must satisfy besides a valid signature.
+     */
+    public static final class Expectations implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        final Set<String> certificateSha256;
+        final boolean requireV1;
+        final boolean requireV2;
+        final boolean requireV3;
+
+        /**
+         * @param certificateSha256 the SHA-256 fingerprints of the certificates allowed to sign the APKs, in hex with
+         *                          or without colons; every signer must be one of them, or empty to allow any signer
+         */
+        public Expectations(Collection<String> certificateSha256, boolean requireV1, boolean requireV2, boolean requireV3) {
+            Set<String> normalized = new LinkedHashSet<>();
+            for (String fingerprint : certificateSha256) {
+                String hex = normalizeFingerprint(fingerprint);
+                if (!hex.isEmpty()) {
+                    normalized.add(hex);
+                }
+            }
+            this.certificateSha256 = Collections.unmodifiableSet(normalized);
+            this.requireV1 = requireV1;
+            this.requireV2 = requireV2;
+            this.requireV3 = requireV3;
+        }
+    }
+
+    /**
+     * The verification of one APK.
+     */
+    public static final class Result implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        public final String path;
+        public final boolean verified;
+        public final boolean v1Scheme;
+        public final boolean v2Scheme;
+        public final boolean v3Scheme;
+        public final List<String> certificateSha256;
+        public final List<String> warnings;
+
+        /**
+         * Why the APK failed verification, if it did: signature errors and unmet expectations.
+         */
+        public final List<String> problems;
+
+        Result(String path, boolean verified, boolean v1Scheme, boolean v2Scheme, boolean v3Scheme, List<String> certificateSha256,
+            List<String> warnings, List<String> problems) {
+            this.path = path;
+            this.verified = verified;
+            this.v1Scheme = v1Scheme;
+            this.v2Scheme = v2Scheme;
+            this.v3Scheme = v3Scheme;
+            this.certificateSha256 = Collections.unmodifiableList(new ArrayList<>(certificateSha256));
+            this.warnings = Collections.unmodifiableList(new ArrayList<>(warnings));
+            this.problems = Collections.unmodifiableList(new ArrayList<>(problems));
+        }
+
+        public boolean passed() {
+            return problems.isEmpty();
+        }
+
+        /**
+         * The verified signature schemes, e.g., {@code v1+v2}.
+         */
+        public String schemes() {
+            List<String> schemes = new ArrayList<>(3);
+            if (v1Scheme) {
+                schemes.add("v1");
+            }
+            if (v2Scheme) {
+                schemes.add("v2");
+            }
+            if (v3Scheme) {
+                schemes.add("v3");
+            }
+            return schemes.isEmpty() ? "none" : String.join("+", schemes);
+        }
+    }
+
+    static String normalizeFingerprint(String fingerprint) {
+        return fingerprint.replace(":", "").trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private ApkVerification() {
+    }
+
+    /**
+     * Verify the given APK.  A broken or unreadable APK is a failed result rather than an exception, so one bad
+     * APK does not stop the verification of the others.
+     *
+     * @param path the path of the APK to report
+     */
+    public static Result verify(File apk, String path, Expectations expectations) throws InterruptedException {
+        ApkVerifier.Result verification;
+        try {
+            verification = new ApkVerifier.Builder(apk).build().verify();
+        }
+        catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("verifying APK " + path + " was interrupted");
+            }
+            return new Result(path, false, false, false, false, Collections.<String>emptyList(), Collections.<String>emptyList(),
+                Collections.singletonList("failed to read APK: " + e.getLocalizedMessage()));
+        }
+
+        List<String> fingerprints = new ArrayList<>();
+        List<String> problems = new ArrayList<>();
+        for (X509Certificate cert : verification.getSignerCertificates()) {
+            try {
+                fingerprints.add(DigestingDataSink.toHexString(MessageDigest.getInstance("SHA-256").digest(cert.getEncoded())));
+            }
+            catch (GeneralSecurityException e) {
+                problems.add("failed to fingerprint signer certificate " + cert.getSubjectX500Principal() + ": " + e.getLocalizedMessage());
+            }
+        }
+        List<String> warnings = new ArrayList<>();
+        for (ApkVerifier.IssueWithParams warning : verification.getWarnings()) {
+            warnings.add(warning.toString());
+        }
+
+        if (!verification.isVerified()) {
+            problems.add("signature does not verify");
+        }
+        for (ApkVerifier.IssueWithParams error : verification.getErrors()) {
+            problems.add(error.toString());
+        }
+        if (expectations.requireV1 && !verification.isVerifiedUsingV1Scheme()) {
+            problems.add("not signed with the v1 (JAR) signature scheme");
+        }
+        if (expectations.requireV2 && !verification.isVerifiedUsingV2Scheme()) {
+            problems.add("not signed with the v2 signature scheme");
+        }
+        if (expectations.requireV3 && !verification.isVerifiedUsingV3Scheme()) {
+            problems.add("not signed with the v3 signature scheme");
+        }
+        if (!expectations.certificateSha256.isEmpty()) {
+            for (String fingerprint : fingerprints) {
+                if (!expectations.certificateSha256.contains(fingerprint)) {
+                    problems.add("signed with unexpected certificate " + fingerprint);
+                }
+            }
+            if (verification.isVerified() && fingerprints.isEmpty()) {
+                problems.add("no signer certificates");
+            }
+        }
+
+        return new Result(path, verification.isVerified(), verification.isVerifiedUsingV1Scheme(), verification.isVerifiedUsingV2Scheme(),
+            verification.isVerifiedUsingV3Scheme(), fingerprints, warnings, problems);
+    }
+
+    /**
+     * The one-line summary of the given result for a log.
+     */
+    public static String describe(Result result) {
+        StringBuilder line = new StringBuilder();
+        line.append(result.passed() ? "verified " : "FAILED ").append(result.path)
+            .append(" (").append(result.schemes()).append(")");
+        if (!result.certificateSha256.isEmpty()) {
+            line.append(" signer ").append(String.join(", ", result.certificateSha256));
+        }
+        if (!result.passed()) {
+            line.append(": ").append(String.join("; ", result.problems));
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import com.android.apksig.util.DataSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * A {@link DataSink} that computes the MD5 and SHA-256 digests of everything it passes to another sink.
+ * apksig only ever appends to its output sink, so wrapping the signed APK's sink digests the signed APK as
+ * it is written, without reading it back.  MD5 is what Jenkins uses to identify a
+ * {@code hudson.model.Fingerprint}.
+ */
+public class DigestingDataSink implements DataSink {
+
+    private static MessageDigest digest(String algorithm) throws IOException {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Format the given digest the way Jenkins does, in lower-case hex.
+     */
+    public static String toHexString(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private final DataSink delegate;
+    private final MessageDigest md5;
+    private final MessageDigest sha256;
+
+    public DigestingDataSink(DataSink delegate) throws IOException {
+        this.delegate = delegate;
+        md5 = digest("MD5");
+        sha256 = digest("SHA-256");
+    }
+
+    @Override
+    public void consume(byte[] buf, int offset, int length) throws IOException {
+        md5.update(buf, offset, length);
+        sha256.update(buf, offset, length);
+        delegate.consume(buf, offset, length);
+    }
+
+    @Override
+    public void consume(ByteBuffer buf) throws IOException {
+        md5.update(buf.duplicate());
+        sha256.update(buf.duplicate());
+        delegate.consume(buf);
+    }
+
+    /**
+     * The hex MD5 digest of the data consumed so far.  Only call this once, after the last data.
+     */
+    public String md5() {
+        return toHexString(md5.digest());
+    }
+
+    /**
+     * The hex SHA-256 digest of the data consumed so far.  Only call this once, after the last data.
+     */
+    public String sha256() {
+        return toHexString(sha256.digest());
+    }
+}
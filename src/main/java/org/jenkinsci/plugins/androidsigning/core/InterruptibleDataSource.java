@@ -0,0 +1,106 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * A {@link DataSource} that fails with an {@link InterruptedIOException} as soon as the signing is
+ * interrupted.  apksig does not check for interruption itself, so without this, cancelling a remote
+ * {@link ApkSigning} would still read and digest the entire APK before returning.
+ * <p>
+ * apksig digests on {@link java.util.concurrent.ForkJoinPool} threads that never see the interruption of
+ * the signing thread, so the source remembers the thread that created it, and every read, from any thread,
+ * checks that thread as well as its own.  Once one read sees the interruption, the source and all its slices
+ * stay cancelled, even if something later clears the interrupted status.
+ */
+public class InterruptibleDataSource implements DataSource {
+
+    private static class Cancellation {
+
+        private final Thread owner;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        private Cancellation(Thread owner) {
+            this.owner = owner;
+        }
+
+        private void check() throws InterruptedIOException {
+            if (cancelled.get() || owner.isInterrupted() || Thread.currentThread().isInterrupted()) {
+                cancelled.set(true);
+                throw new InterruptedIOException("APK data source interrupted");
+            }
+        }
+    }
+
+    private final DataSource delegate;
+    private final Cancellation cancellation;
+
+    /**
+     * Wrap the given data source, cancelling it when the calling thread is interrupted.
+     */
+    public InterruptibleDataSource(DataSource delegate) {
+        this(delegate, new Cancellation(Thread.currentThread()));
+    }
+
+    private InterruptibleDataSource(DataSource delegate, Cancellation cancellation) {
+        this.delegate = delegate;
+        this.cancellation = cancellation;
+    }
+
+    @Override
+    public long size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void feed(long offset, long size, DataSink sink) throws IOException {
+        cancellation.check();
+        delegate.feed(offset, size, new InterruptibleDataSink(sink, cancellation));
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(long offset, int size) throws IOException {
+        cancellation.check();
+        return delegate.getByteBuffer(offset, size);
+    }
+
+    @Override
+    public void copyTo(long offset, int size, ByteBuffer dest) throws IOException {
+        cancellation.check();
+        delegate.copyTo(offset, size, dest);
+    }
+
+    @Override
+    public DataSource slice(long offset, long size) {
+        return new InterruptibleDataSource(delegate.slice(offset, size), cancellation);
+    }
+
+    private static class InterruptibleDataSink implements DataSink {
+
+        private final DataSink delegate;
+        private final Cancellation cancellation;
+
+        private InterruptibleDataSink(DataSink delegate, Cancellation cancellation) {
+            this.delegate = delegate;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public void consume(byte[] buf, int offset, int length) throws IOException {
+            cancellation.check();
+            delegate.consume(buf, offset, length);
+        }
+
+        @Override
+        public void consume(ByteBuffer buf) throws IOException {
+            cancellation.check();
+            delegate.consume(buf);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * A {@link DataSource} over a file that keeps its own heap use within a budget.  Feeding data to a sink goes
+ * through fixed-size buffers that the source and its slices reuse for every chunk, one for each thread feeding
+ * at the same time, instead of a new buffer per call, and requests for a region larger than a fraction of the
+ * budget, such as the central directory of an APK with a huge number of entries, get a read-only mapping of the
+ * file instead of a heap copy.  This bounds only what reading the APK allocates; apksig's own structures for the
+ * signing, e.g., the v1 signature's manifest, still take as much heap as the APK's entries need.
+ */
+class LowMemoryDataSource implements DataSource {
+
+    static final int MIN_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    static int bufferSizeFor(long memoryBudget) {
+        return (int) Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, memoryBudget / 64));
+    }
+
+    static long mappingThresholdFor(long memoryBudget) {
+        return Math.max(MAX_BUFFER_SIZE, memoryBudget / 8);
+    }
+
+    private final FileChannel file;
+    private final long start;
+    private final long size;
+    private final long mappingThreshold;
+    private final int feedBufferSize;
+    /**
+     * The feed buffers not in use, shared by the source and its slices.  A buffer goes back here after each feed,
+     * rather than staying with the thread that used it, so apksig's long-lived pool threads do not keep it once
+     * the signing is done.
+     */
+    private final Queue<ByteBuffer> feedBuffers;
+
+    LowMemoryDataSource(FileChannel file, long memoryBudget) throws IOException {
+        this(file, 0, file.size(), mappingThresholdFor(memoryBudget), bufferSizeFor(memoryBudget), new ConcurrentLinkedQueue<>());
+    }
+
+    private LowMemoryDataSource(FileChannel file, long start, long size, long mappingThreshold, int feedBufferSize, Queue<ByteBuffer> feedBuffers) {
+        this.file = file;
+        this.start = start;
+        this.size = size;
+        this.mappingThreshold = mappingThreshold;
+        this.feedBufferSize = feedBufferSize;
+        this.feedBuffers = feedBuffers;
+    }
+
+    int getFeedBufferSize() {
+        return feedBufferSize;
+    }
+
+    /**
+     * The number of feed buffers the source and its slices have allocated and are not using.
+     */
+    int getIdleFeedBuffers() {
+        return feedBuffers.size();
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void feed(long offset, long size, DataSink sink) throws IOException {
+        checkRange(offset, size);
+        ByteBuffer buf = feedBuffers.poll();
+        if (buf == null) {
+            buf = ByteBuffer.allocate(feedBufferSize);
+        }
+        try {
+            long position = start + offset;
+            long remaining = size;
+            while (remaining > 0) {
+                buf.clear();
+                buf.limit((int) Math.min(remaining, buf.capacity()));
+                readFully(position, buf);
+                buf.flip();
+                int chunkSize = buf.remaining();
+                sink.consume(buf);
+                position += chunkSize;
+                remaining -= chunkSize;
+            }
+        }
+        finally {
+            feedBuffers.offer(buf);
+        }
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(long offset, int size) throws IOException {
+        checkRange(offset, size);
+        if (size > mappingThreshold) {
+            return file.map(FileChannel.MapMode.READ_ONLY, start + offset, size);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        readFully(start + offset, buf);
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public void copyTo(long offset, int size, ByteBuffer dest) throws IOException {
+        checkRange(offset, size);
+        if (size > dest.remaining()) {
+            throw new BufferOverflowException();
+        }
+        ByteBuffer region = dest.slice();
+        region.limit(size);
+        readFully(start + offset, region);
+        dest.position(dest.position() + size);
+    }
+
+    @Override
+    public DataSource slice(long offset, long size) {
+        checkRange(offset, size);
+        return new LowMemoryDataSource(file, start + offset, size, mappingThreshold, feedBufferSize, feedBuffers);
+    }
+
+    private void readFully(long position, ByteBuffer dest) throws IOException {
+        // positional reads leave the channel's own position alone, so concurrent digest threads can share it
+        while (dest.hasRemaining()) {
+            int read = file.read(dest, position);
+            if (read < 0) {
+                throw new EOFException("unexpected end of file at offset " + position);
+            }
+            position += read;
+        }
+    }
+
+    private void checkRange(long offset, long size) {
+        if (offset < 0 || size < 0 || offset > this.size || size > this.size - offset) {
+            throw new IndexOutOfBoundsException(String.format("offset %d and size %d out of bounds of data source size %d", offset, size, this.size));
+        }
+    }
+}
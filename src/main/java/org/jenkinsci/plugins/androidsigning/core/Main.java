@@ -0,0 +1,293 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Signs APKs outside Jenkins with the same pipeline as the Sign Android APKs build step: glob scanning, alignment,
+ * and signing with apksig, followed by a timing report.  Run it from the plugin's {@code cli} jar:
+ * <pre>
+ * java -jar android-signing-cli.jar --keystore release.p12 --alias release --password-env KEY_STORE_PASSWORD '**&#47;*-unsigned.apk'
+ * </pre>
+ */
+public final class Main {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+
+    static final String USAGE = String.join(System.lineSeparator(),
+        "usage: java -jar android-signing-cli.jar [options] <glob>...",
+        "  --keystore <file>         PKCS#12 key store with the signing key (required)",
+        "  --alias <alias>           key entry to sign with; optional if the key store has only one",
+        "  --password <password>     password of the key store and key",
+        "  --password-env <var>      read the password from the given environment variable instead",
+        "  --lineage <file>          v3 signing certificate lineage",
+        "  --workspace <dir>         directory the globs are relative to (default: current directory)",
+        "  --zipalign <file>         zipalign executable for APKs that are not already aligned",
+        "  --skip-zipalign           sign the APKs as they are",
+        "  --low-memory <MiB>        sign in low-memory mode, reading the APK within the given heap budget",
+        "  --fsync none|file|directory   how much of each signed APK to force to disk (default: none)",
+        "  --output sibling|dir      put each signed APK next to the unsigned APK (default) or under " + SignedApkNames.BUILDER_DIR);
+
+    /**
+     * Thrown for command-line arguments that do not make sense.
+     */
+    static final class UsageException extends Exception {
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The parsed command line.
+     */
+    static final class Options {
+        File keyStore;
+        String alias;
+        String password;
+        File lineage;
+        File workspace = new File(".");
+        File zipalign;
+        boolean skipZipalign;
+        long lowMemoryBudget;
+        boolean forceFile;
+        boolean forceDirectory;
+        boolean builderDirOutput;
+        final List<String> globs = new ArrayList<>();
+
+        static Options parse(String[] args) throws UsageException {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    options.globs.add(arg);
+                    continue;
+                }
+                switch (arg) {
+                    case "--keystore":
+                        options.keyStore = new File(value(args, ++i, arg));
+                        break;
+                    case "--alias":
+                        options.alias = value(args, ++i, arg);
+                        break;
+                    case "--password":
+                        options.password = value(args, ++i, arg);
+                        break;
+                    case "--password-env":
+                        String variable = value(args, ++i, arg);
+                        options.password = System.getenv(variable);
+                        if (options.password == null) {
+                            throw new UsageException("environment variable " + variable + " is not set");
+                        }
+                        break;
+                    case "--lineage":
+                        options.lineage = new File(value(args, ++i, arg));
+                        break;
+                    case "--workspace":
+                        options.workspace = new File(value(args, ++i, arg));
+                        break;
+                    case "--zipalign":
+                        options.zipalign = new File(value(args, ++i, arg));
+                        break;
+                    case "--skip-zipalign":
+                        options.skipZipalign = true;
+                        break;
+                    case "--low-memory":
+                        String budget = value(args, ++i, arg);
+                        try {
+                            options.lowMemoryBudget = Long.parseLong(budget) * 1024 * 1024;
+                        }
+                        catch (NumberFormatException e) {
+                            throw new UsageException("--low-memory takes a number of MiB, not " + budget);
+                        }
+                        break;
+                    case "--fsync":
+                        String fsync = value(args, ++i, arg).toLowerCase(Locale.ENGLISH);
+                        options.forceFile = !"none".equals(fsync);
+                        options.forceDirectory = "directory".equals(fsync);
+                        if (!options.forceDirectory && options.forceFile && !"file".equals(fsync)) {
+                            throw new UsageException("--fsync takes none, file, or directory, not " + fsync);
+                        }
+                        break;
+                    case "--output":
+                        String output = value(args, ++i, arg);
+                        if (!"sibling".equals(output) && !"dir".equals(output)) {
+                            throw new UsageException("--output takes sibling or dir, not " + output);
+                        }
+                        options.builderDirOutput = "dir".equals(output);
+                        break;
+                    default:
+                        throw new UsageException("unknown option " + arg);
+                }
+            }
+            if (options.keyStore == null) {
+                throw new UsageException("--keystore is required");
+            }
+            if (options.globs.isEmpty()) {
+                throw new UsageException("no APK globs given");
+            }
+            return options;
+        }
+
+        private static String value(String[] args, int i, String option) throws UsageException {
+            if (i >= args.length) {
+                throw new UsageException(option + " requires a value");
+            }
+            return args[i];
+        }
+    }
+
+    /**
+     * The timings of one signed APK.
+     */
+    private static final class Timing {
+        final String path;
+        final long alignNanos;
+        final long signNanos;
+        final long size;
+        final String sha256;
+
+        Timing(String path, long alignNanos, long signNanos, long size, String sha256) {
+            this.path = path;
+            this.alignNanos = alignNanos;
+            this.signNanos = signNanos;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+    }
+
+    private Main() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        }
+        catch (UsageException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        try {
+            sign(options, out);
+            return EXIT_OK;
+        }
+        catch (IOException | GeneralSecurityException e) {
+            err.println("failed: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+        catch (InterruptedException e) {
+            err.println("interrupted");
+            Thread.currentThread().interrupt();
+            return EXIT_FAILED;
+        }
+    }
+
+    static List<SigningComponents> readSigner(Options options) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(options.keyStore)) {
+            keyStore.load(in, options.password == null ? null : options.password.toCharArray());
+        }
+        return Collections.singletonList(SigningComponents.fromKeyStore(keyStore, options.alias, options.password, "key store " + options.keyStore));
+    }
+
+    private static void sign(Options options, PrintStream out) throws IOException, InterruptedException, GeneralSecurityException {
+        long start = System.nanoTime();
+        List<SigningComponents> signers = readSigner(options);
+
+        long scanStart = System.nanoTime();
+        ApkGlobs.Matches matches = ApkGlobs.match(options.workspace, Collections.singletonList(options.globs), SignedApkNames.BUILDER_DIR + "/**");
+        long scanNanos = System.nanoTime() - scanStart;
+        if (!matches.unmatchedGlobs.isEmpty()) {
+            throw new IOException("no APKs in " + options.workspace + " matching " + matches.unmatchedGlobs.get(0));
+        }
+
+        File zipalignDir = new File(options.workspace, SignedApkNames.BUILDER_DIR + File.separator + "zipalign");
+        Zipalign zipalign = options.zipalign == null ? null : new Zipalign(options.zipalign, out);
+        ApkSigning signing = new ApkSigning(signers, options.lineage, options.lowMemoryBudget, options.forceFile, options.forceDirectory, out, "");
+
+        List<Timing> timings = new ArrayList<>();
+        for (String path : matches.pathsByGroup.get(0)) {
+            File unsignedApk = new File(options.workspace, path);
+            String signedPath = options.builderDirOutput ? SignedApkNames.builderDirPath(unsignedApk.getName()) :
+                parentPath(path) + SignedApkNames.siblingName(unsignedApk.getName());
+            File signedApk = new File(options.workspace, signedPath);
+
+            long alignStart = System.nanoTime();
+            File alignedApk = unsignedApk;
+            boolean tempAlignedApk = false;
+            if (!options.skipZipalign && !ZipAlignment.isAligned(unsignedApk, ZipAlignment.DEFAULT_ALIGNMENT, true)) {
+                if (zipalign == null) {
+                    throw new IOException("APK " + path + " is not aligned: give --zipalign or --skip-zipalign");
+                }
+                if (!zipalignDir.isDirectory() && !zipalignDir.mkdirs()) {
+                    throw new IOException("failed to create " + zipalignDir);
+                }
+                alignedApk = File.createTempFile("aligned-" + SignedApkNames.baseName(unsignedApk.getName()) + "-", ".apk", zipalignDir);
+                tempAlignedApk = true;
+                zipalign.align(unsignedApk, alignedApk);
+            }
+            long alignNanos = System.nanoTime() - alignStart;
+
+            File signedParent = signedApk.getAbsoluteFile().getParentFile();
+            if (!signedParent.isDirectory() && !signedParent.mkdirs()) {
+                throw new IOException("failed to create " + signedParent);
+            }
+            long signStart = System.nanoTime();
+            ApkSigning.Result result;
+            try {
+                result = signing.sign(alignedApk, signedApk);
+            }
+            finally {
+                if (tempAlignedApk && !alignedApk.delete()) {
+                    out.println("failed to delete aligned APK " + alignedApk);
+                }
+            }
+            long signNanos = System.nanoTime() - signStart;
+            out.printf("signed %s -> %s%n", path, signedPath);
+            timings.add(new Timing(signedPath, alignNanos, signNanos, signedApk.length(), result.sha256));
+        }
+
+        report(timings, scanNanos, System.nanoTime() - start, out);
+    }
+
+    private static String parentPath(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash < 0 ? "" : path.substring(0, slash + 1);
+    }
+
+    private static void report(List<Timing> timings, long scanNanos, long totalNanos, PrintStream out) {
+        long alignNanos = 0;
+        long signNanos = 0;
+        long bytes = 0;
+        out.println();
+        out.printf("%10s %10s %12s  %-64s  %s%n", "align ms", "sign ms", "size", "SHA-256", "signed APK");
+        for (Timing timing : timings) {
+            out.printf("%10d %10d %12s  %-64s  %s%n", timing.alignNanos / 1000000, timing.signNanos / 1000000,
+                ApkSigning.formatBytes(timing.size), timing.sha256, timing.path);
+            alignNanos += timing.alignNanos;
+            signNanos += timing.signNanos;
+            bytes += timing.size;
+        }
+        double seconds = totalNanos / 1e9;
+        out.printf("%nsigned %d APKs (%s) in %.2f s: scan %d ms, align %d ms, sign %d ms, %.1f MiB/s%n",
+            timings.size(), ApkSigning.formatBytes(bytes), seconds, scanNanos / 1000000, alignNanos / 1000000, signNanos / 1000000,
+            seconds > 0 ? bytes / (1024.0 * 1024) / seconds : 0.0);
+    }
+}
@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Where a signed APK goes relative to the unsigned APK it came from.  These are the rules of the plugin's
+ * {@code SignedApkMappingStrategy} implementations, as plain path names.
+ */
+public final class SignedApkNames {
+
+    /**
+     * The workspace directory under which the signing step puts its own output.
+     */
+    public static final String BUILDER_DIR = "SignApksBuilder-out";
+
+    private static final Pattern STRIP_UNSIGNED = Pattern.compile("(-?unsigned)?$", Pattern.CASE_INSENSITIVE);
+
+    private SignedApkNames() {
+    }
+
+    /**
+     * Return the given file name without its extension.
+     */
+    public static String baseName(String apkName) {
+        int dot = apkName.lastIndexOf('.');
+        return dot < 0 ? apkName : apkName.substring(0, dot);
+    }
+
+    /**
+     * Return the name of the given APK without the .apk extension and without any -unsigned suffix, if present.
+     * For example, {@code myApp-unsigned.apk} returns {@code myApp}, and {@code myApp-someFlavor.apk} returns
+     * {@code myApp-someFlavor}.
+     */
+    public static String unqualifiedName(String unsignedApkName) {
+        Matcher stripUnsigned = STRIP_UNSIGNED.matcher(baseName(unsignedApkName));
+        return stripUnsigned.replaceFirst("");
+    }
+
+    /**
+     * Return the name of the signed APK next to the given unsigned APK, e.g., {@code myApp.apk} for
+     * {@code myApp-unsigned.apk}, and {@code myApp-signed.apk} for {@code myApp.apk}.
+     */
+    public static String siblingName(String unsignedApkName) {
+        String strippedName = unqualifiedName(unsignedApkName);
+        if (!baseName(unsignedApkName).endsWith("-unsigned")) {
+            strippedName += "-signed";
+        }
+        return strippedName + ".apk";
+    }
+
+    /**
+     * Return the path, relative to the workspace and using forward slashes, of the signed APK of the given
+     * unsigned APK in the {@link #BUILDER_DIR}.
+     */
+    public static String builderDirPath(String unsignedApkName) {
+        return BUILDER_DIR + "/" + unsignedApkName + "/" + unqualifiedName(unsignedApkName) + "-signed.apk";
+    }
+}
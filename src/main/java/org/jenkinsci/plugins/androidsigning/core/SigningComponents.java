@@ -1,10 +1,6 @@
-package org.jenkinsci.plugins.androidsigning;
+package org.jenkinsci.plugins.androidsigning.core;
 
 
-import com.cloudbees.plugins.credentials.common.StandardCertificateCredentials;
-
-import org.apache.commons.lang.StringUtils;
-
 import java.io.Serializable;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
@@ -18,9 +14,12 @@ public class SigningComponents implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    public static SigningComponents fromCredentials(StandardCertificateCredentials creds, String keyAlias) throws GeneralSecurityException {
-        KeyStore keyStore = creds.getKeyStore();
-        if (StringUtils.isEmpty(keyAlias)) {
+    /**
+     * Return the signing components of the given key entry, or of the only key entry if the alias is empty.
+     * The key store name only appears in error messages.
+     */
+    public static SigningComponents fromKeyStore(KeyStore keyStore, String keyAlias, String password, String keyStoreName) throws GeneralSecurityException {
+        if (keyAlias == null || keyAlias.isEmpty()) {
             keyAlias = null;
             Enumeration<String> aliases = keyStore.aliases();
             if (aliases != null) {
@@ -39,7 +38,6 @@ public class SigningComponents implements Serializable {
             throw new UnrecoverableKeyException("no key alias was given and no key entries were found in key store");
         }
 
-        String password = creds.getPassword().getPlainText();
         char[] passwordChars = new char[0];
         if (password != null) {
             passwordChars = password.toCharArray();
@@ -53,14 +51,14 @@ public class SigningComponents implements Serializable {
             // empty passwords could be pessimistically handled, but this way if Credentials Plugin
             // changes to load key stores (CertificateCredentialsImpl) with empty password instead
             // of null, this should still work
-            if (StringUtils.isEmpty(password)) {
+            if (password == null || password.isEmpty()) {
                 throw new NullKeyStorePasswordException(
-                    "the password for key store credential " + creds.getId() + " is null - use the Credentials Plugin to configure a non-empty password", e);
+                    "the password for " + keyStoreName + " is null - configure a non-empty password", e);
             }
             throw e;
         }
         if (entry == null) {
-            throw new GeneralSecurityException("key store credential " + creds.getId() + " has no entry named " + keyAlias);
+            throw new GeneralSecurityException(keyStoreName + " has no entry named " + keyAlias);
         }
         PrivateKey key = entry.getPrivateKey();
         Certificate[] certChain = entry.getCertificateChain();
@@ -87,7 +85,7 @@ public class SigningComponents implements Serializable {
      * KeyStore.load() with a null password which results in a NullPointerException
      * when calling KeyStore.getEntry(alias).  See also ReadingKeyStoresTest.java.
      */
-    static class NullKeyStorePasswordException extends GeneralSecurityException {
+    public static class NullKeyStorePasswordException extends GeneralSecurityException {
         NullKeyStorePasswordException(String message, Throwable cause) {
             super(message, cause);
         }
@@ -0,0 +1,428 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A long-lived JVM that signs APKs with {@link ApkSigning} for the JVMs that start it, so the signing code stays
+ * loaded and compiled across builds, and its heap and GC are sized apart from the JVM that asks for the signing.
+ * The daemon reads serialized {@link Request}s from its standard input and writes a {@link Response} for each to
+ * its standard output, signing several APKs at once.  It exits when its standard input closes, e.g., because the
+ * JVM that started it exited, once it has answered the requests it read.  When it has been idle for
+ * {@link #IDLE_TIMEOUT_PROPERTY} minutes, it asks the client to close its input with a {@link Response#closing()}
+ * response, so a request the client wrote at the same time is still answered rather than lost.
+ */
+public final class SigningDaemon {
+
+    public static final String IDLE_TIMEOUT_PROPERTY = SigningDaemon.class.getName() + ".idleTimeoutMinutes";
+
+    static final long DEFAULT_IDLE_TIMEOUT_MINUTES = 60;
+
+    /**
+     * Sign one APK, or, with no signers, cancel the signing with the same id.
+     */
+    static final class Request implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        final long id;
+        final List<SigningComponents> signers;
+        final String lineagePath;
+        final long lowMemoryBudget;
+        final boolean forceFile;
+        final boolean forceDirectory;
+        final String inputApk;
+        final String outputApk;
+
+        Request(long id, List<SigningComponents> signers, String lineagePath, long lowMemoryBudget, boolean forceFile, boolean forceDirectory,
+            String inputApk, String outputApk) {
+            this.id = id;
+            this.signers = signers;
+            this.lineagePath = lineagePath;
+            this.lowMemoryBudget = lowMemoryBudget;
+            this.forceFile = forceFile;
+            this.forceDirectory = forceDirectory;
+            this.inputApk = inputApk;
+            this.outputApk = outputApk;
+        }
+
+        static Request cancel(long id) {
+            return new Request(id, null, null, 0, false, false, null, null);
+        }
+
+        boolean isCancel() {
+            return signers == null;
+        }
+    }
+
+    static final class Response implements Serializable {
+
+        private static final long serialVersionUID = 1;
+
+        final long id;
+        final ApkSigning.Result result;
+        final String log;
+        final String error;
+        final boolean interrupted;
+
+        Response(long id, ApkSigning.Result result, String log, String error, boolean interrupted) {
+            this.id = id;
+            this.result = result;
+            this.log = log;
+            this.error = error;
+            this.interrupted = interrupted;
+        }
+
+        /**
+         * Tell the client that the daemon is idle and exits once the client closes its input.
+         */
+        static Response closing() {
+            return new Response(0, null, null, null, false);
+        }
+
+        boolean isClosing() {
+            return id == 0;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        long idleTimeoutMinutes = Long.getLong(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT_MINUTES);
+        // keep anything else that writes to standard output from corrupting the responses
+        ObjectOutputStream responses = new ObjectOutputStream(new BufferedOutputStream(System.out));
+        responses.flush();
+        System.setOut(System.err);
+        new SigningDaemon(responses, TimeUnit.MINUTES.toNanos(idleTimeoutMinutes)).serve(new BufferedInputStream(System.in));
+        System.exit(0);
+    }
+
+    private final ObjectOutputStream responses;
+    private final ExecutorService signers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "android-signing-daemon");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Long, Future<?>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong lastActivity = new AtomicLong(System.nanoTime());
+
+    private SigningDaemon(ObjectOutputStream responses, long idleTimeoutNanos) {
+        this.responses = responses;
+        Thread idleWatch = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(Math.max(1000, TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) / 10));
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                if (inFlight.isEmpty() && System.nanoTime() - lastActivity.get() > idleTimeoutNanos) {
+                    // the client may be writing a request right now, so let it close the input instead of exiting
+                    respond(Response.closing());
+                    return;
+                }
+            }
+        }, "android-signing-daemon-idle-watch");
+        idleWatch.setDaemon(true);
+        idleWatch.start();
+    }
+
+    private void serve(InputStream in) throws IOException {
+        ObjectInputStream requests = new ObjectInputStream(in);
+        while (true) {
+            Request request;
+            try {
+                request = (Request) requests.readObject();
+            }
+            catch (EOFException e) {
+                // answer the requests already read before exiting
+                signers.shutdown();
+                try {
+                    signers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+            lastActivity.set(System.nanoTime());
+            if (request.isCancel()) {
+                Future<?> signing = inFlight.get(request.id);
+                if (signing != null) {
+                    signing.cancel(true);
+                }
+                continue;
+            }
+            FutureTask<Void> signing = new FutureTask<>(() -> sign(request), null);
+            inFlight.put(request.id, signing);
+            signers.execute(signing);
+        }
+    }
+
+    private void sign(Request request) {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        Response response;
+        try (PrintStream logger = new PrintStream(log, true, "UTF-8")) {
+            ApkSigning signing = new ApkSigning(request.signers, request.lineagePath == null ? null : new File(request.lineagePath),
+                request.lowMemoryBudget, request.forceFile, request.forceDirectory, logger, "[SignApksBuilder] ");
+            ApkSigning.Result result = signing.sign(new File(request.inputApk), new File(request.outputApk));
+            response = new Response(request.id, result, log.toString("UTF-8"), null, false);
+        }
+        catch (InterruptedException | InterruptedIOException e) {
+            response = new Response(request.id, null, logText(log), e.getMessage(), true);
+        }
+        catch (IOException | RuntimeException e) {
+            response = new Response(request.id, null, logText(log), String.valueOf(e.getMessage()), false);
+        }
+        finally {
+            inFlight.remove(request.id);
+            lastActivity.set(System.nanoTime());
+        }
+        respond(response);
+    }
+
+    private void respond(Response response) {
+        synchronized (responses) {
+            try {
+                responses.writeObject(response);
+                // do not keep every response in the stream's back-reference table
+                responses.reset();
+                responses.flush();
+            }
+            catch (IOException e) {
+                // the requesting JVM is gone; the daemon exits once it sees the end of its input
+            }
+        }
+    }
+
+    private static String logText(ByteArrayOutputStream log) {
+        try {
+            return log.toString("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            return log.toString();
+        }
+    }
+
+    /**
+     * The requesting side of a {@link SigningDaemon}, which starts the daemon process on first use and again
+     * whenever the process has exited.  There is one client for each daemon in the JVM.
+     */
+    public static final class Client {
+
+        private static final Map<String, Client> clients = new HashMap<>();
+
+        /**
+         * Return the client of the daemon with the given name, e.g., its install directory, that the given command
+         * line starts.  If the daemon's command line changed, e.g., because a new version of it was installed,
+         * this retires the client of the old command line, which stops its daemon once its signings are done.
+         */
+        public static synchronized Client of(String daemon, List<String> command) {
+            Client client = clients.get(daemon);
+            if (client == null || !client.command.equals(command)) {
+                if (client != null) {
+                    client.retire();
+                }
+                client = new Client(new ArrayList<>(command));
+                clients.put(daemon, client);
+            }
+            return client;
+        }
+
+        private final List<String> command;
+        private final AtomicLong nextId = new AtomicLong();
+        private final AtomicInteger starts = new AtomicInteger();
+        private final Map<Long, PendingSigning> pending = new ConcurrentHashMap<>();
+        private Process process;
+        private ObjectOutputStream requests;
+        private boolean retired;
+
+        private static final class PendingSigning {
+            Process daemon;
+            Response response;
+            boolean daemonExited;
+        }
+
+        private Client(List<String> command) {
+            this.command = command;
+        }
+
+        /**
+         * The number of times this client started the daemon process.
+         */
+        public int getStarts() {
+            return starts.get();
+        }
+
+        /**
+         * Sign the given APK in the daemon, copying the daemon's log of the signing to the given logger.
+         */
+        public ApkSigning.Result sign(List<SigningComponents> signers, File lineageFile, long lowMemoryBudget, boolean forceFile, boolean forceDirectory,
+            File inputApk, File outputApk, PrintStream logger) throws IOException, InterruptedException {
+
+            long id = nextId.incrementAndGet();
+            PendingSigning signing = new PendingSigning();
+            pending.put(id, signing);
+            try {
+                send(new Request(id, new ArrayList<>(signers), lineageFile == null ? null : lineageFile.getAbsolutePath(), lowMemoryBudget,
+                    forceFile, forceDirectory, inputApk.getAbsolutePath(), outputApk.getAbsolutePath()), signing);
+                Response response;
+                synchronized (signing) {
+                    try {
+                        while (signing.response == null && !signing.daemonExited) {
+                            signing.wait();
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        cancel(id, signing);
+                        throw e;
+                    }
+                    response = signing.response;
+                }
+                if (response == null) {
+                    throw new ApkSigning.ApkSigningException("signing daemon exited while signing APK " + inputApk.getAbsolutePath(), null);
+                }
+                logger.print(response.log);
+                if (response.interrupted) {
+                    throw new InterruptedException(response.error);
+                }
+                if (response.error != null) {
+                    throw new ApkSigning.ApkSigningException(response.error, null);
+                }
+                return response.result;
+            }
+            finally {
+                pending.remove(id);
+                stopIfRetired();
+            }
+        }
+
+        private synchronized void retire() {
+            retired = true;
+            stopIfRetired();
+        }
+
+        /**
+         * Once this client is retired and has no signings left, close the daemon's input, so the daemon exits.
+         */
+        private synchronized void stopIfRetired() {
+            if (retired && pending.isEmpty()) {
+                closeInput(process);
+            }
+        }
+
+        /**
+         * Close the input of the given daemon, if it is the current one, so it exits once it has answered the
+         * requests it read, and the next request starts a new daemon.
+         */
+        private synchronized void closeInput(Process daemon) {
+            if (daemon == process && requests != null) {
+                try {
+                    requests.close();
+                }
+                catch (IOException e) {
+                    // the daemon is gone already
+                }
+                requests = null;
+            }
+        }
+
+        /**
+         * Send the request of the given signing, recording the daemon it goes to before writing it, so the signing
+         * fails if that daemon exits at any point after the request is written.
+         */
+        private synchronized void send(Request request, PendingSigning signing) throws IOException {
+            if (process == null || !process.isAlive() || requests == null) {
+                start();
+            }
+            synchronized (signing) {
+                signing.daemon = process;
+            }
+            requests.writeObject(request);
+            requests.reset();
+            requests.flush();
+        }
+
+        private synchronized void cancel(long id, PendingSigning signing) {
+            // a daemon that is closing, or gone, has no input left to cancel through, and no new daemon should start for it
+            if (signing.daemon != process || requests == null) {
+                return;
+            }
+            try {
+                requests.writeObject(Request.cancel(id));
+                requests.reset();
+                requests.flush();
+            }
+            catch (IOException e) {
+                // the daemon is gone, and so is the signing to cancel
+            }
+        }
+
+        private void start() throws IOException {
+            Process started = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            starts.incrementAndGet();
+            process = started;
+            requests = new ObjectOutputStream(new BufferedOutputStream(started.getOutputStream()));
+            requests.flush();
+            Thread reader = new Thread(() -> readResponses(started), "android-signing-daemon-client");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void readResponses(Process daemon) {
+            try (ObjectInputStream responses = new ObjectInputStream(new BufferedInputStream(daemon.getInputStream()))) {
+                while (true) {
+                    Response response = (Response) responses.readObject();
+                    if (response.isClosing()) {
+                        closeInput(daemon);
+                        continue;
+                    }
+                    PendingSigning signing = pending.get(response.id);
+                    if (signing != null) {
+                        synchronized (signing) {
+                            signing.response = response;
+                            signing.notifyAll();
+                        }
+                    }
+                }
+            }
+            catch (IOException | ClassNotFoundException | RuntimeException e) {
+                // the daemon exited; fail the signings it had not answered, and start a new one for the next
+                daemon.destroy();
+                for (PendingSigning signing : pending.values()) {
+                    synchronized (signing) {
+                        if (signing.daemon == daemon) {
+                            signing.daemonExited = true;
+                            signing.notifyAll();
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
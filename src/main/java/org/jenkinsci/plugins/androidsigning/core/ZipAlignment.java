@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+
+/**
+ * The equivalent of {@code zipalign -c -p 4}, which only reads the ZIP central directory and the fixed-size
+ * part of the local file header of each uncompressed entry, rather than the whole file.
+ */
+public final class ZipAlignment {
+
+    public static final int DEFAULT_ALIGNMENT = 4;
+    public static final int SHARED_LIBRARY_ALIGNMENT = 4096;
+
+    private ZipAlignment() {
+    }
+
+    /**
+     * Return true if every uncompressed entry of the given ZIP file starts at an offset that is a multiple
+     * of the given alignment, or, for {@code .so} entries when {@code pageAlignSharedLibraries} is true,
+     * a multiple of 4 KiB.  Return false if the file is not a ZIP file this check understands, e.g., ZIP64,
+     * so the caller can fall back to running zipalign.
+     */
+    public static boolean isAligned(File zipFile, int alignment, boolean pageAlignSharedLibraries) throws IOException {
+        try (RandomAccessFile zip = new RandomAccessFile(zipFile, "r")) {
+            List<ZipCentralDirectory.Entry> entries = ZipCentralDirectory.read(zip);
+            if (entries == null) {
+                return false;
+            }
+            for (ZipCentralDirectory.Entry entry : entries) {
+                if (entry.method != ZipCentralDirectory.METHOD_STORED) {
+                    continue;
+                }
+                long dataOffset = ZipCentralDirectory.dataOffset(zip, entry);
+                if (dataOffset < 0) {
+                    return false;
+                }
+                int requiredAlignment = pageAlignSharedLibraries && entry.name.endsWith(".so") ? SHARED_LIBRARY_ALIGNMENT : alignment;
+                if (dataOffset % requiredAlignment != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Reads the entries of a ZIP file from its central directory, without reading the entries' data.
+ */
+public final class ZipCentralDirectory {
+
+    public static final int METHOD_STORED = 0;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    public static final class Entry {
+
+        public final String name;
+        public final int method;
+        public final long crc;
+        public final long compressedSize;
+        public final long localHeaderOffset;
+
+        private Entry(String name, int method, long crc, long compressedSize, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    private ZipCentralDirectory() {
+    }
+
+    /**
+     * Return the entries of the given ZIP file in central directory order, or null if the file is not a ZIP
+     * file this reader understands, e.g., ZIP64.
+     */
+    public static List<Entry> read(RandomAccessFile zip) throws IOException {
+        long[] eocd = readEndOfCentralDirectory(zip);
+        if (eocd == null) {
+            return null;
+        }
+        int entryCount = (int) eocd[0];
+        long centralDirSize = eocd[1];
+        long centralDirOffset = eocd[2];
+
+        byte[] centralDir = new byte[(int) centralDirSize];
+        zip.seek(centralDirOffset);
+        zip.readFully(centralDir);
+        ByteBuffer centralDirBuf = ByteBuffer.wrap(centralDir).order(ByteOrder.LITTLE_ENDIAN);
+
+        List<Entry> entries = new ArrayList<>(entryCount);
+        int pos = 0;
+        for (int entry = 0; entry < entryCount; entry++) {
+            if (pos + CENTRAL_HEADER_SIZE > centralDir.length || centralDirBuf.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                return null;
+            }
+            int method = unsignedShort(centralDirBuf, pos + 10);
+            long crc = unsignedInt(centralDirBuf, pos + 16);
+            long compressedSize = unsignedInt(centralDirBuf, pos + 20);
+            int nameSize = unsignedShort(centralDirBuf, pos + 28);
+            int extraSize = unsignedShort(centralDirBuf, pos + 30);
+            int commentSize = unsignedShort(centralDirBuf, pos + 32);
+            long localHeaderOffset = unsignedInt(centralDirBuf, pos + 42);
+            if (pos + CENTRAL_HEADER_SIZE + nameSize > centralDir.length) {
+                return null;
+            }
+            String name = new String(centralDir, pos + CENTRAL_HEADER_SIZE, nameSize, StandardCharsets.UTF_8);
+            entries.add(new Entry(name, method, crc, compressedSize, localHeaderOffset));
+            pos += CENTRAL_HEADER_SIZE + nameSize + extraSize + commentSize;
+        }
+
+        return entries;
+    }
+
+    /**
+     * Return the offset of the given ZIP file's central directory, or -1 if the file is not a ZIP file this reader
+     * understands.  An APK's signing block ends right before its central directory.
+     */
+    public static long centralDirectoryOffset(RandomAccessFile zip) throws IOException {
+        long[] eocd = readEndOfCentralDirectory(zip);
+        return eocd == null ? -1 : eocd[2];
+    }
+
+    /**
+     * Return the entry count, size, and offset of the central directory from the end of central directory record.
+     */
+    private static long[] readEndOfCentralDirectory(RandomAccessFile zip) throws IOException {
+        long length = zip.length();
+        if (length < EOCD_SIZE) {
+            return null;
+        }
+
+        int tailSize = (int) Math.min(length, EOCD_SIZE + MAX_COMMENT_SIZE);
+        byte[] tail = new byte[tailSize];
+        zip.seek(length - tailSize);
+        zip.readFully(tail);
+        ByteBuffer tailBuf = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        int eocd = -1;
+        for (int pos = tailSize - EOCD_SIZE; pos >= 0; pos--) {
+            if (tailBuf.getInt(pos) == EOCD_SIGNATURE && pos + EOCD_SIZE + unsignedShort(tailBuf, pos + 20) == tailSize) {
+                eocd = pos;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            return null;
+        }
+
+        int entryCount = unsignedShort(tailBuf, eocd + 10);
+        long centralDirSize = unsignedInt(tailBuf, eocd + 12);
+        long centralDirOffset = unsignedInt(tailBuf, eocd + 16);
+        if (entryCount == 0xffff || centralDirSize == 0xffffffffL || centralDirOffset == 0xffffffffL) {
+            // ZIP64
+            return null;
+        }
+        if (centralDirOffset + centralDirSize > length) {
+            return null;
+        }
+        return new long[] { entryCount, centralDirSize, centralDirOffset };
+    }
+
+    /**
+     * Return the offset of the given entry's data in the ZIP file, or -1 if its local header is invalid.
+     * The local header's extra field can differ from the central directory's, e.g., after zipalign, so this
+     * reads the actual size from the local header.
+     */
+    public static long dataOffset(RandomAccessFile zip, Entry entry) throws IOException {
+        if (entry.localHeaderOffset + LOCAL_HEADER_SIZE > zip.length()) {
+            return -1;
+        }
+        ByteBuffer localHeader = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        zip.seek(entry.localHeaderOffset);
+        zip.readFully(localHeader.array());
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            return -1;
+        }
+        return entry.localHeaderOffset + LOCAL_HEADER_SIZE + unsignedShort(localHeader, 26) + unsignedShort(localHeader, 28);
+    }
+
+    private static int unsignedShort(ByteBuffer buf, int pos) {
+        return buf.getShort(pos) & 0xffff;
+    }
+
+    private static long unsignedInt(ByteBuffer buf, int pos) {
+        return buf.getInt(pos) & 0xffffffffL;
+    }
+}
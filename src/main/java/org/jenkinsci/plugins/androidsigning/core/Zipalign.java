@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Runs a given zipalign executable as a local process, the way the plugin's {@code ZipalignTool} command does.
+ * Finding zipalign in the Android SDK of a Jenkins node stays with the plugin.
+ */
+public final class Zipalign {
+
+    private final File zipalign;
+    private final PrintStream logger;
+
+    public Zipalign(File zipalign, PrintStream logger) {
+        this.zipalign = zipalign;
+        this.logger = logger;
+    }
+
+    public List<String> commandFor(File unsignedApk, File alignedApk) {
+        return Arrays.asList(zipalign.getPath(), "-f", "-p", String.valueOf(ZipAlignment.DEFAULT_ALIGNMENT),
+            unsignedApk.getPath(), alignedApk.getPath());
+    }
+
+    /**
+     * Align the given APK to the given output file, copying zipalign's output to the log.
+     */
+    public void align(File unsignedApk, File alignedApk) throws IOException, InterruptedException {
+        List<String> command = commandFor(unsignedApk, alignedApk);
+        logger.println(String.join(" ", command));
+        Process zipalignProcess = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try (InputStream output = zipalignProcess.getInputStream()) {
+            copy(output, logger);
+            int exitCode = zipalignProcess.waitFor();
+            if (exitCode != 0) {
+                throw new IOException(String.format("zipalign failed on APK %s: exit code %d", unsignedApk, exitCode));
+            }
+        }
+        finally {
+            zipalignProcess.destroy();
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,94 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.util.Collections;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+
+public class AgentWarmUpTest {
+
+    /**
+     * Set this system property to true to run {@link #benchmarkTimeToFirstSignature()}, which starts two agent JVMs.
+     */
+    static final String BENCHMARK_PROPERTY = AgentWarmUpTest.class.getName() + ".benchmark";
+
+    @Rule
+    public JenkinsRule testJenkins = new JenkinsRule();
+
+    private static String awaitLog(DumbSlave agent, String message) throws Exception {
+        long deadline = System.currentTimeMillis() + 60000;
+        String log = agent.toComputer().getLog();
+        while (!log.contains(message) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            log = agent.toComputer().getLog();
+        }
+        return log;
+    }
+
+    /**
+     * Sign the test APK on the given agent, check the result verifies, and return how long the signing took.
+     */
+    private long timeToSign(DumbSlave agent) throws Exception {
+        FilePath dir = agent.getRootPath().createTempDir("warm-up-benchmark", "");
+        FilePath unsignedApk = dir.child("unsigned.apk");
+        unsignedApk.copyFrom(new FilePath(new File(getClass().getResource("/workspace/SignApksBuilderTest-unsigned.apk").toURI())));
+        SignApksBuilder.SignApkCallable signApk = new SignApksBuilder.SignApkCallable(
+            Collections.singletonList(AgentWarmUp.newWarmUpCallable().signer), null, dir.child("signed.apk").getRemote(),
+            new SigningOptions(0, FsyncPolicy.NONE, SigningPriority.NORMAL), TaskListener.NULL);
+        long start = System.nanoTime();
+        unsignedApk.act(signApk);
+        long elapsed = System.nanoTime() - start;
+        VerifyApkCallable.VerifyResult result = dir.child("signed.apk").act(new VerifyApkCallable(TaskListener.NULL));
+        assertTrue(result.isVerified);
+        return elapsed;
+    }
+
+    @Test
+    public void warmsUpSigningWhenAnAgentConnects() throws Exception {
+        testJenkins.jenkins.getDescriptorByType(SignApksBuilder.SignApksDescriptor.class).setWarmUpAgents(true);
+        DumbSlave agent = testJenkins.createOnlineSlave();
+
+        assertThat(awaitLog(agent, "warmed up APK signing"), containsString("warmed up APK signing in"));
+    }
+
+    @Test
+    public void signsTheGeneratedApkOnAnAgent() throws Exception {
+        DumbSlave agent = testJenkins.createOnlineSlave();
+
+        assertThat(AgentWarmUp.warmUp(agent.getChannel()), greaterThan(0L));
+    }
+
+    /**
+     * Compares the time to the first signature on a freshly connected agent with and without the warm-up.  Each
+     * agent is a new JVM, so both start cold.  Only runs with the {@link #BENCHMARK_PROPERTY} system property set,
+     * e.g., {@code mvn test -Dtest=AgentWarmUpTest -Dorg.jenkinsci.plugins.androidsigning.AgentWarmUpTest.benchmark=true}.
+     */
+    @Test
+    public void benchmarkTimeToFirstSignature() throws Exception {
+        assumeTrue(BENCHMARK_PROPERTY + " is not set", Boolean.getBoolean(BENCHMARK_PROPERTY));
+        DumbSlave coldAgent = testJenkins.createOnlineSlave();
+        long cold = timeToSign(coldAgent);
+        long coldSecond = timeToSign(coldAgent);
+
+        testJenkins.jenkins.getDescriptorByType(SignApksBuilder.SignApksDescriptor.class).setWarmUpAgents(true);
+        DumbSlave warmAgent = testJenkins.createOnlineSlave();
+        assertThat(awaitLog(warmAgent, "warmed up APK signing"), containsString("warmed up APK signing in"));
+        long warm = timeToSign(warmAgent);
+
+        System.out.printf("time to first signature on a new agent: %d ms without warm-up, %d ms after warm-up (%d ms for a second signature without warm-up)%n",
+            cold / 1000000, warm / 1000000, coldSecond / 1000000);
+    }
+}
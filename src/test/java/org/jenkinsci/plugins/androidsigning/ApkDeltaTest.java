@@ -0,0 +1,107 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+
+public class ApkDeltaTest {
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private static byte[] apply(File delta, File source) throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (FileInputStream deltaIn = new FileInputStream(delta)) {
+            ApkDelta.apply(deltaIn, () -> new FileInputStream(source), target);
+        }
+        return target.toByteArray();
+    }
+
+    @Test
+    public void rebuildsAnApkFromAnotherApkWithTheSameEntries() throws Exception {
+        File workspace = new File(getClass().getResource("/workspace").toURI());
+        File target = new File(workspace, "SignApksBuilderTest-unsigned.apk");
+        File source = new File(workspace, "SignApksBuilderTest-chocolate_flavor.apk");
+        File delta = tempDir.newFile("delta" + ApkDelta.EXTENSION);
+
+        long deltaSize = ApkDelta.compute(target, target, delta);
+
+        assertThat(deltaSize, lessThan(target.length() / 10));
+        assertThat(apply(delta, target), equalTo(Files.readAllBytes(target.toPath())));
+
+        ApkDelta.compute(target, source, delta);
+
+        assertThat(apply(delta, source), equalTo(Files.readAllBytes(target.toPath())));
+    }
+
+    @Test
+    public void storesNonZipFilesLiterally() throws Exception {
+        File target = tempDir.newFile("target.apk");
+        File source = tempDir.newFile("source.apk");
+        Files.write(target.toPath(), "not a ZIP file".getBytes("UTF-8"));
+        Files.write(source.toPath(), "also not a ZIP file".getBytes("UTF-8"));
+        File delta = tempDir.newFile("delta" + ApkDelta.EXTENSION);
+
+        long deltaSize = ApkDelta.compute(target, source, delta);
+
+        assertThat(deltaSize, greaterThan(target.length()));
+        assertThat(apply(delta, source), equalTo(Files.readAllBytes(target.toPath())));
+    }
+
+    @Test
+    public void failsToRebuildFromTheWrongSource() throws Exception {
+        File workspace = new File(getClass().getResource("/workspace").toURI());
+        File target = new File(workspace, "SignApksBuilderTest-unsigned.apk");
+        File delta = tempDir.newFile("delta" + ApkDelta.EXTENSION);
+        ApkDelta.compute(target, target, delta);
+        byte[] wrongSource = Files.readAllBytes(target.toPath());
+        for (int i = 0; i < wrongSource.length; i += 4096) {
+            wrongSource[i] ^= 1;
+        }
+
+        try (FileInputStream deltaIn = new FileInputStream(delta)) {
+            ApkDelta.apply(deltaIn, () -> new ByteArrayInputStream(wrongSource), new ByteArrayOutputStream());
+            fail("rebuilding from the wrong source should fail");
+        }
+        catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void deletesTheRebuiltFileWhenItDoesNotMatch() throws Exception {
+        File workspace = new File(getClass().getResource("/workspace").toURI());
+        File target = new File(workspace, "SignApksBuilderTest-unsigned.apk");
+        File delta = tempDir.newFile("delta" + ApkDelta.EXTENSION);
+        ApkDelta.compute(target, target, delta);
+        byte[] wrongSource = Files.readAllBytes(target.toPath());
+        wrongSource[wrongSource.length / 2] ^= 1;
+        File rebuilt = new File(tempDir.getRoot(), "rebuilt.apk");
+
+        try (FileInputStream deltaIn = new FileInputStream(delta)) {
+            ApkDelta.apply(deltaIn, () -> new ByteArrayInputStream(wrongSource), rebuilt);
+            fail("rebuilding from the wrong source should fail");
+        }
+        catch (IOException expected) {
+        }
+        assertThat(rebuilt.exists(), equalTo(false));
+
+        try (FileInputStream deltaIn = new FileInputStream(delta)) {
+            ApkDelta.apply(deltaIn, () -> new FileInputStream(target), rebuilt);
+        }
+        assertThat(Files.readAllBytes(rebuilt.toPath()), equalTo(Files.readAllBytes(target.toPath())));
+    }
+}
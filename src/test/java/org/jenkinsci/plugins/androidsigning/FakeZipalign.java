@@ -3,8 +3,11 @@ package org.jenkinsci.plugins.androidsigning;
 import org.jvnet.hudson.test.FakeLauncher;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import hudson.FilePath;
 import hudson.Launcher;
@@ -14,6 +17,7 @@ import hudson.Proc;
 class FakeZipalign implements FakeLauncher {
 
     Launcher.ProcStarter lastProc;
+    volatile boolean hang;
 
     @Override
     public Proc onLaunch(Launcher.ProcStarter p) throws IOException {
@@ -21,6 +25,9 @@ class FakeZipalign implements FakeLauncher {
             return new FinishedProc(0);
         }
         lastProc = p;
+        if (hang) {
+            return new HangingProc();
+        }
         PrintStream logger = new PrintStream(p.stdout());
         List<String> cmd = p.cmds();
         String inPath = cmd.get(cmd.size() - 2);
@@ -54,4 +61,43 @@ class FakeZipalign implements FakeLauncher {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Simulates a zipalign process stuck on a bad mount, which only ends when it is killed or the waiting thread is interrupted.
+     */
+    static class HangingProc extends Proc {
+
+        private final CountDownLatch killed = new CountDownLatch(1);
+
+        @Override
+        public boolean isAlive() throws IOException, InterruptedException {
+            return killed.getCount() > 0;
+        }
+
+        @Override
+        public void kill() throws IOException, InterruptedException {
+            killed.countDown();
+        }
+
+        @Override
+        public int join() throws IOException, InterruptedException {
+            killed.await();
+            return -9;
+        }
+
+        @Override
+        public InputStream getStdout() {
+            return null;
+        }
+
+        @Override
+        public InputStream getStderr() {
+            return null;
+        }
+
+        @Override
+        public OutputStream getStdin() {
+            return null;
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.androidsigning;
 
+import com.android.apksig.SigningCertificateLineage;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardCertificateCredentials;
@@ -9,6 +10,9 @@ import com.gargoylesoftware.htmlunit.html.HtmlOption;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import com.gargoylesoftware.htmlunit.html.HtmlSelect;
 
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.androidsigning.core.SigningComponents;
+import org.jenkinsci.plugins.androidsigning.core.SigningDaemon;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -18,16 +22,23 @@ import org.junit.rules.TestName;
 import org.jvnet.hudson.test.FakeLauncher;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.PretendSlave;
+import org.jvnet.hudson.test.TestBuilder;
 import org.jvnet.hudson.test.WithoutJenkins;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.file.Files;
 import java.security.GeneralSecurityException;
+import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
 import java.security.UnrecoverableKeyException;
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -40,23 +51,32 @@ import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Proc;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Build;
 import hudson.model.BuildListener;
+import hudson.model.Cause;
 import hudson.model.Descriptor;
+import hudson.model.Fingerprint;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.Label;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
 import hudson.model.Result;
 import hudson.model.Run;
+import hudson.model.StringParameterDefinition;
+import hudson.model.StringParameterValue;
 import hudson.model.TaskListener;
+import hudson.model.queue.QueueTaskFuture;
 import hudson.security.ACL;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.EnvironmentVariablesNodeProperty;
 import hudson.slaves.NodeProperty;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
+import hudson.tasks.Fingerprinter;
 import jenkins.util.VirtualFile;
 
 import static org.hamcrest.CoreMatchers.containsString;
@@ -70,6 +90,8 @@ import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.emptyArray;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.is;
@@ -453,6 +475,96 @@ public class SignApksBuilderTest {
         assertThat(artifacts.size(), equalTo(1));
     }
 
+    @Test
+    public void signsApksAsTheStreamingScanFindsThem() throws Exception {
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("**/*-unsigned.apk, *chocolate*.apk");
+        builder.setStreamingDiscovery(true);
+
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+        List<Run<FreeStyleProject,FreeStyleBuild>.Artifact> artifacts = build.getArtifacts();
+
+        testJenkins.assertLogContains("signing APKs as the workspace scan finds them", build);
+        testJenkins.assertLogContains("workspace scan found 4 APKs", build);
+        assertThat(artifacts.size(), equalTo(4));
+        for (Run.Artifact artifact : artifacts) {
+            assertThat(buildArtifact(build, artifact), isSigned());
+        }
+    }
+
+    @Test
+    public void concurrentBuildsOfTheSameJobDoNotShareSigningState() throws Exception {
+        int builds = 8;
+        for (int i = 1; i < builds / 2; i++) {
+            PretendSlave another = testJenkins.createPretendSlave(zipalignLauncher);
+            another.setLabelString(another.getLabelString() + " " + getClass().getSimpleName());
+        }
+
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("flavors/*-unsigned.apk");
+        builder.setArchiveSignedApks(true);
+        builder.setArchiveUnsignedApks(false);
+        SignedApkMappingStrategy mapping = builder.getSignedApkMapping();
+
+        FreeStyleProject job = createSignApkJob();
+        job.setConcurrentBuild(true);
+        job.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("FLAVOR", "plain")));
+        job.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                FilePath flavors = build.getWorkspace().child("flavors");
+                flavors.deleteRecursive();
+                String flavor = build.getEnvironment(listener).get("FLAVOR");
+                build.getWorkspace().child("SignApksBuilderTest-unsigned.apk").copyTo(flavors.child(flavor + "-unsigned.apk"));
+                return true;
+            }
+        });
+        job.getBuildersList().add(builder);
+
+        List<QueueTaskFuture<FreeStyleBuild>> scheduled = new ArrayList<>();
+        for (int i = 0; i < builds; i++) {
+            scheduled.add(job.scheduleBuild2(0, new Cause.UserIdCause(), new ParametersAction(new StringParameterValue("FLAVOR", "flavor" + i))));
+        }
+        for (int i = 0; i < builds; i++) {
+            FreeStyleBuild build = testJenkins.assertBuildStatusSuccess(scheduled.get(i));
+            List<Run<FreeStyleProject,FreeStyleBuild>.Artifact> artifacts = build.getArtifacts();
+            assertThat(artifacts.size(), equalTo(1));
+            assertThat(artifacts.get(0).getFileName(), equalTo("flavor" + i + "-signed.apk"));
+            assertThat(buildArtifact(build, artifacts.get(0)), isSigned());
+        }
+
+        assertThat(builder.getSignedApkMapping(), sameInstance(mapping));
+    }
+
+    @Test
+    public void failsAfterStreamingWhenAGlobMatchesNothing() throws Exception {
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk, does-not-exist-*.apk");
+        builder.setStreamingDiscovery(true);
+
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+        FreeStyleBuild build = testJenkins.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0));
+
+        testJenkins.assertLogContains("No APKs in workspace matching does-not-exist-*.apk", build);
+        // whatever was signed before the scan finished was archived, not left behind in the workspace
+        FilePath signedApksList = build.getWorkspace().child(SignApksBuilder.BUILDER_DIR).child(SigningRun.SIGNED_APKS_LIST);
+        List<String> archived = build.getArtifacts().stream().map(artifact -> artifact.getFileName()).collect(Collectors.toList());
+        for (String line : signedApksList.readToString().split("\n")) {
+            if (!line.isEmpty()) {
+                assertThat(archived, hasItem(new File(line.split("\t")[1]).getName()));
+            }
+        }
+    }
+
     @Test
     public void usesAndroidHomeOverride() throws Exception {
         List<Apk> entries = new ArrayList<>();
@@ -549,6 +661,328 @@ public class SignApksBuilderTest {
         assertThat(zipalignLauncher.lastProc, nullValue());
     }
 
+    @Test
+    public void skipsZipalignForAlreadyAlignedApks() throws Exception {
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        builder.setSkipZipalignIfAligned(true);
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+
+        assertThat(zipalignLauncher.lastProc, nullValue());
+        assertThat(buildArtifact(build, build.getArtifacts().get(0)), isSigned());
+        testJenkins.assertLogContains("skipped zipalign for 1 already aligned APKs", build);
+    }
+
+    @Test
+    public void copiesApksAlreadySignedByTheSameKeyInsteadOfSigningThem() throws Exception {
+        SignApksBuilder signUnsigned = new SignApksBuilder();
+        signUnsigned.setKeyStoreId(KEY_STORE_ID);
+        signUnsigned.setKeyAlias(KEY_ALIAS);
+        signUnsigned.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        signUnsigned.setArchiveSignedApks(false);
+
+        SignApksBuilder signAgain = new SignApksBuilder();
+        signAgain.setKeyStoreId(KEY_STORE_ID);
+        signAgain.setKeyAlias(KEY_ALIAS);
+        signAgain.setApksToSign("SignApksBuilderTest.apk");
+        signAgain.setSkipAlreadySigned(true);
+        signAgain.setArchiveUnsignedApks(true);
+
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(signUnsigned);
+        job.getBuildersList().add(signAgain);
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+
+        testJenkins.assertLogContains("APK SignApksBuilderTest.apk is already signed by the same certificates; skipping signing", build);
+        testJenkins.assertLogContains("skipped signing 1 APKs already signed by the same certificates", build);
+        List<Run<FreeStyleProject, FreeStyleBuild>.Artifact> artifacts = build.getArtifacts();
+        assertThat(artifacts.size(), equalTo(2));
+        Run.Artifact original = artifacts.stream().filter(artifact -> artifact.getFileName().equals("SignApksBuilderTest.apk")).findFirst().get();
+        Run.Artifact copy = artifacts.stream().filter(artifact -> artifact.getFileName().equals("SignApksBuilderTest-signed.apk")).findFirst().get();
+        assertThat(buildArtifact(build, copy), isSigned());
+        assertThat(Files.readAllBytes(new File(build.getArtifactsDir(), copy.relativePath).toPath()),
+            equalTo(Files.readAllBytes(new File(build.getArtifactsDir(), original.relativePath).toPath())));
+    }
+
+    @Test
+    public void signsInLowMemoryModeAndReportsPeakHeap() throws Exception {
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        builder.setLowMemorySigningBudget(64);
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+
+        assertThat(buildArtifact(build, build.getArtifacts().get(0)), isSigned());
+        testJenkins.assertLogContains("of 64.0 MiB low-memory budget", build);
+        testJenkins.assertLogContains("peak JVM heap while signing in low-memory mode:", build);
+    }
+
+    @Test
+    public void replacesTheSignedApkWithoutLeavingTempFiles() throws Exception {
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        builder.setFsyncPolicy(FsyncPolicy.FILE_AND_DIRECTORY);
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+        testJenkins.buildAndAssertSuccess(job);
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+
+        FilePath workspace = build.getWorkspace();
+        assertThat(buildArtifact(build, build.getArtifacts().get(0)), isSigned());
+        assertThat(workspace.list("**/*.tmp"), emptyArray());
+        testJenkins.assertLogNotContains("deleting previous signed APK", build);
+    }
+
+    @Test
+    public void failedSigningLeavesThePreviousSignedApkInPlace() throws Exception {
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        builder.setSkipZipalign(true);
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+        FilePath signedApk = build.getWorkspace().child("SignApksBuilderTest.apk");
+        String signedDigest = signedApk.digest();
+
+        job.getBuildersList().replaceBy(Arrays.asList(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                build.getWorkspace().child("SignApksBuilderTest-unsigned.apk").write("not an APK", "UTF-8");
+                return true;
+            }
+        }, builder));
+        build = testJenkins.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0));
+
+        testJenkins.assertLogContains("failed to sign APK", build);
+        assertThat(signedApk.digest(), equalTo(signedDigest));
+        assertThat(build.getWorkspace().list("**/*.tmp"), emptyArray());
+    }
+
+    @Test
+    public void signsTheOtherApksAndReportsTheFailedOnesWhenContinuingOnError() throws Exception {
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("**/*-unsigned.apk");
+        builder.setApkFailureMode(ApkFailureMode.UNSTABLE_AFTER_ALL);
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                build.getWorkspace().child("SignApksBuilderTest-unsigned.apk").write("not an APK", "UTF-8");
+                return true;
+            }
+        });
+        job.getBuildersList().add(builder);
+        FreeStyleBuild build = testJenkins.assertBuildStatus(Result.UNSTABLE, job.scheduleBuild2(0));
+
+        testJenkins.assertLogContains("SignApksBuilderTest-unsigned.apk: signing failed:", build);
+        testJenkins.assertLogContains("1 of 3 APKs failed to sign:", build);
+        List<String> artifactNames = build.getArtifacts().stream().map(artifact -> artifact.getFileName()).collect(Collectors.toList());
+        assertThat(artifactNames, containsInAnyOrder("app-release.apk", "app-debug.apk"));
+        for (Run.Artifact artifact : build.getArtifacts()) {
+            assertThat(buildArtifact(build, artifact), isSigned());
+        }
+
+        builder.setApkFailureMode(ApkFailureMode.FAIL_AFTER_ALL);
+        build = testJenkins.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0));
+
+        testJenkins.assertLogContains("1 of 3 APKs failed to sign", build);
+        assertThat(build.getArtifacts().size(), equalTo(2));
+    }
+
+    @Test
+    public void archivesInConcurrentBatchesWhileSigning() throws Exception {
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("*-unsigned.apk, **/*-release-unsigned.apk");
+        builder.setArchiveUnsignedApks(true);
+        builder.setArchiveIncrementally(true);
+        builder.setArchiveBatchSize(1);
+        builder.setMaxArchiveTransfers(3);
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+
+        List<String> artifactNames = build.getArtifacts().stream().map(artifact -> artifact.getFileName()).collect(Collectors.toList());
+        assertThat(artifactNames.size(), equalTo(4));
+        assertThat(artifactNames, hasItems("SignApksBuilderTest-unsigned.apk", "SignApksBuilderTest.apk", "app-release-unsigned.apk", "app-release.apk"));
+        testJenkins.assertLogContains("archived 4 files", build);
+        testJenkins.assertLogContains("in 4 batches", build);
+        testJenkins.assertLogContains("with up to 3 concurrent transfers", build);
+    }
+
+    @Test
+    public void archivesTheUnsignedApkAsADeltaAndRestoresIt() throws Exception {
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        builder.setArchiveUnsignedApks(true);
+        builder.setDeltaArchiving(DeltaArchiving.UNSIGNED_AGAINST_SIGNED);
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+
+        List<String> artifactNames = build.getArtifacts().stream().map(artifact -> artifact.getFileName()).collect(Collectors.toList());
+        assertThat(artifactNames, hasItems("SignApksBuilderTest-unsigned.apk" + ApkDelta.EXTENSION, "SignApksBuilderTest.apk"));
+        assertThat(artifactNames, not(hasItem("SignApksBuilderTest-unsigned.apk")));
+        testJenkins.assertLogContains("delta against SignApksBuilderTest.apk", build);
+        assertThat(build.getWorkspace().child(SignApksBuilder.BUILDER_DIR).child("deltas").exists(), is(false));
+
+        ApkDeltaAction deltas = build.getAction(ApkDeltaAction.class);
+        assertThat(deltas.getDeltas().size(), equalTo(1));
+        String deltaArtifact = deltas.getDeltas().get(0).getDeltaArtifact();
+        JenkinsRule.WebClient browser = testJenkins.createWebClient();
+        byte[] restored;
+        try (InputStream in = browser.goTo(build.getUrl() + ApkDeltaAction.URL_NAME + "/restore?delta=" + URLEncoder.encode(deltaArtifact, "UTF-8"), null)
+            .getWebResponse().getContentAsStream()) {
+            restored = IOUtils.toByteArray(in);
+        }
+        byte[] unsigned;
+        try (InputStream in = build.getWorkspace().child("SignApksBuilderTest-unsigned.apk").read()) {
+            unsigned = IOUtils.toByteArray(in);
+        }
+        assertTrue(Arrays.equals(restored, unsigned));
+    }
+
+    @Test
+    public void recordsFingerprintsAndWritesSha256Sidecars() throws Exception {
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        builder.setWriteSha256Sidecars(true);
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+
+        FilePath signedApk = build.getWorkspace().child("SignApksBuilderTest.apk");
+        Fingerprinter.FingerprintAction fingerprints = build.getAction(Fingerprinter.FingerprintAction.class);
+        assertThat(fingerprints.getRecords().get("SignApksBuilderTest.apk"), equalTo(signedApk.digest()));
+        Fingerprint fingerprint = testJenkins.jenkins.getFingerprintMap().get(signedApk.digest());
+        assertThat(fingerprint.getOriginal().getRun(), sameInstance(build));
+
+        String sha256;
+        try (InputStream in = signedApk.read()) {
+            sha256 = Util.toHexString(MessageDigest.getInstance("SHA-256").digest(IOUtils.toByteArray(in)));
+        }
+        assertThat(build.getWorkspace().child("SignApksBuilderTest.apk.sha256").readToString(), equalTo(sha256 + "  SignApksBuilderTest.apk\n"));
+        List<String> artifactNames = build.getArtifacts().stream().map(artifact -> artifact.getFileName()).collect(Collectors.toList());
+        assertThat(artifactNames, hasItem("SignApksBuilderTest.apk.sha256"));
+    }
+
+    @Test
+    public void waitsForAFreeSigningSlotOnTheNode() throws Exception {
+        testJenkins.jenkins.getNodeProperties().add(new SigningConcurrencyNodeProperty(1));
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+
+        FreeStyleBuild build;
+        try (SigningSlots.Slot otherBuildsSlot = SigningSlots.acquire(testJenkins.jenkins.getRootPath(), SigningPriority.NORMAL, new SigningMetrics(), TaskListener.NULL)) {
+            build = job.scheduleBuild2(0).waitForStart();
+            testJenkins.waitForMessage("waiting for one of 1 signing slots", build);
+        }
+        testJenkins.assertBuildStatusSuccess(testJenkins.waitForCompletion(build));
+        testJenkins.assertLogContains("waited", build);
+        testJenkins.assertLogContains("in total for node signing slots (1 APKs waited)", build);
+        assertThat(build.getArtifacts().size(), equalTo(1));
+    }
+
+    @Test
+    public void signsInTheNodesSigningDaemonAcrossBuilds() throws Exception {
+        testJenkins.jenkins.getNodeProperties().add(new SigningDaemonNodeProperty());
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+
+        FreeStyleBuild first = testJenkins.buildAndAssertSuccess(job);
+        FreeStyleBuild second = testJenkins.buildAndAssertSuccess(job);
+
+        testJenkins.assertLogContains("started signing daemon", first);
+        testJenkins.assertLogNotContains("started signing daemon", second);
+        for (FreeStyleBuild build : Arrays.asList(first, second)) {
+            List<Run<FreeStyleProject, FreeStyleBuild>.Artifact> artifacts = build.getArtifacts();
+            assertThat(artifacts.size(), equalTo(1));
+            assertThat(buildArtifact(build, artifacts.get(0)), isSigned());
+        }
+    }
+
+    @Test
+    public void startsANewSigningDaemonAfterTheIdleOneCloses() throws Exception {
+        SigningDaemonNodeProperty daemon = new SigningDaemonNodeProperty();
+        daemon.setJavaOptions(SigningDaemonNodeProperty.DEFAULT_JAVA_OPTIONS + " -D" + SigningDaemon.IDLE_TIMEOUT_PROPERTY + "=0");
+        testJenkins.jenkins.getNodeProperties().add(daemon);
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+
+        FreeStyleBuild first = testJenkins.buildAndAssertSuccess(job);
+        // the daemon checks for idleness every second, then asks the client to close its input
+        Thread.sleep(3000);
+        FreeStyleBuild second = testJenkins.buildAndAssertSuccess(job);
+
+        testJenkins.assertLogContains("started signing daemon", first);
+        testJenkins.assertLogContains("started signing daemon", second);
+        assertThat(buildArtifact(second, second.getArtifacts().get(0)), isSigned());
+    }
+
+    @Test
+    public void installsTheSigningDaemonApartFromOlderVersions() throws Exception {
+        testJenkins.jenkins.getNodeProperties().add(new SigningDaemonNodeProperty());
+        FilePath daemonDir = testJenkins.jenkins.getRootPath().child(SigningDaemonNodeProperty.DAEMON_DIR);
+        daemonDir.child("apksig-0.1.jar").write("stale", "UTF-8");
+        daemonDir.child("0123456789abcdef").child("android-signing.jar").write("stale", "UTF-8");
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+
+        testJenkins.assertLogContains("started signing daemon", build);
+        List<FilePath> installs = daemonDir.list();
+        assertThat(installs.size(), equalTo(1));
+        assertThat(installs.get(0).isDirectory(), is(true));
+        testJenkins.assertLogContains(installs.get(0).getRemote(), build);
+        assertThat(buildArtifact(build, build.getArtifacts().get(0)), isSigned());
+    }
+
+    @Test
+    @WithoutJenkins
+    public void usesDefaultArchiveSettingsForNonPositiveValues() {
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setArchiveBatchSize(0);
+        builder.setMaxArchiveTransfers(-1);
+
+        assertThat(builder.getArchiveBatchSize(), equalTo(ApkArchiver.DEFAULT_BATCH_SIZE));
+        assertThat(builder.getMaxArchiveTransfers(), equalTo(ApkArchiver.DEFAULT_MAX_TRANSFERS));
+    }
+
     @Test
     public void identitySubmission() throws Exception {
         SignApksBuilder original = new SignApksBuilder();
@@ -714,7 +1148,7 @@ public class SignApksBuilderTest {
         String jobUrl = job.getUrl();
         String checkUrl = jobUrl + "/" + desc.getDescriptorUrl() + "/checkApksToSign?value=" + URLEncoder.encode("**/*-unsigned.apk, no_match-*.apk", "utf-8");
         JenkinsRule.WebClient browser = testJenkins.createWebClient();
-        String pageText = browser.goTo(checkUrl).asText();
+        String pageText = checkApksToSign(browser, checkUrl);
 
         FilePath workspace = build.getWorkspace();
         String validationMessage = workspace.validateAntFileMask("no_match-*.apk", FilePath.VALIDATE_ANT_FILE_MASK_BOUND);
@@ -722,8 +1156,9 @@ public class SignApksBuilderTest {
 
         workspace.deleteContents();
         workspace.createTempFile("no_match-", ".apk");
+        ApkGlobValidation.INSTANCE.clear();
 
-        pageText = browser.goTo(checkUrl).asText();
+        pageText = checkApksToSign(browser, checkUrl);
 
         validationMessage = workspace.validateAntFileMask("**/*-unsigned.apk", FilePath.VALIDATE_ANT_FILE_MASK_BOUND);
         assertThat(pageText, containsString(validationMessage));
@@ -753,13 +1188,51 @@ public class SignApksBuilderTest {
         SignApksBuilder.SignApksDescriptor desc = (SignApksBuilder.SignApksDescriptor) testJenkins.jenkins.getDescriptor(SignApksBuilder.class);
         String jobUrl = job.getUrl();
         String checkUrl = jobUrl + "/" + desc.getDescriptorUrl() + "/checkApksToSign?value=" + URLEncoder.encode("**/*-unsigned.apk", "utf-8");
-        HtmlPage page = testJenkins.createWebClient().goTo(checkUrl);
-        String pageText = page.asText();
+        String pageText = checkApksToSign(testJenkins.createWebClient(), checkUrl);
 
         assertThat(pageText, not(containsString(InterruptedException.class.getSimpleName())));
         assertThat(pageText, containsString(Messages.validation_globSearchLimitReached(FilePath.VALIDATE_ANT_FILE_MASK_BOUND)));
     }
 
+    @Test
+    public void cachesApksToSignScansPerGlob() throws Exception {
+
+        FreeStyleProject job = createSignApkJob();
+        Build build = testJenkins.buildAndAssertSuccess(job);
+        FilePath workspace = build.getWorkspace();
+        String noMatch = workspace.validateAntFileMask("no_match-*.apk", FilePath.VALIDATE_ANT_FILE_MASK_BOUND);
+
+        SignApksBuilder.SignApksDescriptor desc = (SignApksBuilder.SignApksDescriptor) testJenkins.jenkins.getDescriptor(SignApksBuilder.class);
+        String checkUrl = job.getUrl() + "/" + desc.getDescriptorUrl() + "/checkApksToSign?value=" + URLEncoder.encode("no_match-*.apk", "utf-8");
+        JenkinsRule.WebClient browser = testJenkins.createWebClient();
+        assertThat(checkApksToSign(browser, checkUrl), containsString(noMatch));
+
+        workspace.createTempFile("no_match-", ".apk");
+
+        assertThat(checkApksToSign(browser, checkUrl), containsString(noMatch));
+
+        String otherGlobUrl = job.getUrl() + "/" + desc.getDescriptorUrl() + "/checkApksToSign?value=" + URLEncoder.encode("*-unsigned.apk, no_match-*.apk", "utf-8");
+        assertThat(checkApksToSign(browser, otherGlobUrl), containsString(noMatch));
+
+        ApkGlobValidation.INSTANCE.clear();
+
+        assertThat(checkApksToSign(browser, checkUrl), not(containsString(noMatch)));
+    }
+
+    /**
+     * Check the {@code apksToSign} field until the scans of its globs finish, as re-editing the field would.
+     */
+    private String checkApksToSign(JenkinsRule.WebClient browser, String checkUrl) throws Exception {
+        String scanning = Messages.validation_scanningWorkspace("|").split("\\|")[0];
+        long deadline = System.currentTimeMillis() + 60000;
+        String pageText = browser.goTo(checkUrl).asText();
+        while (pageText.startsWith(scanning) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            pageText = browser.goTo(checkUrl).asText();
+        }
+        return pageText;
+    }
+
     @Test
     public void usesKeyStoreIdIfDescriptionIsNotPresent() throws Exception {
 
@@ -887,6 +1360,164 @@ public class SignApksBuilderTest {
         multiKeyStore.removeCredentials();
     }
 
+    @Test
+    public void signsWithAdditionalSignersInOnePass() throws Exception {
+
+        TestKeyStore multiKeyStore = new TestKeyStore(testJenkins,
+            "/SignApksBuilderTestMulti.p12", "multiKey", null, "SignApksBuilderTest");
+        multiKeyStore.addCredentials();
+
+        AdditionalSigner additionalSigner = new AdditionalSigner("multiKey");
+        additionalSigner.setKeyAlias("SignApksBuilderTest2");
+
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("*-unsigned.apk");
+        builder.setAdditionalSigners(Collections.singletonList(additionalSigner));
+
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+        Run.Artifact signedApkArtifact = build.getArtifacts().get(0);
+        FilePath signedApk = build.getWorkspace().createTempFile("additional-signers-", ".apk");
+        signedApk.copyFrom(build.getArtifactManager().root().child(signedApkArtifact.relativePath).open());
+        VerifyApkCallable.VerifyResult result = signedApk.act(new VerifyApkCallable(TaskListener.NULL));
+
+        assertTrue(result.isVerified);
+        assertTrue(result.isVerifiedV1Scheme);
+        assertTrue(result.isVerifiedV2Scheme);
+        assertThat(result.certs.length, equalTo(2));
+        assertThat(Arrays.asList(result.certs), hasItems(
+            (X509Certificate) keyStoreRule.credentials.getKeyStore().getCertificate(KEY_ALIAS),
+            (X509Certificate) multiKeyStore.credentials.getKeyStore().getCertificate("SignApksBuilderTest2")));
+        testJenkins.assertLogContains("disabling v3 signature scheme for 2 signers", build);
+
+        multiKeyStore.removeCredentials();
+    }
+
+    @Test
+    public void signsWithTheRotatedKeyOfASigningCertificateLineage() throws Exception {
+
+        TestKeyStore multiKeyStore = new TestKeyStore(testJenkins,
+            "/SignApksBuilderTestMulti.p12", "multiKey", null, "SignApksBuilderTest");
+        multiKeyStore.addCredentials();
+
+        KeyStore oldKeyStore = multiKeyStore.credentials.getKeyStore();
+        X509Certificate oldCert = (X509Certificate) oldKeyStore.getCertificate("SignApksBuilderTest2");
+        PrivateKey oldKey = (PrivateKey) oldKeyStore.getKey("SignApksBuilderTest2", multiKeyStore.password.toCharArray());
+        KeyStore newKeyStore = keyStoreRule.credentials.getKeyStore();
+        X509Certificate newCert = (X509Certificate) newKeyStore.getCertificate(KEY_ALIAS);
+        PrivateKey newKey = (PrivateKey) newKeyStore.getKey(KEY_ALIAS, keyStoreRule.password.toCharArray());
+        File lineageFile = testDir.newFile("rotation.lineage");
+        new SigningCertificateLineage.Builder(
+            new SigningCertificateLineage.SignerConfig.Builder(oldKey, oldCert).build(),
+            new SigningCertificateLineage.SignerConfig.Builder(newKey, newCert).build())
+            .build().writeToFile(lineageFile);
+
+        AdditionalSigner oldSigner = new AdditionalSigner("multiKey");
+        oldSigner.setKeyAlias("SignApksBuilderTest2");
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setAdditionalSigners(Collections.singletonList(oldSigner));
+        builder.setApksToSign("SignApksBuilderTest-unsigned.apk");
+        builder.setSigningCertificateLineage("rotation.lineage");
+
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                build.getWorkspace().child("rotation.lineage").copyFrom(new FilePath(lineageFile));
+                return true;
+            }
+        });
+        job.getBuildersList().add(builder);
+
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+        Run.Artifact signedApkArtifact = build.getArtifacts().get(0);
+        FilePath signedApk = build.getWorkspace().createTempFile("rotated-signer-", ".apk");
+        signedApk.copyFrom(build.getArtifactManager().root().child(signedApkArtifact.relativePath).open());
+        VerifyApkCallable.VerifyResult result = signedApk.act(new VerifyApkCallable(TaskListener.NULL));
+
+        assertTrue(result.isVerified);
+        assertTrue(result.isVerifiedV3Scheme);
+        assertThat(Arrays.asList(result.certs), equalTo(Collections.singletonList(newCert)));
+        assertThat(Arrays.asList(result.lineageCerts), equalTo(Arrays.asList(oldCert, newCert)));
+        testJenkins.assertLogNotContains("disabling v3 signature scheme", build);
+
+        multiKeyStore.removeCredentials();
+    }
+
+    @Test
+    public void signsApksWithTheFirstMatchingSigningRule() throws Exception {
+
+        TestKeyStore multiKeyStore = new TestKeyStore(testJenkins,
+            "/SignApksBuilderTestMulti.p12", "multiKey", null, "SignApksBuilderTest");
+        multiKeyStore.addCredentials();
+
+        SigningRule chocolateRule = new SigningRule("*-chocolate_flavor.apk", "multiKey");
+        chocolateRule.setKeyAlias("SignApksBuilderTest2");
+        SigningRule shadowedRule = new SigningRule("SignApksBuilderTest-*.apk", "multiKey");
+        shadowedRule.setKeyAlias("SignApksBuilderTest");
+
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("SignApksBuilderTest-*.apk");
+        builder.setSigningRules(Arrays.asList(chocolateRule, shadowedRule));
+
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+
+        FreeStyleBuild build = testJenkins.buildAndAssertSuccess(job);
+        List<Run<FreeStyleProject,FreeStyleBuild>.Artifact> artifacts = build.getArtifacts();
+
+        assertThat(artifacts.size(), equalTo(2));
+        Run.Artifact chocolateArtifact = artifacts.stream().filter(a -> a.getFileName().contains("chocolate")).findFirst().get();
+        Run.Artifact otherArtifact = artifacts.stream().filter(a -> !a.getFileName().contains("chocolate")).findFirst().get();
+
+        assertThat(chocolateArtifact.relativePath, startsWith(SignApksBuilder.BUILDER_DIR + "/multiKey/SignApksBuilderTest2/"));
+        assertThat(buildArtifact(build, chocolateArtifact), isSignedWith("multiKey", "SignApksBuilderTest2"));
+        assertThat(otherArtifact.relativePath, startsWith(SignApksBuilder.BUILDER_DIR + "/multiKey/SignApksBuilderTest/"));
+        assertThat(buildArtifact(build, otherArtifact), isSignedWith("multiKey", "SignApksBuilderTest"));
+        assertThat(zipalignLauncher.lastProc, notNullValue());
+
+        multiKeyStore.removeCredentials();
+    }
+
+    @Test
+    public void abortsWhenASigningRuleMatchesNothing() throws Exception {
+
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setSigningRules(Collections.singletonList(new SigningRule("no-such-*.apk", KEY_STORE_ID)));
+
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+
+        FreeStyleBuild build = testJenkins.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0));
+
+        testJenkins.assertLogContains("No APKs in workspace matching no-such-*.apk", build);
+    }
+
+    @Test
+    public void abortsWhenSigningCertificateLineageDoesNotExist() throws Exception {
+
+        SignApksBuilder builder = new SignApksBuilder();
+        builder.setKeyStoreId(KEY_STORE_ID);
+        builder.setKeyAlias(KEY_ALIAS);
+        builder.setApksToSign("*-unsigned.apk");
+        builder.setSigningCertificateLineage("no-such-lineage.bin");
+
+        FreeStyleProject job = createSignApkJob();
+        job.getBuildersList().add(builder);
+
+        FreeStyleBuild build = testJenkins.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0));
+
+        testJenkins.assertLogContains("signing certificate lineage file does not exist", build);
+    }
+
     @Test
     public void failsWhenAliasIsNullAndMultipleKeysArePresent() throws Exception {
 
@@ -8,22 +8,42 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.RuleChain;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+import org.jvnet.hudson.test.MockQueueItemAuthenticator;
 import org.jvnet.hudson.test.PretendSlave;
+import org.jvnet.hudson.test.TestExtension;
 
 import java.io.File;
 import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import hudson.EnvVars;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Item;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Result;
 import hudson.model.Run;
+import hudson.model.User;
+import hudson.model.queue.CauseOfBlockage;
 import hudson.slaves.EnvironmentVariablesNodeProperty;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import jenkins.model.Jenkins;
+import jenkins.security.QueueItemAuthenticatorConfiguration;
 
 import static org.hamcrest.CoreMatchers.endsWith;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -54,6 +74,19 @@ public class SignApksStepTest {
         slave.setLabelString(slave.getLabelString() + " " + getClass().getSimpleName());
     }
 
+    /**
+     * Run the builds of the given job as the given user, as the Authorize Project plugin would, with alice allowed to
+     * do anything and bob only to read and build.
+     */
+    private void runAs(WorkflowJob job, String user) {
+        testJenkins.jenkins.setSecurityRealm(testJenkins.createDummySecurityRealm());
+        testJenkins.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+            .grant(Jenkins.ADMINISTER).everywhere().to("alice")
+            .grant(Jenkins.READ, Item.READ, Computer.BUILD).everywhere().to("bob"));
+        QueueItemAuthenticatorConfiguration.get().getAuthenticators().add(
+            new MockQueueItemAuthenticator(Collections.singletonMap(job.getFullName(), User.get(user).impersonate())));
+    }
+
     @Test
     public void dslWorks() throws Exception {
         WorkflowJob job = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
@@ -82,6 +115,65 @@ public class SignApksStepTest {
         assertThat(zipalign.lastProc.cmds().get(0), startsWith(androidHome));
     }
 
+    @Test
+    public void returnsTheSignedApksAndArchivesEachAsSoonAsItIsSigned() throws Exception {
+        WorkflowJob job = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
+        job.setDefinition(new CpsFlowDefinition(String.format(
+            "node('%s') {%n" +
+            "  wrap($class: 'CopyTestWorkspace') {%n" +
+            "    def signed = signAndroidApks(" +
+            "      keyStoreId: '%s',%n" +
+            "      keyAlias: '%s',%n" +
+            "      apksToSign: '*-unsigned.apk, **/*-release-unsigned.apk',%n" +
+            "      archiveIncrementally: true%n" +
+            "    )%n" +
+            "    echo \"signed ${signed.size()} APKs\"%n" +
+            "    echo \"signedApk=${signed[0].signedApk}\"%n" +
+            "    echo \"unsignedApk=${signed[0].unsignedApk}\"%n" +
+            "    echo \"signedApkSha256=${signed[0].signedApkSha256}\"%n" +
+            "    echo \"certificateSha256=${signed[0].certificateSha256}\"%n" +
+            "    echo \"listed=${readFile('SignApksBuilder-out/signed-apks.tsv').readLines()[0].split('\\t').join(',')}\"%n" +
+            "  }%n" +
+            "}", getClass().getSimpleName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS)));
+
+        WorkflowRun build = testJenkins.buildAndAssertSuccess(job);
+        Run.Artifact signedArtifact = build.getArtifacts().stream()
+            .filter(artifact -> artifact.getFileName().equals("SignApksBuilderTest.apk")).findFirst().get();
+        byte[] signedApk = Files.readAllBytes(new File(build.getArtifactsDir(), signedArtifact.relativePath).toPath());
+        String signedApkSha256 = Util.toHexString(MessageDigest.getInstance("SHA-256").digest(signedApk));
+        String certificateSha256 = SignedApk.sha256Of(testKeyStore.credentials.getKeyStore().getCertificate(TestKeyStore.KEY_ALIAS));
+
+        testJenkins.assertLogContains("signed 2 APKs", build);
+        testJenkins.assertLogContains("signedApk=SignApksBuilderTest.apk", build);
+        testJenkins.assertLogContains("unsignedApk=SignApksBuilderTest-unsigned.apk", build);
+        testJenkins.assertLogContains("signedApkSha256=" + signedApkSha256, build);
+        testJenkins.assertLogContains("certificateSha256=" + certificateSha256, build);
+        testJenkins.assertLogContains("listed=SignApksBuilderTest-unsigned.apk,SignApksBuilderTest.apk," + signedApkSha256 + "," + certificateSha256, build);
+
+        String log = JenkinsRule.getLog(build);
+        assertThat(log.indexOf("archiving signed APK SignApksBuilderTest.apk"), lessThan(log.indexOf("aligned-app-release-unsigned")));
+        assertThat(build.getArtifacts().size(), equalTo(2));
+    }
+
+    @Test
+    public void listsTheApksOfEverySigningStepInTheBuild() throws Exception {
+        WorkflowJob job = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
+        job.setDefinition(new CpsFlowDefinition(String.format(
+            "node('%s') {%n" +
+            "  wrap($class: 'CopyTestWorkspace') {%n" +
+            "    signAndroidApks(keyStoreId: '%s', keyAlias: '%s', apksToSign: '*-unsigned.apk')%n" +
+            "    signAndroidApks(keyStoreId: '%s', keyAlias: '%s', apksToSign: '**/*-release-unsigned.apk')%n" +
+            "    echo \"listed ${readFile('SignApksBuilder-out/signed-apks.tsv').readLines().size()} APKs\"%n" +
+            "  }%n" +
+            "}", getClass().getSimpleName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS, TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS)));
+
+        WorkflowRun first = testJenkins.buildAndAssertSuccess(job);
+        WorkflowRun second = testJenkins.buildAndAssertSuccess(job);
+
+        testJenkins.assertLogContains("listed 2 APKs", first);
+        testJenkins.assertLogContains("listed 2 APKs", second);
+    }
+
     @Test
     public void setsAndroidHomeFromEnvVarsIfNotSpecifiedInScript() throws Exception {
         WorkflowJob job = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
@@ -248,4 +340,273 @@ public class SignApksStepTest {
         assertThat(artifacts.size(), equalTo(1));
         assertThat(artifacts.get(0).getFileName(), equalTo("TestSignedApkMapping-SignApksBuilderTest-unsigned.apk"));
     }
+
+    @Test
+    public void distributesShardsToNodesMatchingLabel() throws Exception {
+        WorkflowJob job = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
+        job.setDefinition(new CpsFlowDefinition(String.format(
+            "node('%s') {%n" +
+            "  wrap($class: 'CopyTestWorkspace') {%n" +
+            "    signAndroidApks(" +
+            "      keyStoreId: '%s',%n" +
+            "      keyAlias: '%s',%n" +
+            "      apksToSign: '**/*-unsigned.apk',%n" +
+            "      distributeToLabel: '%s',%n" +
+            "      shardSize: 1%n" +
+            "    )%n" +
+            "  }%n" +
+            "}", getClass().getSimpleName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS, getClass().getSimpleName())));
+
+        WorkflowRun build = testJenkins.buildAndAssertSuccess(job);
+        List<String> artifactNames = build.getArtifacts().stream().map(Run.Artifact::getFileName).collect(Collectors.toList());
+
+        assertThat(artifactNames.size(), equalTo(3));
+        assertThat(artifactNames, hasItem(endsWith("SignApksBuilderTest.apk")));
+        assertThat(artifactNames, hasItem(endsWith("app-release.apk")));
+        assertThat(artifactNames, hasItem(endsWith("app-debug.apk")));
+        testJenkins.assertLogContains("signing 3 APKs in 3 shards on 1 nodes", build);
+        testJenkins.assertLogContains("shard 3/3: 1 APKs on " + slave.getDisplayName(), build);
+    }
+
+    public static class RefuseBuildsProperty extends NodeProperty<Node> {
+        @Override
+        public CauseOfBlockage canTake(Queue.BuildableItem item) {
+            return new CauseOfBlockage() {
+                @Override
+                public String getShortDescription() {
+                    return "refuses builds for the test";
+                }
+            };
+        }
+
+        @TestExtension("skipsNodesThatWouldNotTakeTheJob")
+        public static class DescriptorImpl extends NodePropertyDescriptor {
+        }
+    }
+
+    @Test
+    public void skipsNodesThatWouldNotTakeTheJob() throws Exception {
+        PretendSlave refusing = testJenkins.createPretendSlave(zipalign);
+        refusing.setLabelString(refusing.getLabelString() + " " + getClass().getSimpleName());
+        refusing.getNodeProperties().add(new RefuseBuildsProperty());
+
+        WorkflowJob job = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
+        job.setDefinition(new CpsFlowDefinition(String.format(
+            "node('%s') {%n" +
+            "  wrap($class: 'CopyTestWorkspace') {%n" +
+            "    signAndroidApks(" +
+            "      keyStoreId: '%s',%n" +
+            "      keyAlias: '%s',%n" +
+            "      apksToSign: '**/*-unsigned.apk',%n" +
+            "      distributeToLabel: '%s',%n" +
+            "      shardSize: 1%n" +
+            "    )%n" +
+            "  }%n" +
+            "}", slave.getNodeName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS, getClass().getSimpleName())));
+
+        WorkflowRun build = testJenkins.buildAndAssertSuccess(job);
+
+        testJenkins.assertLogContains("not signing on node " + refusing.getDisplayName() + ": refuses builds for the test", build);
+        testJenkins.assertLogContains("signing 3 APKs in 3 shards on 1 nodes", build);
+        testJenkins.assertLogNotContains("APKs on " + refusing.getDisplayName(), build);
+    }
+
+    @Test
+    public void stoppingTheStepAbortsTheRunningZipalign() throws Exception {
+        zipalign.hang = true;
+        WorkflowJob job = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
+        job.setDefinition(new CpsFlowDefinition(String.format(
+            "node('%s') {%n" +
+            "  wrap($class: 'CopyTestWorkspace') {%n" +
+            "    signAndroidApks(" +
+            "      keyStoreId: '%s',%n" +
+            "      keyAlias: '%s',%n" +
+            "      apksToSign: 'SignApksBuilderTest-unsigned.apk'%n" +
+            "    )%n" +
+            "  }%n" +
+            "}", getClass().getSimpleName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS)));
+
+        WorkflowRun run = job.scheduleBuild2(0).waitForStart();
+        testJenkins.waitForMessage("-f -p 4", run);
+        long stopTime = System.currentTimeMillis();
+        run.doStop();
+        testJenkins.assertBuildStatus(Result.ABORTED, testJenkins.waitForCompletion(run));
+
+        assertThat(System.currentTimeMillis() - stopTime, lessThan(TimeUnit.SECONDS.toMillis(SignApksStep.SignApksStepExecution.STOP_TIMEOUT_SECONDS)));
+        testJenkins.assertLogNotContains("signed APK", run);
+        testJenkins.assertLogNotContains("did not stop within", run);
+    }
+
+    @Test
+    public void killsAStuckZipalignAfterTheApkTimeoutAndRetriesIt() throws Exception {
+        zipalign.hang = true;
+        WorkflowJob job = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
+        job.setDefinition(new CpsFlowDefinition(String.format(
+            "node('%s') {%n" +
+            "  wrap($class: 'CopyTestWorkspace') {%n" +
+            "    signAndroidApks(" +
+            "      keyStoreId: '%s',%n" +
+            "      keyAlias: '%s',%n" +
+            "      apksToSign: 'SignApksBuilderTest-unsigned.apk',%n" +
+            "      apkTimeoutSeconds: 1,%n" +
+            "      timeoutRetries: 1%n" +
+            "    )%n" +
+            "  }%n" +
+            "}", getClass().getSimpleName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS)));
+
+        WorkflowRun run = testJenkins.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0));
+
+        testJenkins.assertLogContains("zipalign of APK SignApksBuilderTest-unsigned.apk timed out after 1 s; retrying APK SignApksBuilderTest-unsigned.apk on fresh scratch files (attempt 2 of 2)", run);
+        testJenkins.assertLogContains("timed out 2 zipalign runs and 0 signings; retried 1 APKs", run);
+        testJenkins.assertLogNotContains("signed APK", run);
+    }
+
+    @Test
+    public void resignsArchivedApksWithANewKeyAndSkipsThemWhenRunAgain() throws Exception {
+        TestKeyStore newKey = new TestKeyStore(testJenkins, TestKeyStore.KEY_STORE_RESOURCE, "newKey", null, TestKeyStore.KEY_ALIAS);
+        newKey.addCredentials();
+        WorkflowJob signing = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
+        signing.setDefinition(new CpsFlowDefinition(String.format(
+            "node('%s') {%n" +
+            "  wrap($class: 'CopyTestWorkspace') {%n" +
+            "    signAndroidApks(" +
+            "      keyStoreId: '%s',%n" +
+            "      keyAlias: '%s',%n" +
+            "      apksToSign: 'SignApksBuilderTest-unsigned.apk',%n" +
+            "      archiveUnsignedApks: true%n" +
+            "    )%n" +
+            "  }%n" +
+            "}", getClass().getSimpleName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS)));
+        WorkflowRun signed = testJenkins.buildAndAssertSuccess(signing);
+
+        WorkflowJob resigning = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName() + "-resign");
+        runAs(resigning, "alice");
+        resigning.setDefinition(new CpsFlowDefinition(String.format(
+            "def summary = resignArchivedAndroidApks(" +
+            "  jobs: '%s',%n" +
+            "  fromKeyStoreId: '%s',%n" +
+            "  fromKeyAlias: '%s',%n" +
+            "  keyStoreId: 'newKey',%n" +
+            "  keyAlias: '%s',%n" +
+            "  workers: 2%n" +
+            ")%n" +
+            "echo \"resigned=${summary.resignedApks} skipped=${summary.skippedApks}\"%n",
+            signing.getFullName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS, TestKeyStore.KEY_ALIAS)));
+
+        WorkflowRun first = testJenkins.buildAndAssertSuccess(resigning);
+        WorkflowRun second = testJenkins.buildAndAssertSuccess(resigning);
+
+        String resignedPath = "SignApksBuilder-out/newKey/" + TestKeyStore.KEY_ALIAS + "/SignApksBuilderTest-unsigned.apk/SignApksBuilderTest.apk";
+        assertThat(signed.getArtifactManager().root().child(resignedPath).isFile(), equalTo(true));
+        testJenkins.assertLogContains("resigned=1 skipped=0", first);
+        testJenkins.assertLogContains("resigned=0 skipped=1", second);
+    }
+
+    @Test
+    public void refusesToResignTheBuildsOfJobsItMayNotUpdate() throws Exception {
+        WorkflowJob signing = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
+        String script = String.format(
+            "resignArchivedAndroidApks(jobs: '%s', fromKeyStoreId: '%s', fromKeyAlias: '%s', keyStoreId: '%s', keyAlias: '%s')%n",
+            signing.getFullName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS, TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS);
+
+        WorkflowJob asSystem = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName() + "-system");
+        asSystem.setDefinition(new CpsFlowDefinition(script));
+        WorkflowRun refused = asSystem.scheduleBuild2(0).get();
+        testJenkins.assertBuildStatus(Result.FAILURE, refused);
+        testJenkins.assertLogContains("this build runs as SYSTEM", refused);
+
+        WorkflowJob asReader = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName() + "-reader");
+        asReader.setDefinition(new CpsFlowDefinition(script));
+        runAs(asReader, "bob");
+        refused = asReader.scheduleBuild2(0).get();
+        testJenkins.assertBuildStatus(Result.FAILURE, refused);
+        testJenkins.assertLogContains("bob may not update its builds", refused);
+    }
+
+    @Test
+    public void resignsApksArchivedWithTheSignedApkAsADelta() throws Exception {
+        TestKeyStore newKey = new TestKeyStore(testJenkins, TestKeyStore.KEY_STORE_RESOURCE, "newKey", null, TestKeyStore.KEY_ALIAS);
+        newKey.addCredentials();
+        WorkflowJob signing = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
+        signing.setDefinition(new CpsFlowDefinition(String.format(
+            "node('%s') {%n" +
+            "  wrap($class: 'CopyTestWorkspace') {%n" +
+            "    signAndroidApks(" +
+            "      keyStoreId: '%s',%n" +
+            "      keyAlias: '%s',%n" +
+            "      apksToSign: 'SignApksBuilderTest-unsigned.apk',%n" +
+            "      signedApkMapping: [$class: 'TestSignedApkMapping'],%n" +
+            "      archiveUnsignedApks: true,%n" +
+            "      deltaArchiving: 'SIGNED_AGAINST_UNSIGNED'%n" +
+            "    )%n" +
+            "  }%n" +
+            "}", getClass().getSimpleName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS)));
+        WorkflowRun signed = testJenkins.buildAndAssertSuccess(signing);
+        String archivedDir = "SignApksBuilder-out/" + TestKeyStore.KEY_STORE_ID + "/" + TestKeyStore.KEY_ALIAS + "/SignApksBuilderTest-unsigned.apk/";
+        assertThat(signed.getArtifactManager().root().child(archivedDir + "TestSignedApkMapping-SignApksBuilderTest-unsigned.apk" + ApkDelta.EXTENSION).isFile(), equalTo(true));
+
+        WorkflowJob resigning = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName() + "-resign");
+        runAs(resigning, "alice");
+        resigning.setDefinition(new CpsFlowDefinition(String.format(
+            "resignArchivedAndroidApks(jobs: '%s', fromKeyStoreId: '%s', fromKeyAlias: '%s', keyStoreId: 'newKey', keyAlias: '%s')%n",
+            signing.getFullName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS, TestKeyStore.KEY_ALIAS)));
+        testJenkins.buildAndAssertSuccess(resigning);
+
+        // the re-signed APK keeps the name of the signed APK the delta rebuilds, not the default sibling name
+        String resignedDir = "SignApksBuilder-out/newKey/" + TestKeyStore.KEY_ALIAS + "/SignApksBuilderTest-unsigned.apk/";
+        assertThat(signed.getArtifactManager().root().child(resignedDir + "TestSignedApkMapping-SignApksBuilderTest-unsigned.apk").isFile(), equalTo(true));
+        assertThat(signed.getArtifactManager().root().child(resignedDir + "SignApksBuilderTest.apk").exists(), equalTo(false));
+
+        // without the unsigned APK, the delta cannot be rebuilt, so the build fails to re-sign instead of being skipped
+        WorkflowRun deltaOnly = testJenkins.buildAndAssertSuccess(signing);
+        assertThat(new File(deltaOnly.getArtifactsDir(), archivedDir + "SignApksBuilderTest-unsigned.apk").delete(), equalTo(true));
+        WorkflowRun failed = resigning.scheduleBuild2(0).get();
+        testJenkins.assertBuildStatus(Result.FAILURE, failed);
+        testJenkins.assertLogContains("only a delta of it was archived", failed);
+    }
+
+    @Test
+    public void verifiesSignedApksAgainstTheExpectedCertificateAndSchemes() throws Exception {
+        String certificateSha256 = SignedApk.sha256Of(testKeyStore.credentials.getKeyStore().getCertificate(TestKeyStore.KEY_ALIAS));
+        WorkflowJob job = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
+        job.setDefinition(new CpsFlowDefinition(String.format(
+            "node('%s') {%n" +
+            "  wrap($class: 'CopyTestWorkspace') {%n" +
+            "    signAndroidApks(keyStoreId: '%s', keyAlias: '%s', apksToSign: '*-unsigned.apk, **/*-release-unsigned.apk')%n" +
+            "    def verified = verifyAndroidApks(" +
+            "      apksToVerify: 'SignApksBuilderTest.apk, **/app-release.apk',%n" +
+            "      expectedCertificateSha256: '%s',%n" +
+            "      requireV2Scheme: true,%n" +
+            "      verificationThreads: 2%n" +
+            "    )%n" +
+            "    echo \"verified ${verified.size()} APKs\"%n" +
+            "  }%n" +
+            "}", getClass().getSimpleName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS, certificateSha256.toUpperCase())));
+
+        WorkflowRun build = testJenkins.buildAndAssertSuccess(job);
+
+        testJenkins.assertLogContains("verified 2 APKs", build);
+        ApkVerificationAction action = build.getAction(ApkVerificationAction.class);
+        assertThat(action.getApks().size(), equalTo(2));
+        assertThat(action.getFailedCount(), equalTo(0));
+    }
+
+    @Test
+    public void verifiesEveryApkBeforeFailingForAnUnexpectedCertificate() throws Exception {
+        WorkflowJob job = testJenkins.jenkins.createProject(WorkflowJob.class, getClass().getSimpleName());
+        job.setDefinition(new CpsFlowDefinition(String.format(
+            "node('%s') {%n" +
+            "  wrap($class: 'CopyTestWorkspace') {%n" +
+            "    signAndroidApks(keyStoreId: '%s', keyAlias: '%s', apksToSign: '*-unsigned.apk, **/*-release-unsigned.apk')%n" +
+            "    verifyAndroidApks(apksToVerify: 'SignApksBuilderTest.apk, **/app-release.apk', expectedCertificateSha256: '00:11:22')%n" +
+            "  }%n" +
+            "}", getClass().getSimpleName(), TestKeyStore.KEY_STORE_ID, TestKeyStore.KEY_ALIAS)));
+
+        WorkflowRun build = testJenkins.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0).get());
+
+        testJenkins.assertLogContains("FAILED SignApksBuilderTest.apk", build);
+        testJenkins.assertLogContains("2 of 2 APKs failed verification", build);
+        ApkVerificationAction action = build.getAction(ApkVerificationAction.class);
+        assertThat(action.getFailedCount(), equalTo(2));
+    }
 }
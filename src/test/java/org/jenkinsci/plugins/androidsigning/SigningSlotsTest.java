@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.androidsigning;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+
+public class SigningSlotsTest {
+
+    @Rule
+    public JenkinsRule testJenkins = new JenkinsRule();
+
+    private static int queueLength() {
+        int queued = 0;
+        for (SigningSlots.Snapshot snapshot : SigningSlots.snapshots()) {
+            for (SigningSlots.WaitStats stats : snapshot.stats.values()) {
+                queued += stats.waiting;
+            }
+        }
+        return queued;
+    }
+
+    private static void awaitQueueLength(int length) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queueLength() < length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(queueLength(), equalTo(length));
+    }
+
+    private static Callable<Void> signWith(FilePath node, SigningPriority priority, List<SigningPriority> signed) {
+        return () -> {
+            try (SigningSlots.Slot slot = SigningSlots.acquire(node, priority, new SigningMetrics(), TaskListener.NULL)) {
+                signed.add(priority);
+            }
+            return null;
+        };
+    }
+
+    @Test
+    public void givesAFreedSlotToTheHighestPriorityWaiter() throws Exception {
+        testJenkins.jenkins.getNodeProperties().add(new SigningConcurrencyNodeProperty(1));
+        FilePath controller = testJenkins.jenkins.getRootPath();
+        List<SigningPriority> signed = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService waiters = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<Void>> waiting = new ArrayList<>();
+            try (SigningSlots.Slot held = SigningSlots.acquire(controller, SigningPriority.NORMAL, new SigningMetrics(), TaskListener.NULL)) {
+                waiting.add(waiters.submit(signWith(controller, SigningPriority.LOW, signed)));
+                awaitQueueLength(1);
+                waiting.add(waiters.submit(signWith(controller, SigningPriority.NORMAL, signed)));
+                awaitQueueLength(2);
+                waiting.add(waiters.submit(signWith(controller, SigningPriority.HIGH, signed)));
+                awaitQueueLength(3);
+            }
+            for (Future<Void> waiter : waiting) {
+                waiter.get(10, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            waiters.shutdownNow();
+        }
+
+        assertThat(signed, contains(SigningPriority.HIGH, SigningPriority.NORMAL, SigningPriority.LOW));
+    }
+
+    @Test
+    public void reportsTheQueueThroughTheApi() throws Exception {
+        testJenkins.jenkins.getNodeProperties().add(new SigningConcurrencyNodeProperty(2));
+        try (SigningSlots.Slot held = SigningSlots.acquire(testJenkins.jenkins.getRootPath(), SigningPriority.HIGH, new SigningMetrics(), TaskListener.NULL)) {
+            String json = testJenkins.createWebClient().goTo(SigningQueueAction.URL_NAME + "/api/json?depth=1", "application/json")
+                .getWebResponse().getContentAsString();
+
+            JSONObject node = null;
+            for (Object candidate : JSONObject.fromObject(json).getJSONArray("nodes")) {
+                if (((JSONObject) candidate).getInt("slots") == 2) {
+                    node = (JSONObject) candidate;
+                }
+            }
+            assertThat(node.getInt("slotsInUse"), equalTo(1));
+            assertThat(node.getInt("queueLength"), equalTo(0));
+            JSONArray priorities = node.getJSONArray("priorities");
+            assertThat(priorities.size(), equalTo(SigningPriority.values().length));
+            assertThat(priorities.getJSONObject(0).getString("priority"), equalTo("HIGH"));
+            assertThat(priorities.getJSONObject(0).getLong("signings"), equalTo(1L));
+        }
+    }
+
+    private static List<String> nodesWithQueues() {
+        List<String> nodes = new ArrayList<>();
+        for (SigningSlots.Snapshot snapshot : SigningSlots.snapshots()) {
+            nodes.add(snapshot.node + "/" + snapshot.slots);
+        }
+        return nodes;
+    }
+
+    @Test
+    public void forgetsTheQueuesOfDeletedAndReconfiguredNodesOnceIdle() throws Exception {
+        DumbSlave agent = testJenkins.createOnlineSlave();
+        agent.getNodeProperties().add(new SigningConcurrencyNodeProperty(3));
+        FilePath onAgent = agent.getRootPath();
+        SigningSlots.acquire(onAgent, SigningPriority.NORMAL, new SigningMetrics(), TaskListener.NULL).close();
+        assertThat(nodesWithQueues(), hasItem(agent.getDisplayName() + "/3"));
+
+        SigningSlots.Slot held = SigningSlots.acquire(onAgent, SigningPriority.NORMAL, new SigningMetrics(), TaskListener.NULL);
+        agent.getNodeProperties().replace(new SigningConcurrencyNodeProperty(4));
+        assertThat("a queue in use stays", nodesWithQueues(), hasItem(agent.getDisplayName() + "/3"));
+        held.close();
+        assertThat(nodesWithQueues(), not(hasItem(agent.getDisplayName() + "/3")));
+
+        SigningSlots.acquire(onAgent, SigningPriority.NORMAL, new SigningMetrics(), TaskListener.NULL).close();
+        assertThat(nodesWithQueues(), hasItem(agent.getDisplayName() + "/4"));
+        testJenkins.jenkins.removeNode(agent);
+        assertThat(nodesWithQueues(), not(hasItem(agent.getDisplayName() + "/4")));
+    }
+}
@@ -31,6 +31,7 @@ class VerifyApkCallable extends MasterToSlaveFileCallable<VerifyApkCallable.Veri
         boolean isVerifiedV3Scheme;
         boolean containsErrors;
         X509Certificate[] certs;
+        X509Certificate[] lineageCerts = new X509Certificate[0];
         String[] warnings = new String[0];
         String[] errors = new String[0];
 
@@ -40,6 +41,9 @@ class VerifyApkCallable extends MasterToSlaveFileCallable<VerifyApkCallable.Veri
             this.isVerifiedV2Scheme = result.isVerifiedUsingV2Scheme();
             this.isVerifiedV3Scheme = result.isVerifiedUsingV3Scheme();
             this.certs = result.getSignerCertificates().toArray(new X509Certificate[0]);
+            if (result.getSigningCertificateLineage() != null) {
+                this.lineageCerts = result.getSigningCertificateLineage().getCertificatesInLineage().toArray(lineageCerts);
+            }
             this.containsErrors = result.containsErrors();
             List<String> messages = new ArrayList<>();
             for (ApkVerifier.IssueWithParams issue : result.getWarnings()) {
@@ -8,15 +8,19 @@ import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.recipes.LocalData;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 
 import hudson.model.FreeStyleProject;
 import hudson.tasks.Builder;
 import hudson.util.DescribableList;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 
@@ -91,4 +95,29 @@ public class SignApksBuilderCompatibility_2_0_8_Test {
         builder = (SignApksBuilder) builders.get(2);
         assertThat(builder.getSignedApkMapping(), instanceOf(SignedApkMappingStrategy.UnsignedApkBuilderDirMapping.class));
     }
+
+    @Test
+    @LocalData
+    public void savesTheMigrated_v2_0_8_builders() throws Exception {
+
+        FreeStyleProject job = (FreeStyleProject) testJenkins.jenkins.getItem(getClass().getSimpleName());
+
+        assertThat(job.getConfigFile().asString(), not(containsString("<entries>")));
+    }
+
+    @Test
+    public void migratesAJobCreatedFrom_v2_0_8_config() throws Exception {
+
+        FreeStyleProject job;
+        try (InputStream config = getClass().getResourceAsStream("config-2.0.8.xml")) {
+            job = (FreeStyleProject) testJenkins.jenkins.createProjectFromXML("created-from-2.0.8", config);
+        }
+        DescribableList<Builder,?> builders = job.getBuildersList();
+
+        assertThat(builders.size(), equalTo(5));
+        for (Builder builder : builders) {
+            assertThat(((SignApksBuilder) builder).getEntries(), nullValue());
+        }
+        assertThat(job.getConfigFile().asString(), not(containsString("<entries>")));
+    }
 }
@@ -0,0 +1,72 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+
+public class ApkGlobsTest {
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private File dir;
+
+    private void touch(String path) throws IOException {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+
+    private List<List<String>> stream(List<List<String>> globsByGroup, String excludes, List<String> unmatched) throws Exception {
+        List<List<String>> pathsByGroup = new ArrayList<>();
+        for (int i = 0; i < globsByGroup.size(); i++) {
+            pathsByGroup.add(new ArrayList<>());
+        }
+        unmatched.addAll(ApkGlobs.stream(dir, globsByGroup, excludes, (group, path) -> pathsByGroup.get(group).add(path)));
+        for (List<String> paths : pathsByGroup) {
+            Collections.sort(paths);
+        }
+        return pathsByGroup;
+    }
+
+    @Test
+    public void streamsTheSameMatchesAsAFullScan() throws Exception {
+        dir = tempDir.newFolder("workspace");
+        touch("app-unsigned.apk");
+        touch("app/build/outputs/apk/app-release-unsigned.apk");
+        touch("app/build/outputs/apk/app-debug-unsigned.apk");
+        touch("app/build/outputs/apk/z/app-flavor-unsigned.apk");
+        touch("app/build/outputs/apk/app-release.apk");
+        touch("lib/src/main/Lib.java");
+        touch("SignApksBuilder-out/app-unsigned.apk");
+        touch(".git/objects/stale-unsigned.apk");
+        List<List<String>> globsByGroup = Arrays.asList(
+            Collections.singletonList("**/*-release-unsigned.apk"),
+            Arrays.asList("**/*-unsigned.apk", "app/**/*-release-unsigned.apk"),
+            Collections.singletonList("**/*.aab"));
+        String excludes = "SignApksBuilder-out/**";
+
+        ApkGlobs.Matches matches = ApkGlobs.match(dir, globsByGroup, excludes);
+        List<String> unmatched = new ArrayList<>();
+        List<List<String>> streamed = stream(globsByGroup, excludes, unmatched);
+
+        assertThat(streamed, equalTo(matches.pathsByGroup));
+        assertThat(unmatched, equalTo(matches.unmatchedGlobs));
+        assertThat(streamed.get(1), equalTo(Arrays.asList(
+            "app-unsigned.apk",
+            "app/build/outputs/apk/app-debug-unsigned.apk",
+            "app/build/outputs/apk/z/app-flavor-unsigned.apk")));
+        assertThat(unmatched, equalTo(Collections.singletonList("**/*.aab")));
+    }
+}
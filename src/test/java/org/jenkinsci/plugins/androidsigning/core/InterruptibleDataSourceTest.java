@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.fail;
+
+
+public class InterruptibleDataSourceTest {
+
+    @After
+    public void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    public void readsFromOtherThreadsFailWhenTheCreatingThreadIsInterrupted() throws Exception {
+        AtomicReference<DataSource> source = new AtomicReference<>();
+        CountDownLatch created = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean();
+        // stands in for the signing thread, which waits while apksig digests on pool threads
+        Thread owner = new Thread(() -> {
+            source.set(new InterruptibleDataSource(DataSources.asDataSource(ByteBuffer.wrap(new byte[64]))));
+            created.countDown();
+            while (!done.get()) {
+                LockSupport.park();
+            }
+        });
+        owner.start();
+        try {
+            created.await();
+            DataSource slice = source.get().slice(16, 16);
+            slice.copyTo(0, 8, ByteBuffer.allocate(8));
+
+            owner.interrupt();
+            try {
+                slice.copyTo(0, 8, ByteBuffer.allocate(8));
+                fail("read on another thread did not see the interruption of the creating thread");
+            }
+            catch (InterruptedIOException e) {
+                // expected
+            }
+        }
+        finally {
+            done.set(true);
+            LockSupport.unpark(owner);
+            owner.join();
+        }
+    }
+
+    @Test
+    public void staysCancelledAfterTheInterruptIsCleared() throws Exception {
+        DataSource source = new InterruptibleDataSource(DataSources.asDataSource(ByteBuffer.wrap(new byte[64])));
+        Thread.currentThread().interrupt();
+        try {
+            source.getByteBuffer(0, 8);
+            fail("read did not see the interruption");
+        }
+        catch (InterruptedIOException e) {
+            // expected
+        }
+        Thread.interrupted();
+
+        try {
+            source.slice(0, 32).getByteBuffer(0, 8);
+            fail("read after clearing the interrupt was not cancelled");
+        }
+        catch (InterruptedIOException e) {
+            // expected
+        }
+    }
+}
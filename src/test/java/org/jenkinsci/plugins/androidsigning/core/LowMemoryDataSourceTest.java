@@ -0,0 +1,158 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class LowMemoryDataSourceTest {
+
+    private static final long MEBIBYTE = 1024L * 1024;
+
+    private static class RecordingSink implements DataSink {
+
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int maxChunkSize = 0;
+
+        @Override
+        public void consume(byte[] buf, int offset, int length) {
+            maxChunkSize = Math.max(maxChunkSize, length);
+            data.write(buf, offset, length);
+        }
+
+        @Override
+        public void consume(ByteBuffer buf) {
+            byte[] chunk = new byte[buf.remaining()];
+            buf.get(chunk);
+            consume(chunk, 0, chunk.length);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private byte[] content;
+    private File file;
+
+    private RandomAccessFile openContent(int size) throws Exception {
+        content = new byte[size];
+        new Random(size).nextBytes(content);
+        file = tempDir.newFile();
+        Files.write(file.toPath(), content);
+        return new RandomAccessFile(file, "r");
+    }
+
+    @Test
+    public void feedsThroughBuffersNoLargerThanTheBudgetAllows() throws Exception {
+        long budget = 4 * MEBIBYTE;
+        try (RandomAccessFile in = openContent(3 * LowMemoryDataSource.MAX_BUFFER_SIZE + 17)) {
+            LowMemoryDataSource source = new LowMemoryDataSource(in.getChannel(), budget);
+            RecordingSink sink = new RecordingSink();
+            source.feed(0, source.size(), sink);
+
+            assertThat(source.getFeedBufferSize(), equalTo(LowMemoryDataSource.bufferSizeFor(budget)));
+            assertThat(sink.maxChunkSize, lessThanOrEqualTo(source.getFeedBufferSize()));
+            assertTrue(Arrays.equals(sink.data.toByteArray(), content));
+        }
+    }
+
+    @Test
+    public void sharesFeedBuffersAmongThreadsInsteadOfKeepingOnePerThread() throws Exception {
+        try (RandomAccessFile in = openContent(100000)) {
+            LowMemoryDataSource source = new LowMemoryDataSource(in.getChannel(), MEBIBYTE);
+            for (int i = 0; i < 3; i++) {
+                Thread feeding = new Thread(() -> {
+                    try {
+                        source.slice(1000, 50000).feed(0, 50000, new RecordingSink());
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                feeding.start();
+                feeding.join();
+            }
+
+            assertThat(source.getIdleFeedBuffers(), equalTo(1));
+        }
+    }
+
+    @Test
+    public void slicesReadTheirOwnRegion() throws Exception {
+        try (RandomAccessFile in = openContent(100000)) {
+            DataSource slice = new LowMemoryDataSource(in.getChannel(), MEBIBYTE).slice(1000, 50000).slice(10, 20000);
+            RecordingSink sink = new RecordingSink();
+            slice.feed(5, 19990, sink);
+
+            assertTrue(Arrays.equals(sink.data.toByteArray(), Arrays.copyOfRange(content, 1015, 21005)));
+
+            ByteBuffer copy = ByteBuffer.allocate(100);
+            copy.position(10);
+            slice.copyTo(0, 90, copy);
+            assertThat(copy.position(), equalTo(100));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(copy.array(), 10, 100), Arrays.copyOfRange(content, 1010, 1100)));
+        }
+    }
+
+    @Test
+    public void mapsLargeRegionsInsteadOfCopyingThemToTheHeap() throws Exception {
+        long budget = MEBIBYTE;
+        int largeSize = (int) LowMemoryDataSource.mappingThresholdFor(budget) + 1;
+        try (RandomAccessFile in = openContent(largeSize + 100)) {
+            LowMemoryDataSource source = new LowMemoryDataSource(in.getChannel(), budget);
+
+            ByteBuffer small = source.getByteBuffer(100, 1000);
+            assertThat(small.isDirect(), is(false));
+            assertThat(small.remaining(), equalTo(1000));
+            assertThat(small.get(0), equalTo(content[100]));
+
+            ByteBuffer large = source.getByteBuffer(100, largeSize);
+            assertThat(large.isDirect(), is(true));
+            assertThat(large.remaining(), equalTo(largeSize));
+            assertThat(large.get(largeSize - 1), equalTo(content[100 + largeSize - 1]));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsReadsPastTheEnd() throws Exception {
+        try (RandomAccessFile in = openContent(1000)) {
+            new LowMemoryDataSource(in.getChannel(), MEBIBYTE).getByteBuffer(900, 101);
+        }
+    }
+
+    @Test
+    public void rejectsCopiesLargerThanTheDestination() throws Exception {
+        try (RandomAccessFile in = openContent(1000)) {
+            ByteBuffer dest = ByteBuffer.allocate(100);
+            dest.position(50);
+            try {
+                new LowMemoryDataSource(in.getChannel(), MEBIBYTE).copyTo(0, 51, dest);
+                fail("copied 51 bytes into 50 bytes of room");
+            }
+            catch (BufferOverflowException e) {
+                assertThat(dest.position(), equalTo(50));
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+
+public class MainTest {
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void signsMatchingApksAndReportsTimings() throws Exception {
+        File workspace = tempDir.newFolder("workspace");
+        File unsignedApk = new File(workspace, "app/build/outputs/apk/app-unsigned.apk");
+        assertTrue(unsignedApk.getParentFile().mkdirs());
+        Files.copy(new File(getClass().getResource("/workspace/SignApksBuilderTest-unsigned.apk").toURI()).toPath(), unsignedApk.toPath());
+        File keyStore = new File(getClass().getResource("/SignApksBuilderTest.p12").toURI());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        int exitCode = Main.run(new String[] {
+            "--keystore", keyStore.getPath(), "--alias", "SignApksBuilderTest", "--password", "SignApksBuilderTest",
+            "--workspace", workspace.getPath(), "--fsync", "file", "**/*-unsigned.apk"
+        }, new PrintStream(out, true, "UTF-8"), new PrintStream(err, true, "UTF-8"));
+
+        assertThat(err.toString("UTF-8"), exitCode, equalTo(Main.EXIT_OK));
+        assertTrue(new File(workspace, "app/build/outputs/apk/app.apk").isFile());
+        String report = out.toString("UTF-8");
+        assertThat(report, containsString("signed app/build/outputs/apk/app-unsigned.apk -> app/build/outputs/apk/app.apk"));
+        assertThat(report, containsString("signed 1 APKs"));
+    }
+
+    @Test
+    public void rejectsAnUnknownFsyncPolicy() throws Exception {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        int exitCode = Main.run(new String[] { "--keystore", "release.p12", "--fsync", "always", "*.apk" },
+            new PrintStream(new ByteArrayOutputStream()), new PrintStream(err, true, "UTF-8"));
+
+        assertThat(exitCode, equalTo(Main.EXIT_USAGE));
+        assertThat(err.toString("UTF-8"), containsString("--fsync takes none, file, or directory"));
+    }
+}
@@ -0,0 +1,87 @@
+package org.jenkinsci.plugins.androidsigning.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class ZipAlignmentTest {
+
+    private static void writeStoredEntry(ZipOutputStream zip, String name, byte[] content) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void testApksAreAligned() throws Exception {
+        File workspace = new File(getClass().getResource("/workspace").toURI());
+
+        assertTrue(ZipAlignment.isAligned(new File(workspace, "SignApksBuilderTest-unsigned.apk"), ZipAlignment.DEFAULT_ALIGNMENT, true));
+        assertTrue(ZipAlignment.isAligned(new File(workspace, "SignApksBuilderTest-chocolate_flavor.apk"), ZipAlignment.DEFAULT_ALIGNMENT, true));
+    }
+
+    @Test
+    public void detectsMisalignedStoredEntry() throws Exception {
+        File zipFile = tempDir.newFile("misaligned.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            // 30 byte local header + 1 byte name puts the data at offset 31
+            writeStoredEntry(zip, "a", new byte[] { 1, 2, 3 });
+        }
+
+        assertFalse(ZipAlignment.isAligned(zipFile, ZipAlignment.DEFAULT_ALIGNMENT, true));
+    }
+
+    @Test
+    public void acceptsAlignedStoredEntry() throws Exception {
+        File zipFile = tempDir.newFile("aligned.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            // 30 byte local header + 2 byte name puts the data at offset 32
+            writeStoredEntry(zip, "ab", new byte[] { 1, 2, 3, 4 });
+        }
+
+        assertTrue(ZipAlignment.isAligned(zipFile, ZipAlignment.DEFAULT_ALIGNMENT, true));
+    }
+
+    @Test
+    public void requiresPageAlignmentForSharedLibraries() throws Exception {
+        File zipFile = tempDir.newFile("lib.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            // data at offset 30 + 26 = 56, which is 4-byte but not 4 KiB aligned
+            writeStoredEntry(zip, "lib/arm64-v8a/libfoo123.so", new byte[] { 1, 2, 3, 4 });
+        }
+
+        assertTrue(ZipAlignment.isAligned(zipFile, ZipAlignment.DEFAULT_ALIGNMENT, false));
+        assertFalse(ZipAlignment.isAligned(zipFile, ZipAlignment.DEFAULT_ALIGNMENT, true));
+    }
+
+    @Test
+    public void rejectsFilesThatAreNotZips() throws Exception {
+        File notZip = tempDir.newFile("not.apk");
+        try (FileOutputStream out = new FileOutputStream(notZip)) {
+            out.write(new byte[100]);
+        }
+
+        assertFalse(ZipAlignment.isAligned(notZip, ZipAlignment.DEFAULT_ALIGNMENT, true));
+    }
+}